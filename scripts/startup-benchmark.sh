@@ -0,0 +1,66 @@
+#!/bin/sh
+# Compares the startup of the production image with the image running the sources through Maven.
+#
+# usage: scripts/startup-benchmark.sh [runs]
+#
+# Each image is started the given number of times (3 by default), measuring the time until the liveness probe
+# answers, the context being started, and until the readiness probe is UP, the warm-up being done. Containers get
+# placeholder credentials and call Rekognition at LABELDETECTOR_REKOGNITION_ENDPOINT when it is set, such as the
+# simulator of the load tests, so that the warm-up does not depend on an AWS account.
+set -e
+
+RUNS=${1:-3}
+PORT=${PORT:-8081}
+TIMEOUT=${TIMEOUT:-600}
+
+cd "$(dirname "$0")/.."
+
+docker build --target source -t labeldetector:source .
+docker build -t labeldetector:production .
+
+now_ms() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# prints the milliseconds until the given probe answers UP, or fails after the timeout
+wait_for() {
+    start=$1
+    probe=$2
+    until curl -sf "http://localhost:$PORT/actuator/health/$probe" | grep -q '"UP"'; do
+        if [ $(( $(now_ms) - start )) -gt $(( TIMEOUT * 1000 )) ]; then
+            echo "timed out" >&2
+            return 1
+        fi
+        sleep 0.1
+    done
+    echo $(( $(now_ms) - start ))
+}
+
+median() {
+    sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+for image in source production; do
+    : > "/tmp/startup-$image-live"
+    : > "/tmp/startup-$image-ready"
+    for run in $(seq 1 "$RUNS"); do
+        start=$(now_ms)
+        container=$(docker run -d --rm --network host \
+            -e AWS_ACCESS_KEY_ID=benchmark -e AWS_SECRET_ACCESS_KEY=benchmark -e AWS_REGION=eu-west-2 \
+            -e LABELDETECTOR_REKOGNITION_ENDPOINT="${LABELDETECTOR_REKOGNITION_ENDPOINT:-}" \
+            -e SERVER_PORT="$PORT" \
+            "labeldetector:$image")
+        live=$(wait_for "$start" liveness)
+        ready=$(wait_for "$start" readiness)
+        docker stop "$container" > /dev/null
+        echo "$image run $run: live in $live ms, ready in $ready ms"
+        echo "$live" >> "/tmp/startup-$image-live"
+        echo "$ready" >> "/tmp/startup-$image-ready"
+    done
+done
+
+echo
+printf "%-12s %12s %12s\n" image "live (ms)" "ready (ms)"
+for image in source production; do
+    printf "%-12s %12s %12s\n" "$image" "$(median < "/tmp/startup-$image-live")" "$(median < "/tmp/startup-$image-ready")"
+done
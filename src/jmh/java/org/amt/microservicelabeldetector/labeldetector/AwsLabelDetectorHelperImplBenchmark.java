@@ -0,0 +1,146 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.sun.net.httpserver.HttpServer;
+import org.amt.microservicelabeldetector.LabelDetectorResultSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the overhead of {@link AwsLabelDetectorHelperImpl} around the call to Rekognition.
+ * </p>
+ * <p>
+ * Rekognition is replaced by a {@link StubRekognitionClient} and images are served by a local server, so the
+ * benchmarks run offline and only measure the work of the service.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AwsLabelDetectorHelperImplBenchmark {
+    private static final int MAX_LABELS = 10;
+    private static final float MIN_CONFIDENCE = 50;
+
+    @Param({"10", "100"})
+    public int nbLabels;
+
+    private HttpServer server;
+    private AwsLabelDetectorHelperImpl labelDetector;
+    private ObjectMapper objectMapper;
+    private DetectLabelsResponse response;
+    private LabelDetectorResult result;
+    private byte[] image;
+    private URL imageURL;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = randomImage(64 * 1024);
+        server = imageServer(Map.of("/image.jpg", image));
+        imageURL = new URL("http://localhost:" + server.getAddress().getPort() + "/image.jpg");
+        labelDetector = new AwsLabelDetectorHelperImpl(new StubRekognitionClient(nbLabels), new ImageDownloader(), null, null, null);
+        objectMapper = new ObjectMapper().registerModule(new SimpleModule()
+                .addSerializer(LabelDetectorResult.class, new LabelDetectorResultSerializer(false)));
+        response = StubRekognitionClient.response(nbLabels);
+        result = new AwsLabelDetectorHelperImpl.DetectLabelResult(response);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Benchmark
+    public LabelDetectorResult detectLabelsFromBytes() throws LabelDetector.LabelDetectorException {
+        return labelDetector.detectLabels(image, MAX_LABELS, MIN_CONFIDENCE);
+    }
+
+    @Benchmark
+    public LabelDetectorResult detectLabelsFromURL() throws IOException, LabelDetector.LabelDetectorException {
+        return labelDetector.detectLabels(imageURL, MAX_LABELS, MIN_CONFIDENCE);
+    }
+
+    @Benchmark
+    public LabelDetectorResult detectLabelsFromDataObject() throws LabelDetector.LabelDetectorException {
+        return labelDetector.detectLabels("bucket", "image.jpg", MAX_LABELS, MIN_CONFIDENCE);
+    }
+
+    @Benchmark
+    public Map<String, Float> mapLabels() {
+        return new AwsLabelDetectorHelperImpl.DetectLabelResult(response).getLabels();
+    }
+
+    @Benchmark
+    public byte[] serializeResult() throws IOException {
+        return objectMapper.writeValueAsBytes(result);
+    }
+
+    /**
+     * <p>
+     * This method creates random bytes behind the header of a JPEG image, which the downloader accepts.
+     * </p>
+     *
+     * @param size the size of the image.
+     * @return the bytes of the image.
+     */
+    static byte[] randomImage(int size) {
+        byte[] image = new byte[size];
+        ThreadLocalRandom.current().nextBytes(image);
+        // start of image, then a baseline frame header of 256x256 pixels with 3 components
+        byte[] header = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0x00, 0x11, 0x08, 0x01, 0x00, 0x01, 0x00,
+                0x03, 0x01, 0x22, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01};
+        System.arraycopy(header, 0, image, 0, header.length);
+        return image;
+    }
+
+    /**
+     * <p>
+     * This method starts a local server serving the given images as JPEG.
+     * </p>
+     *
+     * @param images the images by path.
+     * @return the started server, listening on an ephemeral port.
+     */
+    static HttpServer imageServer(Map<String, byte[]> images) throws IOException {
+        // small responses would otherwise wait for delayed acknowledgements, which is not what is measured
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        images.forEach((path, bytes) -> server.createContext(path, exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        }));
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        return server;
+    }
+}
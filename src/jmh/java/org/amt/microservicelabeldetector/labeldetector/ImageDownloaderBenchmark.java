@@ -0,0 +1,64 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the download of images of several sizes from a local server.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageDownloaderBenchmark {
+
+    @Param({"16384", "262144", "1048576", "5242880"})
+    public int imageSize;
+
+    private HttpServer server;
+    private ImageDownloader imageDownloader;
+    private URL imageURL;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] image = AwsLabelDetectorHelperImplBenchmark.randomImage(imageSize);
+        server = AwsLabelDetectorHelperImplBenchmark.imageServer(Map.of("/image.jpg", image));
+        imageURL = new URL("http://localhost:" + server.getAddress().getPort() + "/image.jpg");
+        imageDownloader = new ImageDownloader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] download() throws IOException, LabelDetector.LabelDetectorException {
+        return imageDownloader.download(imageURL);
+    }
+}
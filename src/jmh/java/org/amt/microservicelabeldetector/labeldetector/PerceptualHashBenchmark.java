@@ -0,0 +1,70 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the perceptual hash of the test image, as received and as preprocessed, and the lookup of a hash among
+ * those of the cache.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PerceptualHashBenchmark {
+    private static final int INDEXED_HASHES = 10_000;
+
+    private byte[] image;
+    private byte[] preprocessedImage;
+    private NearDuplicateIndex index;
+    private long query;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        preprocessedImage = new ImagePreprocessor.Builder().build().process(image);
+        index = new NearDuplicateIndex(INDEXED_HASHES);
+        Random random = new Random(42);
+        for (int i = 0; i < INDEXED_HASHES; i++) {
+            index.add(random.nextLong(), String.valueOf(i));
+        }
+        query = random.nextLong();
+    }
+
+    @Benchmark
+    public OptionalLong hashImage() {
+        return PerceptualHash.dHash(image);
+    }
+
+    @Benchmark
+    public OptionalLong hashPreprocessedImage() {
+        return PerceptualHash.dHash(preprocessedImage);
+    }
+
+    @Benchmark
+    public String nearest() {
+        return index.nearest(query, 4);
+    }
+}
@@ -0,0 +1,58 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * {@link RekognitionClient} answering every DetectLabels call with the same response, without any network call.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class StubRekognitionClient implements RekognitionClient {
+    private final DetectLabelsResponse response;
+
+    /**
+     * @param nbLabels the number of labels of the response.
+     */
+    public StubRekognitionClient(int nbLabels) {
+        this.response = response(nbLabels);
+    }
+
+    static DetectLabelsResponse response(int nbLabels) {
+        List<Label> labels = new ArrayList<>(nbLabels);
+        for (int i = 0; i < nbLabels; i++) {
+            labels.add(Label.builder()
+                    .name("Label" + i)
+                    .confidence(99f - (float) i / nbLabels * 50)
+                    .parents(Parent.builder().name("Parent" + i / 4).build())
+                    .build());
+        }
+        return DetectLabelsResponse.builder()
+                .labels(labels)
+                .labelModelVersion("2.0")
+                .build();
+    }
+
+    @Override
+    public DetectLabelsResponse detectLabels(DetectLabelsRequest detectLabelsRequest) {
+        return response;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
@@ -0,0 +1,142 @@
+package org.amt.microservicelabeldetector;
+
+import org.amt.microservicelabeldetector.labeldetector.AwsServiceConfigurator;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the AWS clients, bound from the {@code labeldetector.aws} properties
+ *
+ * @author Nelson Jeanreneaud
+ */
+@ConfigurationProperties(prefix = "labeldetector.aws")
+public class AwsClientProperties {
+    /**
+     * Where the credentials are read from.
+     */
+    public enum Credentials {
+        /** the default chain of the SDK: system properties, environment, web identity, profile, then metadata */
+        DEFAULT,
+        /** the profile file only */
+        PROFILE,
+        /** the AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY environment variables only */
+        ENVIRONMENT
+    }
+
+    private String region = "eu-west-2";
+    private List<String> additionalRegions = new ArrayList<>();
+    private Credentials credentials = Credentials.DEFAULT;
+    private String profile = "default";
+    private Duration apiCallTimeout = Duration.ofSeconds(30);
+    private Duration apiCallAttemptTimeout = Duration.ofSeconds(10);
+    private final Http http = new Http();
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    /**
+     * @return the regions Rekognition is also called in, hedging the slow calls of the others, none by default.
+     */
+    public List<String> getAdditionalRegions() {
+        return additionalRegions;
+    }
+
+    public void setAdditionalRegions(List<String> additionalRegions) {
+        this.additionalRegions = additionalRegions;
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    public void setCredentials(Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public Duration getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    public void setApiCallTimeout(Duration apiCallTimeout) {
+        this.apiCallTimeout = apiCallTimeout;
+    }
+
+    public Duration getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
+    public void setApiCallAttemptTimeout(Duration apiCallAttemptTimeout) {
+        this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    /**
+     * Settings of the HTTP client, bound from the {@code labeldetector.aws.http} properties
+     */
+    public static class Http {
+        private AwsServiceConfigurator.HttpClientType client = AwsServiceConfigurator.HttpClientType.APACHE;
+        private int maxConnections = 200;
+        private Duration connectionTimeToLive = Duration.ofSeconds(60);
+        private boolean tcpKeepAlive = true;
+        private Duration connectionTimeout = Duration.ofSeconds(2);
+
+        public AwsServiceConfigurator.HttpClientType getClient() {
+            return client;
+        }
+
+        public void setClient(AwsServiceConfigurator.HttpClientType client) {
+            this.client = client;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Duration getConnectionTimeToLive() {
+            return connectionTimeToLive;
+        }
+
+        public void setConnectionTimeToLive(Duration connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+        }
+
+        public boolean isTcpKeepAlive() {
+            return tcpKeepAlive;
+        }
+
+        public void setTcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+        }
+
+        public Duration getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        public void setConnectionTimeout(Duration connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+        }
+    }
+}
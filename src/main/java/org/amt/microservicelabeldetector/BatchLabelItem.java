@@ -0,0 +1,63 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+
+/**
+ * One line of the response to a batch label detection request
+ * <p>
+ * It holds either the result of the detection, or the HTTP status and the error the image would have got on its own.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchLabelItem {
+    private final int index;
+    private final String image;
+    private final LabelDetectorResult result;
+    private final Integer status;
+    private final String error;
+    private final String message;
+
+    private BatchLabelItem(int index, String image, LabelDetectorResult result, Integer status, String error, String message) {
+        this.index = index;
+        this.image = image;
+        this.result = result;
+        this.status = status;
+        this.error = error;
+        this.message = message;
+    }
+
+    public static BatchLabelItem success(int index, String image, LabelDetectorResult result) {
+        return new BatchLabelItem(index, image, result, null, null, null);
+    }
+
+    public static BatchLabelItem failure(int index, String image, int status, Exception exception) {
+        return new BatchLabelItem(index, image, null, status, exception.getClass().getSimpleName(), exception.getMessage());
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getImage() {
+        return image;
+    }
+
+    public LabelDetectorResult getResult() {
+        return result;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
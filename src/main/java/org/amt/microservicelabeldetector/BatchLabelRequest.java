@@ -0,0 +1,59 @@
+package org.amt.microservicelabeldetector;
+
+import java.util.List;
+
+/**
+ * Body of a batch label detection request
+ * <p>
+ * The images are given either by their urls, or by their keys in a dataObject.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class BatchLabelRequest {
+    private List<String> imageURLs;
+    private String dataObject;
+    private List<String> keys;
+    private int maxLabels = 10;
+    private int confidence = 90;
+
+    public List<String> getImageURLs() {
+        return imageURLs;
+    }
+
+    public void setImageURLs(List<String> imageURLs) {
+        this.imageURLs = imageURLs;
+    }
+
+    public String getDataObject() {
+        return dataObject;
+    }
+
+    public void setDataObject(String dataObject) {
+        this.dataObject = dataObject;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(List<String> keys) {
+        this.keys = keys;
+    }
+
+    public int getMaxLabels() {
+        return maxLabels;
+    }
+
+    public void setMaxLabels(int maxLabels) {
+        this.maxLabels = maxLabels;
+    }
+
+    public int getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(int confidence) {
+        this.confidence = confidence;
+    }
+}
@@ -0,0 +1,84 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectionJobs;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifier of completed jobs to their callback url
+ * <p>
+ * The job is sent as JSON in a POST request, the same body as returned when polling. Notifications are sent
+ * asynchronously, so a slow callback never holds a worker, and retried with an exponential backoff until the callback
+ * answers with a 2xx status or the attempts run out.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class JobWebhookNotifier implements LabelDetectionJobs.CompletionListener {
+    private final ObjectMapper objectMapper;
+    private final LabelDetectorMetrics metrics;
+    private final Duration timeout;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final HttpClient httpClient;
+
+    public JobWebhookNotifier(ObjectMapper objectMapper, LabelDetectorMetrics metrics, Duration timeout, int maxAttempts, Duration backoff) {
+        Objects.requireNonNull(objectMapper);
+        Objects.requireNonNull(metrics);
+        Objects.requireNonNull(timeout);
+        Objects.requireNonNull(backoff);
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be greater than 0");
+        }
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    @Override
+    public void onCompletion(LabelDetectionJobs.Job job) {
+        if (job.getCallback() == null) {
+            return;
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(LabelJobItem.of(job));
+        } catch (JsonProcessingException e) {
+            metrics.recordWebhook(false);
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(job.getCallback())
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        send(request, 1);
+    }
+
+    private void send(HttpRequest request, int attempt) {
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e == null && response.statusCode() / 100 == 2) {
+                metrics.recordWebhook(true);
+            } else if (attempt < maxAttempts && (e != null || response.statusCode() >= 500 || response.statusCode() == 429)) {
+                long delay = backoff.toMillis() << (attempt - 1);
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> send(request, attempt + 1));
+            } else {
+                metrics.recordWebhook(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,509 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.MultipartConfigElement;
+import org.amt.microservicelabeldetector.labeldetector.AdaptiveConcurrencyLimiter;
+import org.amt.microservicelabeldetector.labeldetector.AsyncCachingLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.AsyncCoalescingLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.AsyncLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.AwsAsyncLabelDetectorImpl;
+import org.amt.microservicelabeldetector.labeldetector.AwsLabelDetectorHelperImpl;
+import org.amt.microservicelabeldetector.labeldetector.AwsServiceConfigurator;
+import org.amt.microservicelabeldetector.labeldetector.BatchLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.CachingLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.CircuitBreakerLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.CoalescingLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.DiskResultStore;
+import org.amt.microservicelabeldetector.labeldetector.HedgingLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.ImageDownloader;
+import org.amt.microservicelabeldetector.labeldetector.ImagePreprocessor;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectionJobs;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorWarmUp;
+import org.amt.microservicelabeldetector.labeldetector.LocalLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.ReactiveLabelDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Spring configuration of the {@link LabelDetector} used by the controllers
+ *
+ * @author Nelson Jeanreneaud
+ */
+@Configuration
+@EnableConfigurationProperties(AwsClientProperties.class)
+public class LabelDetectorConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LabelDetectorConfiguration.class);
+    private static final int MULTIPART_HEADROOM_BYTES = 64 * 1024;
+    private static final String ONNX_RUNTIME_CLASS = "ai.onnxruntime.OrtEnvironment";
+
+    @Bean
+    public AwsServiceConfigurator awsServiceConfigurator(AwsClientProperties awsClientProperties,
+                                                         @Value("${labeldetector.rekognition.endpoint}") String endpoint) {
+        AwsClientProperties.Http http = awsClientProperties.getHttp();
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder()
+                .withRegion(awsClientProperties.getRegion())
+                .withHttpClient(http.getClient())
+                .withMaxConnections(http.getMaxConnections())
+                .withConnectionTimeToLive(http.getConnectionTimeToLive())
+                .withTcpKeepAlive(http.isTcpKeepAlive())
+                .withConnectionTimeout(http.getConnectionTimeout())
+                .withApiCallTimeouts(awsClientProperties.getApiCallTimeout(), awsClientProperties.getApiCallAttemptTimeout());
+        switch (awsClientProperties.getCredentials()) {
+            case PROFILE -> builder.withProfile(awsClientProperties.getProfile());
+            case ENVIRONMENT -> builder.withEnvironmentVariables();
+            default -> builder.withDefaultCredentialsChain();
+        }
+        if (!endpoint.isBlank()) {
+            builder.withEndpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the Rekognition client shared by the synchronous detections, closed with the context.
+     */
+    @Bean
+    public RekognitionClient rekognitionClient(AwsServiceConfigurator awsServiceConfigurator) {
+        return awsServiceConfigurator.createRekognitionClient();
+    }
+
+    @Bean
+    public ImageDownloader imageDownloader(@Value("${labeldetector.download.max-bytes}") int maxBytes,
+                                           @Value("${labeldetector.download.connect-timeout}") Duration connectTimeout,
+                                           @Value("${labeldetector.download.read-timeout}") Duration readTimeout,
+                                           @Value("${labeldetector.download.timeout}") Duration downloadTimeout,
+                                           @Value("${labeldetector.download.max-connections-per-host}") int maxConnectionsPerHost) {
+        return new ImageDownloader.Builder()
+                .withMaxBytes(maxBytes)
+                .withConnectTimeout(connectTimeout)
+                .withReadTimeout(readTimeout)
+                .withDownloadTimeout(downloadTimeout)
+                .withMaxConnectionsPerHost(maxConnectionsPerHost)
+                .build();
+    }
+
+    @Bean
+    public ImagePreprocessor imagePreprocessor(LabelDetectorMetrics labelDetectorMetrics,
+                                               @Value("${labeldetector.preprocessing.max-dimension}") int maxDimension,
+                                               @Value("${labeldetector.preprocessing.quality}") float quality) {
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor.Builder()
+                .withMaxDimension(maxDimension)
+                .withQuality(quality)
+                .build();
+        labelDetectorMetrics.bindImagePreprocessor(imagePreprocessor);
+        return imagePreprocessor;
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter rekognitionConcurrencyLimiter(@Value("${labeldetector.rekognition.initial-concurrency}") int initialLimit,
+                                                                    @Value("${labeldetector.rekognition.min-concurrency}") int minLimit,
+                                                                    @Value("${labeldetector.rekognition.max-concurrency}") int maxLimit,
+                                                                    @Value("${labeldetector.rekognition.max-queue-size}") int maxQueueSize,
+                                                                    @Value("${labeldetector.rekognition.max-wait}") Duration maxWait,
+                                                                    @Value("${labeldetector.rekognition.max-call-time}") Duration maxCallTime,
+                                                                    @Value("${labeldetector.rekognition.max-attempts}") int maxAttempts,
+                                                                    @Value("${labeldetector.rekognition.base-backoff}") Duration baseBackoff,
+                                                                    @Value("${labeldetector.rekognition.max-backoff}") Duration maxBackoff) {
+        return new AdaptiveConcurrencyLimiter.Builder()
+                .withLimits(initialLimit, minLimit, maxLimit)
+                .withMaxQueueSize(maxQueueSize)
+                .withMaxWait(maxWait)
+                .withMaxCallTime(maxCallTime)
+                .withMaxAttempts(maxAttempts)
+                .withBackoff(baseBackoff, maxBackoff)
+                .build();
+    }
+
+    @Bean
+    public Module labelDetectorResultModule(LabelDetectorMetrics labelDetectorMetrics,
+                                            @Value("${labeldetector.result.include-details}") boolean includeDetails) {
+        return new SimpleModule("LabelDetectorResultModule")
+                .addSerializer(LabelDetectorResult.class, new LabelDetectorResultSerializer(includeDetails, labelDetectorMetrics));
+    }
+
+    @Bean
+    public LabelDetectorMetrics labelDetectorMetrics(MeterRegistry meterRegistry) {
+        return new LabelDetectorMetrics(meterRegistry);
+    }
+
+    /**
+     * @return the detector spreading the calls over the region and the additional regions, or null when there is none.
+     */
+    @Bean
+    public HedgingLabelDetector rekognitionRegions(AwsClientProperties awsClientProperties,
+                                                   AwsServiceConfigurator awsServiceConfigurator,
+                                                   RekognitionClient rekognitionClient,
+                                                   ImageDownloader imageDownloader,
+                                                   ImagePreprocessor imagePreprocessor,
+                                                   AdaptiveConcurrencyLimiter rekognitionConcurrencyLimiter,
+                                                   LabelDetectorMetrics labelDetectorMetrics,
+                                                   @Value("${labeldetector.preprocessing.enabled}") boolean preprocessingEnabled,
+                                                   @Value("${labeldetector.hedging.percentile}") double percentile,
+                                                   @Value("${labeldetector.hedging.min-delay}") Duration minDelay,
+                                                   @Value("${labeldetector.hedging.budget}") double budget,
+                                                   @Value("${labeldetector.hedging.probe-rate}") double probeRate) {
+        if (awsClientProperties.getAdditionalRegions().isEmpty()) {
+            return null;
+        }
+        ImagePreprocessor preprocessor = preprocessingEnabled ? imagePreprocessor : null;
+        HedgingLabelDetector.Builder builder = new HedgingLabelDetector.Builder()
+                .withRegion(awsClientProperties.getRegion(), new AwsLabelDetectorHelperImpl(rekognitionClient,
+                        imageDownloader, preprocessor, rekognitionConcurrencyLimiter, labelDetectorMetrics))
+                .withHedgeDelay(percentile, minDelay)
+                .withBudget(budget)
+                .withProbeRate(probeRate);
+        for (String region : awsClientProperties.getAdditionalRegions()) {
+            // each region throttles on its own, so each has its own limit
+            builder.withRegion(region, new AwsLabelDetectorHelperImpl(awsServiceConfigurator.createRekognitionClient(Region.of(region)),
+                    imageDownloader, preprocessor, rekognitionConcurrencyLimiter.copy(), labelDetectorMetrics));
+        }
+        HedgingLabelDetector hedging = builder.build();
+        labelDetectorMetrics.bindHedging(hedging);
+        return hedging;
+    }
+
+    @Bean
+    public CircuitBreakerLabelDetector rekognitionCircuitBreaker(RekognitionClient rekognitionClient,
+                                                                 @Nullable HedgingLabelDetector rekognitionRegions,
+                                                                 ImageDownloader imageDownloader,
+                                                                 ImagePreprocessor imagePreprocessor,
+                                                                 AdaptiveConcurrencyLimiter rekognitionConcurrencyLimiter,
+                                                                 LabelDetectorMetrics labelDetectorMetrics,
+                                                                 @Value("${labeldetector.preprocessing.enabled}") boolean preprocessingEnabled,
+                                                                 @Value("${labeldetector.circuit-breaker.failure-rate-threshold}") float failureRateThreshold,
+                                                                 @Value("${labeldetector.circuit-breaker.window-size}") int windowSize,
+                                                                 @Value("${labeldetector.circuit-breaker.minimum-calls}") int minimumCalls,
+                                                                 @Value("${labeldetector.circuit-breaker.open-duration}") Duration openDuration,
+                                                                 @Value("${labeldetector.circuit-breaker.half-open-calls}") int halfOpenCalls,
+                                                                 @Value("${labeldetector.bulkhead.max-concurrent-calls}") int maxConcurrentCalls,
+                                                                 @Value("${labeldetector.bulkhead.max-wait}") Duration maxWait) {
+        LabelDetector awsLabelDetector = rekognitionRegions != null ? rekognitionRegions : new AwsLabelDetectorHelperImpl(rekognitionClient,
+                imageDownloader, preprocessingEnabled ? imagePreprocessor : null, rekognitionConcurrencyLimiter, labelDetectorMetrics);
+        CircuitBreakerLabelDetector circuitBreaker = new CircuitBreakerLabelDetector.Builder(awsLabelDetector)
+                .withName("rekognition")
+                .withFailureRateThreshold(failureRateThreshold)
+                .withWindow(windowSize, minimumCalls)
+                .withOpenDuration(openDuration)
+                .withHalfOpenCalls(halfOpenCalls)
+                .withBulkhead(maxConcurrentCalls, maxWait)
+                .build();
+        labelDetectorMetrics.bindImageDownloader(imageDownloader);
+        labelDetectorMetrics.bindConcurrencyLimiter(rekognitionConcurrencyLimiter);
+        labelDetectorMetrics.bindCircuitBreaker(circuitBreaker);
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the detector running the model on the CPU, or null when the labels are detected by Rekognition. ONNX
+     * Runtime is only packaged by the local-backend profile, its classes are not loaded otherwise.
+     */
+    @Bean
+    public LocalLabelDetector localLabelDetector(ImageDownloader imageDownloader,
+                                                 LabelDetectorMetrics labelDetectorMetrics,
+                                                 @Value("${labeldetector.backend}") String backend,
+                                                 @Value("${labeldetector.local.model}") String model,
+                                                 @Value("${labeldetector.local.labels}") String labels,
+                                                 @Value("${labeldetector.local.sessions}") int sessions,
+                                                 @Value("${labeldetector.local.max-batch-size}") int maxBatchSize,
+                                                 @Value("${labeldetector.local.max-batch-delay}") Duration maxBatchDelay,
+                                                 @Value("${labeldetector.local.max-queue-size}") int maxQueueSize,
+                                                 @Value("${labeldetector.local.input-width}") int inputWidth,
+                                                 @Value("${labeldetector.local.input-height}") int inputHeight) throws IOException {
+        if ("rekognition".equals(backend)) {
+            return null;
+        }
+        if (!"local".equals(backend)) {
+            throw new IllegalArgumentException("Backend must be rekognition or local, not " + backend);
+        }
+        if (model.isBlank() || labels.isBlank()) {
+            throw new IllegalArgumentException("The local backend needs a model and its labels");
+        }
+        if (!ClassUtils.isPresent(ONNX_RUNTIME_CLASS, getClass().getClassLoader())) {
+            throw new IllegalStateException("The local backend needs ONNX Runtime, packaged with mvn -Plocal-backend package");
+        }
+        LocalLabelDetector.Builder builder = new LocalLabelDetector.Builder(Path.of(model), Path.of(labels), imageDownloader)
+                .withMaxBatchSize(maxBatchSize)
+                .withMaxBatchDelay(maxBatchDelay)
+                .withMaxQueueSize(maxQueueSize)
+                .withInputSize(inputWidth, inputHeight)
+                .withMetrics(labelDetectorMetrics);
+        if (sessions > 0) {
+            builder.withSessions(sessions);
+        }
+        LocalLabelDetector localLabelDetector = builder.build();
+        labelDetectorMetrics.bindLocalLabelDetector(localLabelDetector);
+        return localLabelDetector;
+    }
+
+    /**
+     * @return the disk store backing the cache, or null when no directory is configured.
+     */
+    @Bean
+    public DiskResultStore resultStore(LabelDetectorMetrics labelDetectorMetrics,
+                                       @Value("${labeldetector.store.directory}") String directory,
+                                       @Value("${labeldetector.store.max-bytes}") long maxBytes,
+                                       @Value("${labeldetector.store.time-to-live}") Duration timeToLive) throws IOException {
+        if (directory.isBlank()) {
+            return null;
+        }
+        DiskResultStore store = new DiskResultStore.Builder(Path.of(directory))
+                .withMaxBytes(maxBytes)
+                .withTimeToLive(timeToLive)
+                .build();
+        labelDetectorMetrics.bindResultStore(store);
+        return store;
+    }
+
+    /**
+     * @return the cache of the detections of the local model when it is the configured backend, of Rekognition
+     * otherwise, shared by the detector of the controllers and the one of the reactive mode.
+     */
+    @Bean
+    public CachingLabelDetector cachingLabelDetector(CircuitBreakerLabelDetector rekognitionCircuitBreaker,
+                                                     @Nullable LocalLabelDetector localLabelDetector,
+                                                     ImageDownloader imageDownloader,
+                                                     ImagePreprocessor imagePreprocessor,
+                                                     LabelDetectorMetrics labelDetectorMetrics,
+                                                     @Nullable DiskResultStore resultStore,
+                                                     @Value("${labeldetector.preprocessing.enabled}") boolean preprocessingEnabled,
+                                                     @Value("${labeldetector.cache.max-entries}") int cacheMaxEntries,
+                                                     @Value("${labeldetector.cache.time-to-live}") Duration cacheTimeToLive,
+                                                     @Value("${labeldetector.cache.near-duplicate.enabled}") boolean nearDuplicateEnabled,
+                                                     @Value("${labeldetector.cache.near-duplicate.max-distance}") int nearDuplicateMaxDistance) {
+        LabelDetector backend = localLabelDetector != null ? localLabelDetector : rekognitionCircuitBreaker;
+        CachingLabelDetector.Builder builder = new CachingLabelDetector.Builder(backend, imageDownloader)
+                // a store filled by one backend or model is kept apart from the results of the others
+                .withBackend(localLabelDetector != null ? "local:" + localLabelDetector.getModelId() : "rekognition")
+                .withMaxEntries(cacheMaxEntries)
+                .withTimeToLive(cacheTimeToLive);
+        if (resultStore != null) {
+            builder.withStore(resultStore);
+        }
+        if (nearDuplicateEnabled) {
+            builder.withNearDuplicates(nearDuplicateMaxDistance).withMetrics(labelDetectorMetrics);
+            if (preprocessingEnabled) {
+                builder.withImagePreprocessor(imagePreprocessor);
+            }
+        }
+        CachingLabelDetector cachingLabelDetector = builder.build();
+        labelDetectorMetrics.bindCache(cachingLabelDetector);
+        return cachingLabelDetector;
+    }
+
+    /**
+     * @return the detector of the controllers, coalescing the detections of the cache.
+     */
+    @Bean
+    @Primary
+    public LabelDetector labelDetector(CachingLabelDetector cachingLabelDetector) {
+        return new CoalescingLabelDetector(cachingLabelDetector);
+    }
+
+    @Bean
+    public AsyncLabelDetector asyncLabelDetector(AwsServiceConfigurator awsServiceConfigurator,
+                                                 ImageDownloader imageDownloader,
+                                                 ImagePreprocessor imagePreprocessor,
+                                                 @Value("${labeldetector.preprocessing.enabled}") boolean preprocessingEnabled,
+                                                 @Value("${labeldetector.async.download-threads}") int downloadThreads,
+                                                 @Value("${labeldetector.async.max-concurrency}") int maxConcurrency) {
+        return new AwsAsyncLabelDetectorImpl(awsServiceConfigurator, imageDownloader,
+                preprocessingEnabled ? imagePreprocessor : null, downloadThreads, maxConcurrency);
+    }
+
+    /**
+     * @return the server of the reactive mode, Netty rather than the Tomcat also on the classpath for the servlet mode.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * @return the non-blocking detector of the reactive mode, downloading images with the limits of the downloader and
+     * detecting them with the asynchronous client, through the circuit breaker of Rekognition, the cache when it holds
+     * Rekognition's results, and the coalescing of identical requests.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveLabelDetector reactiveLabelDetector(AsyncLabelDetector asyncLabelDetector,
+                                                       CircuitBreakerLabelDetector rekognitionCircuitBreaker,
+                                                       CachingLabelDetector cachingLabelDetector,
+                                                       @Nullable LocalLabelDetector localLabelDetector,
+                                                       @Value("${labeldetector.download.max-bytes}") int maxBytes,
+                                                       @Value("${labeldetector.download.connect-timeout}") Duration connectTimeout,
+                                                       @Value("${labeldetector.download.read-timeout}") Duration readTimeout,
+                                                       @Value("${labeldetector.download.timeout}") Duration downloadTimeout,
+                                                       @Value("${labeldetector.download.max-connections-per-host}") int maxConnectionsPerHost,
+                                                       @Value("${labeldetector.download.keep-alive}") Duration keepAlive) {
+        AsyncLabelDetector detector = rekognitionCircuitBreaker.guard(asyncLabelDetector);
+        if (localLabelDetector == null) {
+            // the disk store is accessed on the bounded elastic scheduler, made for blocking tasks
+            detector = new AsyncCachingLabelDetector(detector, cachingLabelDetector, runnable -> Schedulers.boundedElastic().schedule(runnable));
+        }
+        return new ReactiveLabelDetector.Builder(new AsyncCoalescingLabelDetector(detector))
+                .withMaxBytes(maxBytes)
+                .withConnectTimeout(connectTimeout)
+                .withReadTimeout(readTimeout)
+                .withDownloadTimeout(downloadTimeout)
+                .withMaxConnectionsPerHost(maxConnectionsPerHost)
+                .withKeepAlive(keepAlive)
+                .build();
+    }
+
+    /**
+     * @return the configurer giving the requests which hold a timeout attribute, the streamed batches, that timeout
+     * rather than the one of spring.mvc.async.request-timeout.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public WebMvcConfigurer asyncTimeoutConfigurer() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                        // called before the asynchronous processing starts, while its timeout can still be set
+                        Object timeout = request.getAttribute(LabelDetectorController.ASYNC_TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                        if (timeout instanceof Duration duration && request instanceof AsyncWebRequest asyncWebRequest) {
+                            asyncWebRequest.setTimeout(duration.toMillis());
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return the multipart settings, an uploaded file being bounded by labeldetector.upload.max-bytes and the
+     * whole request by that size and some room for the other parts and the headers.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MultipartConfigElement multipartConfigElement(MultipartProperties multipartProperties,
+                                                         @Value("${labeldetector.upload.max-bytes}") int maxUploadBytes) {
+        String location = multipartProperties.getLocation() == null ? "" : multipartProperties.getLocation();
+        return new MultipartConfigElement(location, maxUploadBytes, maxUploadBytes + MULTIPART_HEADROOM_BYTES,
+                (int) multipartProperties.getFileSizeThreshold().toBytes());
+    }
+
+    @Bean
+    public BatchLabelDetector batchLabelDetector(LabelDetector labelDetector,
+                                                 @Value("${labeldetector.batch.threads}") int threads,
+                                                 @Value("${labeldetector.batch.max-in-flight}") int maxInFlight) {
+        return new BatchLabelDetector(labelDetector, threads, maxInFlight);
+    }
+
+    /**
+     * @return the warm-up of the clients, connections and detection paths, run before the service reports itself
+     * ready: runners complete before the readiness state turns to accepting traffic. Whether it runs is read when
+     * the runner is called, as an ahead-of-time processed context fixes the bean conditions at build time.
+     */
+    @Bean
+    public ApplicationRunner labelDetectorWarmUp(AwsServiceConfigurator awsServiceConfigurator,
+                                                 RekognitionClient rekognitionClient,
+                                                 @Nullable HedgingLabelDetector rekognitionRegions,
+                                                 @Nullable LocalLabelDetector localLabelDetector,
+                                                 ImageDownloader imageDownloader,
+                                                 ImagePreprocessor imagePreprocessor,
+                                                 ObjectMapper objectMapper,
+                                                 LabelDetectorMetrics labelDetectorMetrics,
+                                                 @Value("${labeldetector.preprocessing.enabled}") boolean preprocessingEnabled,
+                                                 @Value("${labeldetector.warmup.enabled}") boolean enabled,
+                                                 @Value("${labeldetector.warmup.connections}") int connections,
+                                                 @Value("${labeldetector.warmup.image-urls}") List<URL> imageURLs,
+                                                 @Value("${labeldetector.warmup.iterations}") int iterations,
+                                                 @Value("${labeldetector.warmup.timeout}") Duration timeout) {
+        LabelDetectorWarmUp.Builder builder = new LabelDetectorWarmUp.Builder()
+                .withConnections(connections)
+                .withImageOrigins(imageDownloader, imageURLs)
+                .withResultWriter(objectMapper::writeValueAsBytes)
+                .withIterations(iterations)
+                .withTimeout(timeout);
+        if (localLabelDetector != null) {
+            // AWS may well be unreachable, the local backend is warmed up instead
+            builder.withLocalLabelDetector(localLabelDetector);
+        } else {
+            builder.withCredentialsProvider(awsServiceConfigurator.getCredentialsProvider())
+                    .withRekognitionClient(rekognitionClient);
+            if (rekognitionRegions != null) {
+                builder.withRegions(rekognitionRegions);
+            }
+        }
+        if (preprocessingEnabled) {
+            builder.withImagePreprocessor(imagePreprocessor);
+        }
+        LabelDetectorWarmUp warmUp = builder.build();
+        return arguments -> {
+            if (!enabled) {
+                return;
+            }
+            LabelDetectorWarmUp.Report report = warmUp.run();
+            labelDetectorMetrics.bindWarmUp(report);
+            LOGGER.info("Warm-up done: {}", report);
+        };
+    }
+
+    @Bean
+    public LabelDetectionJobs labelDetectionJobs(LabelDetector labelDetector,
+                                                 LabelDetectorMetrics labelDetectorMetrics,
+                                                 ObjectMapper objectMapper,
+                                                 @Value("${labeldetector.jobs.threads}") int threads,
+                                                 @Value("${labeldetector.jobs.max-queue-size}") int maxQueueSize,
+                                                 @Value("${labeldetector.jobs.retention}") Duration retention,
+                                                 @Value("${labeldetector.jobs.max-retained}") int maxRetained,
+                                                 @Value("${labeldetector.jobs.webhook.timeout}") Duration webhookTimeout,
+                                                 @Value("${labeldetector.jobs.webhook.max-attempts}") int webhookMaxAttempts,
+                                                 @Value("${labeldetector.jobs.webhook.backoff}") Duration webhookBackoff) {
+        JobWebhookNotifier webhookNotifier = new JobWebhookNotifier(objectMapper, labelDetectorMetrics,
+                webhookTimeout, webhookMaxAttempts, webhookBackoff);
+        LabelDetectionJobs jobs = new LabelDetectionJobs.Builder(labelDetector)
+                .withThreads(threads)
+                .withMaxQueueSize(maxQueueSize)
+                .withRetention(retention, maxRetained)
+                .withCompletionListener(job -> {
+                    if (job.getState() == LabelDetectionJobs.State.FAILED) {
+                        labelDetectorMetrics.recordError(job.getException());
+                    }
+                    webhookNotifier.onCompletion(job);
+                })
+                .build();
+        labelDetectorMetrics.bindJobs(jobs);
+        return jobs;
+    }
+}
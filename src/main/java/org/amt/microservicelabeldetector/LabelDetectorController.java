@@ -1,25 +1,81 @@
 package org.amt.microservicelabeldetector;
 
-import org.amt.microservicelabeldetector.labeldetector.AwsLabelDetectorHelperImpl;
-import org.amt.microservicelabeldetector.labeldetector.AwsServiceConfigurator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.amt.microservicelabeldetector.labeldetector.AsyncLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.BatchLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.CircuitBreakerLabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.ImageDownloader;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectionJobs;
 import org.amt.microservicelabeldetector.labeldetector.LabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
 import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class LabelDetectorController {
+    /**
+     * Attribute of a request holding the timeout of its asynchronous processing, when it differs from the default
+     */
+    public static final String ASYNC_TIMEOUT_ATTRIBUTE = LabelDetectorController.class.getName() + ".asyncTimeout";
 
     private final LabelDetector labelDetector;
+    private final AsyncLabelDetector asyncLabelDetector;
+    private final BatchLabelDetector batchLabelDetector;
+    private final CircuitBreakerLabelDetector rekognitionCircuitBreaker;
+    private final LabelDetectionJobs labelDetectionJobs;
+    private final LabelDetectorMetrics metrics;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
+    private final Duration batchTimeout;
+    private final int maxUploadBytes;
 
-    public LabelDetectorController() {
-        this.labelDetector = new AwsLabelDetectorHelperImpl(new AwsServiceConfigurator.Builder().build());
+    public LabelDetectorController(LabelDetector labelDetector, AsyncLabelDetector asyncLabelDetector,
+                                   BatchLabelDetector batchLabelDetector, CircuitBreakerLabelDetector rekognitionCircuitBreaker,
+                                   LabelDetectionJobs labelDetectionJobs,
+                                   LabelDetectorMetrics metrics, ObjectMapper objectMapper,
+                                   @Value("${labeldetector.batch.max-size}") int maxBatchSize,
+                                   @Value("${labeldetector.batch.timeout}") Duration batchTimeout,
+                                   @Value("${labeldetector.upload.max-bytes}") int maxUploadBytes) {
+        this.labelDetector = labelDetector;
+        this.asyncLabelDetector = asyncLabelDetector;
+        this.batchLabelDetector = batchLabelDetector;
+        this.rekognitionCircuitBreaker = rekognitionCircuitBreaker;
+        this.labelDetectionJobs = labelDetectionJobs;
+        this.metrics = metrics;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
+        this.batchTimeout = batchTimeout;
+        this.maxUploadBytes = maxUploadBytes;
     }
 
     @PostMapping("/labels")
@@ -27,12 +83,204 @@ public class LabelDetectorController {
         try {
             LabelDetectorResult result = labelDetector.detectLabels(new URL(imageURL), maxLabels, confidence);
             return ResponseEntity.ok().body(result);
-        } catch (LabelDetector.DeniedAccessException e) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-        } catch (LabelDetector.LabelDetectorRequestException | MalformedURLException e) {
+        } catch (Exception e) {
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    @PostMapping("/labels/async")
+    public CompletableFuture<ResponseEntity<LabelDetectorResult>> getLabelsAsync(@RequestParam("imageURL") String imageURL, @RequestParam("maxLabels") int maxLabels, @RequestParam("confidence") int confidence) {
+        URL url;
+        try {
+            url = new URL(imageURL);
+        } catch (MalformedURLException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(failure(e)).build());
+        }
+        return asyncLabelDetector.detectLabels(url, maxLabels, confidence)
+                .handle((result, e) -> e == null
+                        ? ResponseEntity.ok().body(result)
+                        : ResponseEntity.status(failure(e)).build());
+    }
+
+    @PostMapping(value = "/labels/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<LabelDetectorResult> getLabelsFromUpload(@RequestParam("image") MultipartFile image, @RequestParam("maxLabels") int maxLabels, @RequestParam("confidence") int confidence) {
+        try (InputStream stream = image.getInputStream()) {
+            return detectLabels(stream, image.getSize(), maxLabels, confidence);
+        } catch (IOException e) {
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    @PostMapping(value = "/labels/upload", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE})
+    public ResponseEntity<LabelDetectorResult> getLabelsFromBody(HttpServletRequest request, @RequestParam("maxLabels") int maxLabels, @RequestParam("confidence") int confidence) {
+        try (InputStream stream = request.getInputStream()) {
+            return detectLabels(stream, request.getContentLengthLong(), maxLabels, confidence);
+        } catch (IOException e) {
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    private ResponseEntity<LabelDetectorResult> detectLabels(InputStream stream, long contentLength, int maxLabels, int confidence) {
+        try {
+            // read straight into the array sent to Rekognition, the size and format are checked before and while reading
+            byte[] image = ImageDownloader.readImage(stream, contentLength, maxUploadBytes);
+            return ResponseEntity.ok().body(labelDetector.detectLabels(image, maxLabels, confidence));
+        } catch (Exception e) {
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    @PostMapping("/labels/s3")
+    public ResponseEntity<LabelDetectorResult> getLabelsFromS3(@RequestParam("dataObject") String dataObject, @RequestParam("key") String key, @RequestParam("maxLabels") int maxLabels, @RequestParam("confidence") int confidence) {
+        try {
+            // Rekognition reads the image from S3 itself, its bytes never go through the service
+            LabelDetectorResult result = labelDetector.detectLabels(dataObject, key, maxLabels, confidence);
+            return ResponseEntity.ok().body(result);
+        } catch (Exception e) {
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    @PostMapping(value = "/labels/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getLabelsBatch(@RequestBody BatchLabelRequest request, HttpServletRequest servletRequest) {
+        boolean byURL = request.getImageURLs() != null;
+        List<String> images = byURL ? request.getImageURLs() : request.getKeys();
+        if (images == null || (!byURL && request.getDataObject() == null) || images.size() > maxBatchSize) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        return streamBatch(request, byURL, images, servletRequest);
+    }
+
+    @PostMapping(value = "/labels/s3/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getLabelsFromS3Batch(@RequestBody BatchLabelRequest request, HttpServletRequest servletRequest) {
+        List<String> keys = request.getKeys();
+        if (request.getImageURLs() != null || request.getDataObject() == null || keys == null || keys.size() > maxBatchSize) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        return streamBatch(request, false, keys, servletRequest);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamBatch(BatchLabelRequest request, boolean byURL, List<String> images,
+                                                              HttpServletRequest servletRequest) {
+        // a whole batch takes far longer than the single detections the default timeout is meant for
+        servletRequest.setAttribute(ASYNC_TIMEOUT_ATTRIBUTE, batchTimeout);
+        StreamingResponseBody body = outputStream -> {
+            BatchLabelDetector.ResultListener listener = new BatchLabelDetector.ResultListener() {
+                @Override
+                public void onResult(int index, LabelDetectorResult result) throws IOException {
+                    writeLine(outputStream, BatchLabelItem.success(index, images.get(index), result));
+                }
+
+                @Override
+                public void onError(int index, Exception exception) throws IOException {
+                    writeLine(outputStream, BatchLabelItem.failure(index, images.get(index), failure(exception).value(), exception));
+                }
+            };
+            try {
+                if (byURL) {
+                    batchLabelDetector.detectLabels(images, request.getMaxLabels(), request.getConfidence(), listener);
+                } else {
+                    batchLabelDetector.detectLabels(request.getDataObject(), images, request.getMaxLabels(), request.getConfidence(), listener);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while detecting the labels of the batch");
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @PostMapping(value = "/labels/jobs", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<LabelJobItem> submitJob(@RequestBody LabelJobRequest request) {
+        boolean byURL = request.getImageURL() != null;
+        boolean byKey = request.getDataObject() != null && request.getKey() != null;
+        if (byURL == byKey) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        try {
+            URI callback = request.getCallbackURL() == null ? null : callbackOf(request.getCallbackURL());
+            LabelDetectionJobs.Job job = byURL
+                    ? labelDetectionJobs.submit(new URL(request.getImageURL()), request.getMaxLabels(), request.getConfidence(), callback)
+                    : labelDetectionJobs.submit(request.getDataObject(), request.getKey(), request.getMaxLabels(), request.getConfidence(), callback);
+            return ResponseEntity.accepted().location(URI.create("/labels/jobs/" + job.getId())).body(LabelJobItem.of(job));
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            return ResponseEntity.status(failure(e)).build();
+        }
+    }
+
+    private static URI callbackOf(String callbackURL) throws MalformedURLException {
+        URI callback;
+        try {
+            callback = URI.create(callbackURL);
+        } catch (IllegalArgumentException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
+        String scheme = callback.getScheme() == null ? "" : callback.getScheme().toLowerCase(Locale.ROOT);
+        if ((!scheme.equals("http") && !scheme.equals("https")) || callback.getHost() == null) {
+            throw new MalformedURLException("The callback url must be an absolute http or https url");
+        }
+        return callback;
+    }
+
+    @GetMapping("/labels/jobs/{id}")
+    public ResponseEntity<LabelJobItem> getJob(@PathVariable("id") String id) {
+        LabelDetectionJobs.Job job = labelDetectionJobs.get(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok().body(LabelJobItem.of(job));
+    }
+
+    @GetMapping("/labels/circuit-breaker")
+    public ResponseEntity<CircuitBreakerLabelDetector.Status> getCircuitBreakerStatus() {
+        return ResponseEntity.ok().body(rekognitionCircuitBreaker.getStatus());
+    }
+
+    private void writeLine(OutputStream outputStream, BatchLabelItem item) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(item));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    private HttpStatus failure(Throwable e) {
+        metrics.recordError(e);
+        return statusOf(e);
+    }
+
+    static HttpStatus statusOf(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return statusOf(e.getCause());
+        } else if (e instanceof LabelDetector.DeniedAccessException) {
+            return HttpStatus.FORBIDDEN;
+        } else if (e instanceof LabelDetector.TooManyRequestsException) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        } else if (e instanceof LabelDetector.ServiceUnavailableException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        } else if (e instanceof LabelDetector.ServiceTimeoutException) {
+            return HttpStatus.GATEWAY_TIMEOUT;
+        } else if (e instanceof LabelDetector.LabelDetectorRequestException || e instanceof MalformedURLException) {
+            return HttpStatus.BAD_REQUEST;
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Answers the uploads above the multipart limits as the other images too large, the multipart requests being
+     * parsed before they reach the controller.
+     */
+    @RestControllerAdvice
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    static class UploadSizeAdvice {
+        private final LabelDetectorMetrics metrics;
+
+        UploadSizeAdvice(LabelDetectorMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @ExceptionHandler(MaxUploadSizeExceededException.class)
+        public ResponseEntity<Void> uploadTooLarge(MaxUploadSizeExceededException e) {
+            metrics.recordError(e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
     }
 }
@@ -0,0 +1,119 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.amt.microservicelabeldetector.labeldetector.AwsLabelDetectorHelperImpl;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.Instance;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Jackson serializer of the {@link LabelDetectorResult} returned by the controllers
+ * <p>
+ * Results of Rekognition are written straight from their label arrays to the response stream, without building a
+ * map. The parents and the located instances of each label are added under {@code details} when enabled. The time
+ * spent is recorded as the serialization phase of the metrics, if any.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LabelDetectorResultSerializer extends StdSerializer<LabelDetectorResult> {
+    private final boolean includeDetails;
+    private final LabelDetectorMetrics metrics;
+
+    /**
+     * @param includeDetails whether the parents and instances of the labels are written.
+     */
+    public LabelDetectorResultSerializer(boolean includeDetails) {
+        this(includeDetails, null);
+    }
+
+    /**
+     * @param includeDetails whether the parents and instances of the labels are written.
+     * @param metrics        the metrics recording the time spent serializing, or null.
+     */
+    public LabelDetectorResultSerializer(boolean includeDetails, LabelDetectorMetrics metrics) {
+        super(LabelDetectorResult.class);
+        this.includeDetails = includeDetails;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void serialize(LabelDetectorResult result, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        long start = System.nanoTime();
+        write(result, generator);
+        if (metrics != null) {
+            metrics.record(LabelDetectorMetrics.Phase.SERIALIZATION, start);
+        }
+    }
+
+    private void write(LabelDetectorResult result, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("labels");
+        generator.writeStartObject();
+        if (result instanceof AwsLabelDetectorHelperImpl.DetectLabelResult detectLabelResult) {
+            for (int i = 0; i < detectLabelResult.getNbLabels(); i++) {
+                generator.writeNumberField(detectLabelResult.getName(i), detectLabelResult.getConfidence(i));
+            }
+        } else {
+            for (Map.Entry<String, Float> label : result.getLabels().entrySet()) {
+                generator.writeNumberField(label.getKey(), label.getValue());
+            }
+        }
+        generator.writeEndObject();
+        generator.writeNumberField("nbLabels", result.getNbLabels());
+        if (includeDetails && result instanceof AwsLabelDetectorHelperImpl.DetectLabelResult detectLabelResult) {
+            writeDetails(detectLabelResult, generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeDetails(AwsLabelDetectorHelperImpl.DetectLabelResult result, JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("details");
+        for (int i = 0; i < result.getNbLabels(); i++) {
+            generator.writeStartObject();
+            generator.writeStringField("name", result.getName(i));
+            generator.writeNumberField("confidence", result.getConfidence(i));
+            generator.writeArrayFieldStart("parents");
+            for (String parent : result.getParents(i)) {
+                generator.writeString(parent);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("instances");
+            for (Instance instance : result.getInstances(i)) {
+                writeInstance(instance, generator);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeInstance(Instance instance, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (instance.confidence() != null) {
+            generator.writeNumberField("confidence", instance.confidence());
+        }
+        BoundingBox box = instance.boundingBox();
+        if (box != null) {
+            generator.writeObjectFieldStart("boundingBox");
+            writeNumber(generator, "width", box.width());
+            writeNumber(generator, "height", box.height());
+            writeNumber(generator, "left", box.left());
+            writeNumber(generator, "top", box.top());
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator generator, String name, Float value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value);
+        }
+    }
+}
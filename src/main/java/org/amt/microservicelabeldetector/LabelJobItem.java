@@ -0,0 +1,92 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectionJobs;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+
+import java.time.Instant;
+
+/**
+ * State of a label detection job, as returned when polling and sent to its callback url
+ * <p>
+ * Once completed, it holds either the result of the detection, or the HTTP status and the error the image would have
+ * got from /labels.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LabelJobItem {
+    private final String id;
+    private final LabelDetectionJobs.State state;
+    private final String image;
+    private final Instant createdAt;
+    private final Instant startedAt;
+    private final Instant completedAt;
+    private final LabelDetectorResult result;
+    private final Integer status;
+    private final String error;
+    private final String message;
+
+    private LabelJobItem(LabelDetectionJobs.Job job, LabelDetectionJobs.State state, Integer status, Exception exception) {
+        this.id = job.getId();
+        this.state = state;
+        this.image = job.getImage();
+        this.createdAt = job.getCreatedAt();
+        this.startedAt = job.getStartedAt();
+        this.completedAt = job.getCompletedAt();
+        this.result = state == LabelDetectionJobs.State.SUCCEEDED ? job.getResult() : null;
+        this.status = status;
+        this.error = exception == null ? null : exception.getClass().getSimpleName();
+        this.message = exception == null ? null : exception.getMessage();
+    }
+
+    public static LabelJobItem of(LabelDetectionJobs.Job job) {
+        // the state is read once, the fields of a completed job are set before it
+        LabelDetectionJobs.State state = job.getState();
+        if (state == LabelDetectionJobs.State.FAILED) {
+            return new LabelJobItem(job, state, LabelDetectorController.statusOf(job.getException()).value(), job.getException());
+        }
+        return new LabelJobItem(job, state, null, null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public LabelDetectionJobs.State getState() {
+        return state;
+    }
+
+    public String getImage() {
+        return image;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    public LabelDetectorResult getResult() {
+        return result;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
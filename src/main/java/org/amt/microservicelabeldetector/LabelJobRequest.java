@@ -0,0 +1,67 @@
+package org.amt.microservicelabeldetector;
+
+/**
+ * Body of a label detection job request
+ * <p>
+ * The image is given either by its url, or by its key in a dataObject. The callback url, when given, receives the
+ * completed job.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LabelJobRequest {
+    private String imageURL;
+    private String dataObject;
+    private String key;
+    private int maxLabels = 10;
+    private int confidence = 90;
+    private String callbackURL;
+
+    public String getImageURL() {
+        return imageURL;
+    }
+
+    public void setImageURL(String imageURL) {
+        this.imageURL = imageURL;
+    }
+
+    public String getDataObject() {
+        return dataObject;
+    }
+
+    public void setDataObject(String dataObject) {
+        this.dataObject = dataObject;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public int getMaxLabels() {
+        return maxLabels;
+    }
+
+    public void setMaxLabels(int maxLabels) {
+        this.maxLabels = maxLabels;
+    }
+
+    public int getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(int confidence) {
+        this.confidence = confidence;
+    }
+
+    public String getCallbackURL() {
+        return callbackURL;
+    }
+
+    public void setCallbackURL(String callbackURL) {
+        this.callbackURL = callbackURL;
+    }
+}
@@ -2,12 +2,17 @@ package org.amt.microservicelabeldetector;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class MicroserviceLabelDetectorApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(MicroserviceLabelDetectorApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(MicroserviceLabelDetectorApplication.class, args);
+        // training run of the class data sharing archive, which is written when the JVM exits
+        if (context.getEnvironment().getProperty("labeldetector.exit-after-startup", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
 }
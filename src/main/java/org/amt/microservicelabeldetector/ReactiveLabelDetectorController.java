@@ -0,0 +1,103 @@
+package org.amt.microservicelabeldetector;
+
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import org.amt.microservicelabeldetector.labeldetector.ReactiveLabelDetector;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Controller of the reactive mode of the service
+ * <p>
+ * It replaces {@link LabelDetectorController} when the service runs on WebFlux, serving /labels, /labels/async and
+ * /labels/s3 with the same parameters and responses. Requests hold no thread while the image is downloaded, and are
+ * cancelled when the client disconnects.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveLabelDetectorController {
+
+    private final ReactiveLabelDetector reactiveLabelDetector;
+    private final LabelDetectorMetrics metrics;
+
+    public ReactiveLabelDetectorController(ReactiveLabelDetector reactiveLabelDetector, LabelDetectorMetrics metrics) {
+        this.reactiveLabelDetector = reactiveLabelDetector;
+        this.metrics = metrics;
+    }
+
+    @PostMapping({"/labels", "/labels/async"})
+    public Mono<ResponseEntity<LabelDetectorResult>> getLabels(ServerWebExchange exchange) {
+        return parameters(exchange).flatMap(parameters -> {
+            String imageURL = parameters.getFirst("imageURL");
+            Integer maxLabels = intParameter(parameters, "maxLabels");
+            Integer confidence = intParameter(parameters, "confidence");
+            if (imageURL == null || maxLabels == null || confidence == null) {
+                return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+            }
+            URL url;
+            try {
+                url = new URL(imageURL);
+            } catch (MalformedURLException e) {
+                return Mono.just(ResponseEntity.status(failure(e)).build());
+            }
+            return respond(reactiveLabelDetector.detectLabels(url, maxLabels, confidence));
+        });
+    }
+
+    @PostMapping("/labels/s3")
+    public Mono<ResponseEntity<LabelDetectorResult>> getLabelsFromS3(ServerWebExchange exchange) {
+        return parameters(exchange).flatMap(parameters -> {
+            String dataObject = parameters.getFirst("dataObject");
+            String key = parameters.getFirst("key");
+            Integer maxLabels = intParameter(parameters, "maxLabels");
+            Integer confidence = intParameter(parameters, "confidence");
+            if (dataObject == null || key == null || maxLabels == null || confidence == null) {
+                return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+            }
+            return respond(reactiveLabelDetector.detectLabels(dataObject, key, maxLabels, confidence));
+        });
+    }
+
+    private Mono<ResponseEntity<LabelDetectorResult>> respond(Mono<LabelDetectorResult> result) {
+        return result.map(labels -> ResponseEntity.ok().body(labels))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(failure(e)).build()));
+    }
+
+    /**
+     * Parameters are read from the query and from a form body, as the servlet controller does.
+     */
+    private static Mono<MultiValueMap<String, String>> parameters(ServerWebExchange exchange) {
+        return exchange.getFormData().map(form -> {
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<>(exchange.getRequest().getQueryParams());
+            parameters.addAll(form);
+            return parameters;
+        });
+    }
+
+    private static Integer intParameter(MultiValueMap<String, String> parameters, String name) {
+        String value = parameters.getFirst(name);
+        try {
+            return value == null ? null : Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private HttpStatus failure(Throwable e) {
+        metrics.recordError(e);
+        return LabelDetectorController.statusOf(e);
+    }
+}
@@ -0,0 +1,305 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Limits the number of concurrent calls to a remote service, adapting the limit to what the service accepts.
+ * </p>
+ * <p>
+ * The limit follows an additive increase, multiplicative decrease scheme: each successful call raises it by
+ * 1/limit, roughly one per round of calls, and a throttled call divides it by two, at most once per decrease
+ * interval so that a burst of throttled calls counts as one signal. An internal error of the service divides it as
+ * well, an overloaded service failing rather than throttling. Callers above the limit wait
+ * in a bounded queue. Throttled calls are retried after a jittered exponential backoff, within a maximum call time
+ * that bounds the waits and attempts together. Only a successful call raises the limit: a call that times out or is
+ * rejected as invalid is neither retried nor counted for or against it.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class AdaptiveConcurrencyLimiter {
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final Duration maxWait;
+    private final Duration maxCallTime;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final Duration decreaseInterval;
+    private final long decreaseIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastDecrease;
+
+    private AdaptiveConcurrencyLimiter(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.maxQueueSize = builder.maxQueueSize;
+        this.maxWait = builder.maxWait;
+        this.maxCallTime = builder.maxCallTime;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoff = builder.baseBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.decreaseInterval = builder.decreaseInterval;
+        this.decreaseIntervalNanos = builder.decreaseInterval.toNanos();
+        this.limit = builder.initialLimit;
+        this.lastDecrease = System.nanoTime() - decreaseIntervalNanos;
+    }
+
+    /**
+     * <p>
+     * This method runs a call once a permit is available, retrying it while it is throttled.
+     * </p>
+     *
+     * @param call the call to run.
+     * @return the result of the call.
+     * @throws LabelDetector.TooManyRequestsException if the queue is full, or no permit was available in time.
+     */
+    public <T> T call(Call<T> call) throws LabelDetector.LabelDetectorException {
+        long deadline = System.nanoTime() + maxCallTime.toNanos();
+        for (int attempt = 1; ; attempt++) {
+            acquire(deadline);
+            Outcome outcome = Outcome.IGNORED;
+            long pause;
+            try {
+                T result = call.call();
+                outcome = Outcome.SUCCEEDED;
+                return result;
+            } catch (LabelDetector.TooManyRequestsException | LabelDetector.ServiceUnavailableException e) {
+                outcome = Outcome.THROTTLED;
+                pause = pause(attempt);
+                // a retry that cannot start before the deadline is not made
+                if (attempt >= maxAttempts || deadline - System.nanoTime() <= pause) {
+                    throw e;
+                }
+            } catch (LabelDetector.InternalErrorException e) {
+                outcome = Outcome.FAILED;
+                throw e;
+            } finally {
+                release(outcome);
+            }
+            sleep(pause);
+        }
+    }
+
+    private enum Outcome {
+        SUCCEEDED,
+        THROTTLED,
+        /** an internal error, the service may be overloaded */
+        FAILED,
+        /** a timeout, an invalid request or an unexpected failure, says nothing of the rate the service accepts */
+        IGNORED
+    }
+
+    private void acquire(long deadline) throws LabelDetector.LabelDetectorException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (queued >= maxQueueSize) {
+                throw new LabelDetector.TooManyRequestsException("Too many requests waiting for Rekognition");
+            }
+            queued++;
+            try {
+                long remaining = Math.min(maxWait.toNanos(), deadline - System.nanoTime());
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        throw new LabelDetector.TooManyRequestsException("Timed out waiting for Rekognition");
+                    }
+                    remaining = permitReleased.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LabelDetector.LabelDetectorException("Interrupted while waiting for Rekognition");
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+            if (outcome == Outcome.THROTTLED || outcome == Outcome.FAILED) {
+                if (now - lastDecrease >= decreaseIntervalNanos) {
+                    limit = Math.max(minLimit, limit / 2);
+                    lastDecrease = now;
+                }
+            } else if (outcome == Outcome.SUCCEEDED) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long pause(int attempt) {
+        long ceiling = Math.min(maxBackoff.toNanos(), baseBackoff.toNanos() << Math.min(attempt - 1, 30));
+        // full jitter spreads the retries of the callers throttled together
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long pause) throws LabelDetector.LabelDetectorException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LabelDetector.LabelDetectorException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * @return the current concurrency limit.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls in flight.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of callers waiting for a permit.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * This method creates a limiter with the same settings, starting again from the initial limit, for another
+     * instance of the service.
+     * </p>
+     *
+     * @return the new limiter.
+     */
+    public AdaptiveConcurrencyLimiter copy() {
+        return new Builder()
+                .withLimits(initialLimit, minLimit, maxLimit)
+                .withMaxQueueSize(maxQueueSize)
+                .withMaxWait(maxWait)
+                .withMaxCallTime(maxCallTime)
+                .withMaxAttempts(maxAttempts)
+                .withBackoff(baseBackoff, maxBackoff)
+                .withDecreaseInterval(decreaseInterval)
+                .build();
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws LabelDetector.LabelDetectorException;
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private int maxQueueSize = 1000;
+        private Duration maxWait = Duration.ofSeconds(10);
+        private Duration maxCallTime = Duration.ofSeconds(30);
+        private int maxAttempts = 5;
+        private Duration baseBackoff = Duration.ofMillis(50);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+        private Duration decreaseInterval = Duration.ofMillis(200);
+
+        public Builder withLimits(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+                throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+            }
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder withMaxQueueSize(int maxQueueSize) {
+            if (maxQueueSize < 0) {
+                throw new IllegalArgumentException("Max queue size must not be negative");
+            }
+            this.maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        public Builder withMaxWait(Duration maxWait) {
+            Objects.requireNonNull(maxWait);
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * The maximum call time bounds the waits for a permit, the attempts and the backoffs of a call together.
+         */
+        public Builder withMaxCallTime(Duration maxCallTime) {
+            Objects.requireNonNull(maxCallTime);
+            this.maxCallTime = maxCallTime;
+            return this;
+        }
+
+        public Builder withMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("Max attempts must be greater than 0");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder withBackoff(Duration baseBackoff, Duration maxBackoff) {
+            Objects.requireNonNull(baseBackoff);
+            Objects.requireNonNull(maxBackoff);
+            this.baseBackoff = baseBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder withDecreaseInterval(Duration decreaseInterval) {
+            Objects.requireNonNull(decreaseInterval);
+            this.decreaseInterval = decreaseInterval;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimiter build() {
+            return new AdaptiveConcurrencyLimiter(this);
+        }
+    }
+}
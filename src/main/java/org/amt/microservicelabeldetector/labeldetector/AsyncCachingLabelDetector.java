@@ -0,0 +1,123 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.net.URL;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * {@link AsyncLabelDetector} decorator caching the results of another detector in a {@link CachingLabelDetector}.
+ * </p>
+ * <p>
+ * The cache is the one of the servlet mode, its entries, disk store and statistics are shared. Images are looked up
+ * by the SHA-256 of their bytes before the delegate is called, and its results are stored once it completes. Hashing
+ * an image and reading or writing the disk store run on the given executor, never on the thread of the caller or of
+ * the delegate. Near-duplicates are not looked up, their hash costs a decoding of the image. Images stored in a
+ * dataObject are not cached, as by the {@link CachingLabelDetector}, nor are images given by url, which the delegate
+ * downloads itself.
+ * </p>
+ * <p>
+ * Cancelling a returned future cancels the call of the delegate, or prevents it while the cache is looked up.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class AsyncCachingLabelDetector implements AsyncLabelDetector {
+    private final AsyncLabelDetector delegate;
+    private final CachingLabelDetector cache;
+    private final Executor executor;
+
+    /**
+     * @param delegate the detector called on a miss.
+     * @param cache    the cache looked up and filled.
+     * @param executor the executor hashing the images and accessing the disk store.
+     */
+    public AsyncCachingLabelDetector(AsyncLabelDetector delegate, CachingLabelDetector cache, Executor executor) {
+        Objects.requireNonNull(delegate);
+        Objects.requireNonNull(cache);
+        Objects.requireNonNull(executor);
+        this.delegate = delegate;
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+        Objects.requireNonNull(image);
+        if (!CachingLabelDetector.isValid(maxLabels, minConfidence)) {
+            return delegate.detectLabels(image, maxLabels, minConfidence);
+        }
+        CompletableFuture<LabelDetectorResult> result = new CompletableFuture<>();
+        CompletableFuture<Lookup> lookup;
+        try {
+            lookup = CompletableFuture.supplyAsync(() -> {
+                String key = cache.key(image);
+                return new Lookup(key, cache.lookup(key, maxLabels, minConfidence));
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new LabelDetector.TooManyRequestsException("Too many images waiting for the cache"));
+        }
+        lookup.whenComplete((found, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            if (found.cached != null) {
+                result.complete(found.cached);
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled while looking up the cache, the delegate is not called
+                return;
+            }
+            CompletableFuture<LabelDetectorResult> call = delegate.detectLabels(image, maxLabels, minConfidence);
+            call.whenComplete((detected, callException) -> {
+                if (callException != null) {
+                    result.completeExceptionally(unwrap(callException));
+                    return;
+                }
+                // the result is returned at once, the disk store being written in the background
+                result.complete(detected);
+                try {
+                    executor.execute(() -> cache.store(found.key, detected, maxLabels, minConfidence));
+                } catch (RejectedExecutionException storeException) {
+                    // the result is only not cached
+                }
+            });
+            result.whenComplete((detected, resultException) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+        // an object overwritten under the same key would keep its previous labels
+        return delegate.detectLabels(dataObject, key, maxLabels, minConfidence);
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+        return delegate.detectLabels(url, maxLabels, minConfidence);
+    }
+
+    private static final class Lookup {
+        private final String key;
+        private final LabelDetectorResult cached;
+
+        private Lookup(String key, LabelDetectorResult cached) {
+            this.key = key;
+            this.cached = cached;
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
@@ -0,0 +1,180 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * {@link AsyncLabelDetector} decorator sharing a single detection between concurrent identical requests.
+ * </p>
+ * <p>
+ * The first request for an image and parameters calls the delegate, the requests arriving while it is in flight
+ * receive the same result or exception, as with a {@link CoalescingLabelDetector}. Each request gets its own future:
+ * cancelling it only cancels the call of the delegate once every request waiting for it has been cancelled, so a
+ * client disconnecting does not fail the others. Nothing is kept once the detection completes.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class AsyncCoalescingLabelDetector implements AsyncLabelDetector {
+    private final AsyncLabelDetector delegate;
+    private final ConcurrentMap<CoalescingLabelDetector.Key, InFlight> inFlightRequests = new ConcurrentHashMap<>();
+    private final LongAdder coalescedRequests = new LongAdder();
+
+    public AsyncCoalescingLabelDetector(AsyncLabelDetector delegate) {
+        Objects.requireNonNull(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+        Objects.requireNonNull(image);
+        return coalesce(CoalescingLabelDetector.Key.of(image, maxLabels, minConfidence),
+                () -> delegate.detectLabels(image, maxLabels, minConfidence));
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+        return coalesce(CoalescingLabelDetector.Key.of(dataObject, key, maxLabels, minConfidence),
+                () -> delegate.detectLabels(dataObject, key, maxLabels, minConfidence));
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+        return coalesce(CoalescingLabelDetector.Key.of(url, maxLabels, minConfidence),
+                () -> delegate.detectLabels(url, maxLabels, minConfidence));
+    }
+
+    /**
+     * <p>
+     * This method returns the number of requests that waited for an identical request instead of running their own
+     * detection.
+     * </p>
+     *
+     * @return the number of coalesced requests.
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    /**
+     * <p>
+     * This method returns the number of detections currently running.
+     * </p>
+     *
+     * @return the number of detections in flight.
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.size();
+    }
+
+    private CompletableFuture<LabelDetectorResult> coalesce(CoalescingLabelDetector.Key key, Supplier<CompletableFuture<LabelDetectorResult>> detection) {
+        while (true) {
+            InFlight inFlight = inFlightRequests.get(key);
+            if (inFlight != null) {
+                CompletableFuture<LabelDetectorResult> waiter = inFlight.join();
+                if (waiter != null) {
+                    coalescedRequests.increment();
+                    return waiter;
+                }
+                // cancelled by its last waiter, a new detection is started
+                inFlightRequests.remove(key, inFlight);
+                continue;
+            }
+            InFlight created = new InFlight();
+            if (inFlightRequests.putIfAbsent(key, created) != null) {
+                continue;
+            }
+            CompletableFuture<LabelDetectorResult> waiter = created.join();
+            CompletableFuture<LabelDetectorResult> call;
+            try {
+                call = detection.get();
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            call.whenComplete((result, e) -> inFlightRequests.remove(key, created));
+            created.start(call);
+            return waiter;
+        }
+    }
+
+    /**
+     * A detection in flight and the futures of the requests waiting for it.
+     */
+    private static final class InFlight {
+        private final List<CompletableFuture<LabelDetectorResult>> waiters = new ArrayList<>();
+        private CompletableFuture<LabelDetectorResult> call;
+        private int pending;
+        private boolean cancelled;
+
+        /**
+         * Returns the future of a new waiter, or null if the detection was cancelled.
+         */
+        private synchronized CompletableFuture<LabelDetectorResult> join() {
+            if (cancelled) {
+                return null;
+            }
+            CompletableFuture<LabelDetectorResult> waiter = new CompletableFuture<>();
+            pending++;
+            waiter.whenComplete((result, e) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            if (call != null) {
+                forward(call, waiter);
+            } else {
+                waiters.add(waiter);
+            }
+            return waiter;
+        }
+
+        private void start(CompletableFuture<LabelDetectorResult> call) {
+            boolean cancel;
+            synchronized (this) {
+                this.call = call;
+                for (CompletableFuture<LabelDetectorResult> waiter : waiters) {
+                    forward(call, waiter);
+                }
+                waiters.clear();
+                cancel = cancelled;
+            }
+            if (cancel) {
+                call.cancel(true);
+            }
+        }
+
+        private void leave() {
+            CompletableFuture<LabelDetectorResult> cancel;
+            synchronized (this) {
+                if (--pending > 0 || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                cancel = call;
+            }
+            // the call is cancelled by start when it has not returned yet
+            if (cancel != null) {
+                cancel.cancel(true);
+            }
+        }
+
+        private static void forward(CompletableFuture<LabelDetectorResult> call, CompletableFuture<LabelDetectorResult> waiter) {
+            call.whenComplete((result, e) -> {
+                if (e != null) {
+                    waiter.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else {
+                    waiter.complete(result);
+                }
+            });
+        }
+    }
+}
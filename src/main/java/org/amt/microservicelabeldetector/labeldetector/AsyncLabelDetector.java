@@ -0,0 +1,59 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ *
+ * <p>
+ * This interface represents a label detector that does not block the calling thread.
+ * </p>
+ * <p>
+ * The returned futures complete exceptionally with the exceptions of {@link LabelDetector}.
+ * </p>
+ *
+ * @author nelson.jeanrenaud@heig-vd.ch
+ *
+ */
+public interface AsyncLabelDetector {
+
+    /**
+     *
+     * <p>
+     * This method detects the labels on the image.
+     * </p>
+     *
+     * @param image    the image to detect the labels on.
+     * @param maxLabels the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @return a future completed with the result of the label detection.
+     */
+    CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence);
+
+    /**
+     *
+     * <p>
+     * This method detects the labels on the image.
+     * </p>
+     *
+     * @param dataObject   the dataObject where the image is stored.
+     * @param key      the key of the image.
+     * @param maxLabels the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @return a future completed with the result of the label detection.
+     */
+    CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence);
+
+    /**
+     *
+     * <p>
+     * This method detects the labels on the image.
+     * </p>
+     *
+     * @param url      the url of the image.
+     * @param maxLabels the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @return a future completed with the result of the label detection.
+     */
+    CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence);
+}
@@ -0,0 +1,176 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import software.amazon.awssdk.services.rekognition.RekognitionAsyncClient;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Image;
+import software.amazon.awssdk.services.rekognition.model.S3Object;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link AsyncLabelDetector} using the AWS asynchronous client
+ * <p>
+ * Rekognition is called through a Netty non blocking HTTP client, so a few event loop threads serve every
+ * detection in flight. Downloading an image from its URL is still blocking and runs on a
+ * dedicated pool of threads.
+ * </p>
+ * <p>
+ * Preprocessing an image takes hundreds of milliseconds of CPU, it runs on a pool of as many threads as cores rather
+ * than on the calling thread, which is a servlet thread for /labels/async. Its queue is bounded by the maximum
+ * concurrency, images beyond it are rejected as too many requests.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class AwsAsyncLabelDetectorImpl implements AsyncLabelDetector, AutoCloseable {
+    final RekognitionAsyncClient rekClient;
+    private final ImageDownloader imageDownloader;
+    private final ImagePreprocessor imagePreprocessor;
+    private final ExecutorService downloadExecutor;
+    private final ExecutorService preprocessingExecutor;
+
+    /**
+     * @param imagePreprocessor the preprocessor of the images sent as bytes, or null to send them as is.
+     */
+    public AwsAsyncLabelDetectorImpl(AwsServiceConfigurator awsServiceConfigurator, ImageDownloader imageDownloader, ImagePreprocessor imagePreprocessor, int downloadThreads, int maxConcurrency) {
+        Objects.requireNonNull(imageDownloader);
+        rekClient = awsServiceConfigurator.createRekognitionAsyncClient(maxConcurrency);
+        this.imageDownloader = imageDownloader;
+        this.imagePreprocessor = imagePreprocessor;
+        this.downloadExecutor = Executors.newFixedThreadPool(downloadThreads);
+        int cores = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        this.preprocessingExecutor = new ThreadPoolExecutor(cores, cores, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxConcurrency), runnable -> {
+            Thread thread = new Thread(runnable, "async-preprocessing-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+        Objects.requireNonNull(image);
+        if (imagePreprocessor == null) {
+            try {
+                AwsLabelDetectorHelperImpl.checkPayload(image);
+            } catch (LabelDetector.InvalidImageSizeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return detectLabels(DetectLabelsRequest.builder().image(AwsLabelDetectorHelperImpl.getImage(image)), maxLabels, minConfidence);
+        }
+        CompletableFuture<byte[]> processed;
+        try {
+            processed = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return AwsLabelDetectorHelperImpl.checkPayload(imagePreprocessor.process(image));
+                } catch (LabelDetector.InvalidImageSizeException e) {
+                    throw new CompletionException(e);
+                }
+            }, preprocessingExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new LabelDetector.TooManyRequestsException("Too many images waiting for preprocessing"));
+        }
+        CompletableFuture<LabelDetectorResult> result = new CompletableFuture<>();
+        processed.whenComplete((bytes, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled while preprocessing, Rekognition is not called
+                return;
+            }
+            CompletableFuture<LabelDetectorResult> call = detectLabels(DetectLabelsRequest.builder()
+                    .image(AwsLabelDetectorHelperImpl.getImage(bytes)), maxLabels, minConfidence);
+            call.whenComplete((response, callException) -> {
+                if (callException != null) {
+                    result.completeExceptionally(unwrap(callException));
+                } else {
+                    result.complete(response);
+                }
+            });
+            // cancelling the returned future aborts the call, as for the other images
+            result.whenComplete((response, resultException) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+        return detectLabels(DetectLabelsRequest.builder()
+                .image(Image.builder().s3Object(S3Object.builder().bucket(dataObject).name(key).build()).build()), maxLabels, minConfidence);
+    }
+
+    @Override
+    public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+        Objects.requireNonNull(url);
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return imageDownloader.download(url);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (LabelDetector.LabelDetectorException e) {
+                        throw new CompletionException(e);
+                    }
+                }, downloadExecutor)
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(unwrap(e)))
+                .thenCompose(image -> detectLabels(image, maxLabels, minConfidence));
+    }
+
+    private CompletableFuture<LabelDetectorResult> detectLabels(DetectLabelsRequest.Builder request, int maxLabels, float minConfidence) {
+        try {
+            AwsLabelDetectorHelperImpl.validate(request, maxLabels, minConfidence);
+        } catch (LabelDetector.LabelDetectorException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<DetectLabelsResponse> call = rekClient.detectLabels(request.maxLabels(maxLabels).minConfidence(minConfidence).build());
+        CompletableFuture<LabelDetectorResult> result = call.handle((response, e) -> {
+            if (e != null) {
+                throw new CompletionException(AwsLabelDetectorHelperImpl.toLabelDetectorException(unwrap(e)));
+            }
+            return new AwsLabelDetectorHelperImpl.DetectLabelResult(response);
+        });
+        // cancelling the returned future aborts the call, its HTTP request included
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        downloadExecutor.shutdown();
+        preprocessingExecutor.shutdown();
+        rekClient.close();
+    }
+
+    /**
+     * Returns the exception that caused a stage to fail, IOExceptions being unwrapped for the caller.
+     */
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
@@ -1,13 +1,22 @@
 package org.amt.microservicelabeldetector.labeldetector;
 
 import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
 import software.amazon.awssdk.services.rekognition.model.*;
-import software.amazon.awssdk.utils.IoUtils;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -16,14 +25,53 @@ import java.util.stream.Collectors;
  * @author Peer Vincent
  * @author Nelson Jeanreneaud
  */
-public class AwsLabelDetectorHelperImpl implements LabelDetector {
+public class AwsLabelDetectorHelperImpl implements LabelDetector, AutoCloseable {
     final RekognitionClient rekClient;
+    private final ImageDownloader imageDownloader;
+    private final ImagePreprocessor imagePreprocessor;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final LabelDetectorMetrics metrics;
 
-    public AwsLabelDetectorHelperImpl(AwsServiceConfigurator awsServiceConfigurator) {
-        rekClient = RekognitionClient.builder()
-                .region(awsServiceConfigurator.getRegion())
-                .credentialsProvider(awsServiceConfigurator.getCredentialsProvider())
-                .build();
+    public AwsLabelDetectorHelperImpl(AwsServiceConfigurator awsServiceConfigurator, ImageDownloader imageDownloader) {
+        this(awsServiceConfigurator, imageDownloader, null, null);
+    }
+
+    /**
+     * @param imagePreprocessor the preprocessor of the images sent as bytes, or null to send them as is.
+     * @param concurrencyLimiter the limiter of the calls to Rekognition, or null to call it without limit.
+     */
+    public AwsLabelDetectorHelperImpl(AwsServiceConfigurator awsServiceConfigurator, ImageDownloader imageDownloader,
+                                      ImagePreprocessor imagePreprocessor, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(awsServiceConfigurator, imageDownloader, imagePreprocessor, concurrencyLimiter, null);
+    }
+
+    /**
+     * @param imagePreprocessor the preprocessor of the images sent as bytes, or null to send them as is.
+     * @param concurrencyLimiter the limiter of the calls to Rekognition, or null to call it without limit.
+     * @param metrics the metrics recording the phases of the detections, or null to record nothing.
+     */
+    public AwsLabelDetectorHelperImpl(AwsServiceConfigurator awsServiceConfigurator, ImageDownloader imageDownloader,
+                                      ImagePreprocessor imagePreprocessor, AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                      LabelDetectorMetrics metrics) {
+        this(awsServiceConfigurator.createRekognitionClient(), imageDownloader, imagePreprocessor, concurrencyLimiter, metrics);
+    }
+
+    /**
+     * @param rekClient the client calling Rekognition.
+     * @param imagePreprocessor the preprocessor of the images sent as bytes, or null to send them as is.
+     * @param concurrencyLimiter the limiter of the calls to Rekognition, or null to call it without limit.
+     * @param metrics the metrics recording the phases of the detections, or null to record nothing.
+     */
+    public AwsLabelDetectorHelperImpl(RekognitionClient rekClient, ImageDownloader imageDownloader,
+                                      ImagePreprocessor imagePreprocessor, AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                      LabelDetectorMetrics metrics) {
+        Objects.requireNonNull(rekClient);
+        Objects.requireNonNull(imageDownloader);
+        this.rekClient = rekClient;
+        this.imageDownloader = imageDownloader;
+        this.imagePreprocessor = imagePreprocessor;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.metrics = metrics;
     }
 
     public DetectLabelResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
@@ -32,16 +80,39 @@ public class AwsLabelDetectorHelperImpl implements LabelDetector {
     }
 
     public DetectLabelResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
-            return detectLabels( DetectLabelsRequest.builder()
-                    .image(getImage(image)), maxLabels, minConfidence);
+            return detectLabels(payload(image), maxLabels, minConfidence);
     }
 
     public DetectLabelResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
-            return detectLabels(DetectLabelsRequest.builder()
-                    .image(getImage(downloadImage(url))), maxLabels, minConfidence);
+            return detectLabels(payload(downloadImage(url)), maxLabels, minConfidence);
     }
 
     private DetectLabelResult detectLabels(DetectLabelsRequest.Builder request, int maxLabels, float minConfidence) throws LabelDetectorException {
+        validate(request, maxLabels, minConfidence);
+        DetectLabelsRequest detectLabelsRequest = request.maxLabels(maxLabels).minConfidence(minConfidence).build();
+        if (concurrencyLimiter == null) {
+            return detectLabels(detectLabelsRequest);
+        }
+        return concurrencyLimiter.call(() -> detectLabels(detectLabelsRequest));
+    }
+
+    private DetectLabelResult detectLabels(DetectLabelsRequest request) throws LabelDetectorException {
+        long start = System.nanoTime();
+        DetectLabelsResponse response;
+        try {
+            response = rekClient.detectLabels(request);
+        } catch (Exception e) {
+            throw toLabelDetectorException(e);
+        } finally {
+            record(LabelDetectorMetrics.Phase.REKOGNITION, start);
+        }
+        start = System.nanoTime();
+        DetectLabelResult result = new DetectLabelResult(response);
+        record(LabelDetectorMetrics.Phase.MAPPING, start);
+        return result;
+    }
+
+    static void validate(DetectLabelsRequest.Builder request, int maxLabels, float minConfidence) throws InvalidParamException {
         if (maxLabels < 1) {
             throw new InvalidParamException("Max labels must be greater than 0");
         }
@@ -51,49 +122,145 @@ public class AwsLabelDetectorHelperImpl implements LabelDetector {
         if (request == null) {
             throw new InvalidParamException("Request must not be null");
         }
-        try {
-            return new DetectLabelResult(rekClient.detectLabels(request.maxLabels(maxLabels).minConfidence((minConfidence)).build()));
-
-        } catch (InvalidS3ObjectException e) {
-            throw new InvalidDataObjectException(e.getMessage());
-        } catch (InvalidParameterException e) {
-            throw new InvalidParamException(e.getMessage());
-        } catch (ImageTooLargeException e) {
-            throw new InvalidImageSizeException(e.getMessage());
-        } catch (InvalidImageFormatException e) {
-            throw new ImageFormatException(e.getMessage());
-        } catch (AccessDeniedException e) {
-            throw new DeniedAccessException(e.getMessage());
-        } catch (ProvisionedThroughputExceededException e) {
-            throw new TooManyRequestsException(e.getMessage());
-        } catch (InternalServerErrorException e) {
-            throw new InternalErrorException(e.getMessage());
-        } catch (ThrottlingException e) {
-            throw new ServiceUnavailableException(e.getMessage());
-        } catch (Exception e) {
-            throw new LabelDetectorException(e.getMessage());
+    }
+
+    static LabelDetectorException toLabelDetectorException(Throwable e) {
+        if (e instanceof InvalidS3ObjectException) {
+            return new InvalidDataObjectException(e.getMessage());
+        } else if (e instanceof InvalidParameterException) {
+            return new InvalidParamException(e.getMessage());
+        } else if (e instanceof ImageTooLargeException) {
+            return new InvalidImageSizeException(e.getMessage());
+        } else if (e instanceof InvalidImageFormatException) {
+            return new ImageFormatException(e.getMessage());
+        } else if (e instanceof AccessDeniedException) {
+            return new DeniedAccessException(e.getMessage());
+        } else if (e instanceof ProvisionedThroughputExceededException) {
+            return new TooManyRequestsException(e.getMessage());
+        } else if (e instanceof InternalServerErrorException) {
+            return new InternalErrorException(e.getMessage());
+        } else if (e instanceof ThrottlingException) {
+            return new ServiceUnavailableException(e.getMessage());
+        } else if (e instanceof ApiCallTimeoutException || e instanceof ApiCallAttemptTimeoutException) {
+            return new ServiceTimeoutException(e.getMessage());
+        } else if (e instanceof LabelDetectorException) {
+            return (LabelDetectorException) e;
+        }
+        return new LabelDetectorException(e.getMessage());
+    }
+
+    /**
+     * Checks that an image fits in a Rekognition request, the images received being allowed to be larger as long
+     * as they are shrunk below the limit.
+     */
+    static byte[] checkPayload(byte[] image) throws InvalidImageSizeException {
+        if (image.length > ImageDownloader.MAX_IMAGE_BYTES) {
+            throw new InvalidImageSizeException("Image size " + image.length + " exceeds the maximum of " + ImageDownloader.MAX_IMAGE_BYTES + " bytes sent to Rekognition");
         }
+        return image;
     }
 
-    private Image getImage(byte[] image64) {
+    static Image getImage(byte[] image64) {
+        // the bytes are not modified once given, wrapping them spares a copy of the whole image
         return Image.builder()
-                .bytes(SdkBytes.fromByteArray(image64))
+                .bytes(SdkBytes.fromByteArrayUnsafe(image64))
                 .build();
     }
 
-    private byte[] downloadImage(URL url) throws IOException {
-        return IoUtils.toByteArray(url.openStream());
+    private DetectLabelsRequest.Builder payload(byte[] image) throws InvalidImageSizeException {
+        long start = System.nanoTime();
+        byte[] processed = checkPayload(imagePreprocessor == null ? image : imagePreprocessor.process(image));
+        DetectLabelsRequest.Builder request = DetectLabelsRequest.builder().image(getImage(processed));
+        if (metrics != null) {
+            metrics.recordReceivedImage(image.length);
+            metrics.recordSentImage(processed.length);
+        }
+        record(LabelDetectorMetrics.Phase.PAYLOAD, start);
+        return request;
+    }
+
+    @Override
+    public void close() {
+        rekClient.close();
+    }
+
+    private byte[] downloadImage(URL url) throws IOException, LabelDetectorException {
+        long start = System.nanoTime();
+        try {
+            return imageDownloader.download(url);
+        } finally {
+            record(LabelDetectorMetrics.Phase.DOWNLOAD, start);
+        }
+    }
+
+    private void record(LabelDetectorMetrics.Phase phase, long start) {
+        if (metrics != null) {
+            metrics.record(phase, start);
+        }
     }
 
+    /**
+     * <p>
+     * Result of a Rekognition detection, mapped once when the response is received.
+     * </p>
+     * <p>
+     * The labels are held in parallel arrays sorted by decreasing confidence, a name appearing once with its highest
+     * confidence, so filtering keeps a prefix and serializing needs no intermediate map. The Rekognition labels are
+     * kept along for their parents and instances.
+     * </p>
+     */
     public static class DetectLabelResult implements LabelDetectorResult {
-        private final DetectLabelsResponse response;
-        private DetectLabelResult(DetectLabelsResponse response) {
-            this.response = response;
+        private final String[] names;
+        private final float[] confidences;
+        private final Label[] labels;
+        // built on first use only, most results are serialized from the arrays
+        private volatile Map<String, Float> labelsMap;
+
+        DetectLabelResult(DetectLabelsResponse response) {
+            Label[] sorted = response.labels().toArray(new Label[0]);
+            Arrays.sort(sorted, Comparator.comparingDouble(DetectLabelResult::confidenceOf).reversed());
+            Set<String> seen = new HashSet<>();
+            int size = 0;
+            for (Label label : sorted) {
+                // the most confident label of a name comes first
+                if (seen.add(label.name())) {
+                    sorted[size++] = label;
+                }
+            }
+            this.labels = Arrays.copyOf(sorted, size);
+            this.names = new String[size];
+            this.confidences = new float[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = labels[i].name();
+                confidences[i] = confidenceOf(labels[i]);
+            }
+        }
+
+        private DetectLabelResult(String[] names, float[] confidences, Label[] labels) {
+            this.names = names;
+            this.confidences = confidences;
+            this.labels = labels;
+        }
+
+        private static float confidenceOf(Label label) {
+            return label.confidence() == null ? 0 : label.confidence();
         }
 
+        /**
+         * @return the labels by name, the most confident first.
+         */
+        @Override
         public Map<String, Float> getLabels() {
-            return response.labels().stream()
-                    .collect(Collectors.toMap(Label::name, Label::confidence));
+            Map<String, Float> map = labelsMap;
+            if (map == null) {
+                map = new LinkedHashMap<>((int) (names.length / 0.75f) + 1);
+                for (int i = 0; i < names.length; i++) {
+                    map.put(names[i], confidences[i]);
+                }
+                map = Collections.unmodifiableMap(map);
+                labelsMap = map;
+            }
+            return map;
         }
 
         /**
@@ -105,7 +272,51 @@ public class AwsLabelDetectorHelperImpl implements LabelDetector {
          */
         @Override
         public int getNbLabels() {
-            return response.labels().size();
+            return names.length;
+        }
+
+        /**
+         * @param index the rank of the label, 0 for the most confident.
+         * @return the name of the label.
+         */
+        public String getName(int index) {
+            return names[index];
+        }
+
+        /**
+         * @param index the rank of the label, 0 for the most confident.
+         * @return the confidence of the label.
+         */
+        public float getConfidence(int index) {
+            return confidences[index];
+        }
+
+        /**
+         * @param index the rank of the label, 0 for the most confident.
+         * @return the names of the parent labels of the label.
+         */
+        public List<String> getParents(int index) {
+            return labels[index].parents().stream().map(Parent::name).collect(Collectors.toList());
+        }
+
+        /**
+         * @param index the rank of the label, 0 for the most confident.
+         * @return the instances of the label located on the image, with their bounding box.
+         */
+        public List<Instance> getInstances(int index) {
+            return labels[index].instances();
+        }
+
+        @Override
+        public DetectLabelResult filter(int maxLabels, float minConfidence) {
+            int size = 0;
+            while (size < names.length && size < maxLabels && confidences[size] >= minConfidence) {
+                size++;
+            }
+            if (size == names.length) {
+                return this;
+            }
+            return new DetectLabelResult(Arrays.copyOf(names, size), Arrays.copyOf(confidences, size), Arrays.copyOf(labels, size));
         }
     }
 }
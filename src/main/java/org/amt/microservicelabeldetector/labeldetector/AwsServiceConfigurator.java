@@ -1,39 +1,176 @@
 package org.amt.microservicelabeldetector.labeldetector;
 
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rekognition.RekognitionAsyncClient;
+import software.amazon.awssdk.services.rekognition.RekognitionAsyncClientBuilder;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.RekognitionClientBuilder;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.Objects;
 
 /**
  * Class to set Aws profile details
+ * <p>
+ * It also holds the settings of the HTTP clients calling AWS, and creates the Rekognition clients with them. The
+ * connection pool settings apply to the Apache client and to the Netty client of the asynchronous calls, the
+ * URLConnection client relies on the JDK keep-alive cache instead.
+ * </p>
+ * <p>
+ * The synchronous clients do not retry: their calls go through an {@link AdaptiveConcurrencyLimiter}, which retries
+ * throttled calls itself and must see each throttling to lower its limit.
+ * </p>
  *
  * @author De Bleser Dimitri
  * @author Peer Vincent
  * @author Nelson Jeanreneaud
  */
 public class AwsServiceConfigurator {
+    /**
+     * The synchronous HTTP client calling AWS.
+     */
+    public enum HttpClientType {
+        /** pooled Apache client, the SDK default */
+        APACHE,
+        /** lighter client of the JDK, starting faster, without a tunable pool */
+        URL_CONNECTION
+    }
+
     private static final Region DEFAULT_REGION = Region.EU_WEST_2;
     private final Region region;
     private final AwsCredentialsProvider credentialsProvider;
+    private final URI endpointOverride;
+    private final HttpClientType httpClientType;
+    private final int maxConnections;
+    private final Duration connectionTimeToLive;
+    private final boolean tcpKeepAlive;
+    private final Duration connectionTimeout;
+    private final Duration apiCallTimeout;
+    private final Duration apiCallAttemptTimeout;
 
     private static boolean isRegionInvalid(String region) {
         return Region.regions().stream().noneMatch(r -> r.equals(Region.of(region)));
     }
 
-    private AwsServiceConfigurator(Region region, AwsCredentialsProvider credentialsProvider) {
-        if (region == null) {
+    private AwsServiceConfigurator(Builder builder) {
+        if (builder.region == null) {
             this.region = DEFAULT_REGION;
         } else {
-            this.region = region;
+            this.region = builder.region;
         }
-        if (credentialsProvider == null) {
+        if (builder.credentialsProvider == null) {
             this.credentialsProvider = ProfileCredentialsProvider.create();
         } else {
-            this.credentialsProvider = credentialsProvider;
+            this.credentialsProvider = builder.credentialsProvider;
+        }
+        this.endpointOverride = builder.endpointOverride;
+        this.httpClientType = builder.httpClientType;
+        this.maxConnections = builder.maxConnections;
+        this.connectionTimeToLive = builder.connectionTimeToLive;
+        this.tcpKeepAlive = builder.tcpKeepAlive;
+        this.connectionTimeout = builder.connectionTimeout;
+        this.apiCallTimeout = builder.apiCallTimeout;
+        this.apiCallAttemptTimeout = builder.apiCallAttemptTimeout;
+    }
+
+    /**
+     * <p>
+     * This method creates a synchronous Rekognition client with these settings.
+     * </p>
+     *
+     * @return the client, to be closed by the caller.
+     */
+    public RekognitionClient createRekognitionClient() {
+        return createRekognitionClient(region);
+    }
+
+    /**
+     * <p>
+     * This method creates a synchronous Rekognition client with these settings, in another region.
+     * </p>
+     * <p>
+     * The client makes a single attempt per call, its calls being retried by an {@link AdaptiveConcurrencyLimiter}.
+     * </p>
+     *
+     * @param region the region of the client.
+     * @return the client, to be closed by the caller.
+     */
+    public RekognitionClient createRekognitionClient(Region region) {
+        Objects.requireNonNull(region);
+        RekognitionClientBuilder builder = RekognitionClient.builder()
+                .region(region)
+                .credentialsProvider(credentialsProvider)
+                .httpClientBuilder(httpClientBuilder())
+                .overrideConfiguration(overrideConfiguration(RetryPolicy.none()));
+        if (endpointOverride != null) {
+            builder.endpointOverride(endpointOverride);
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>
+     * This method creates an asynchronous Rekognition client with these settings, calling AWS through Netty.
+     * </p>
+     *
+     * @param maxConcurrency the maximum number of concurrent calls.
+     * @return the client, to be closed by the caller.
+     */
+    public RekognitionAsyncClient createRekognitionAsyncClient(int maxConcurrency) {
+        NettyNioAsyncHttpClient.Builder httpClient = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(maxConcurrency)
+                .tcpKeepAlive(tcpKeepAlive)
+                .connectionTimeout(connectionTimeout);
+        if (connectionTimeToLive != null) {
+            httpClient.connectionTimeToLive(connectionTimeToLive);
+        }
+        RekognitionAsyncClientBuilder builder = RekognitionAsyncClient.builder()
+                .region(region)
+                .credentialsProvider(credentialsProvider)
+                .httpClientBuilder(httpClient)
+                .overrideConfiguration(overrideConfiguration(RetryPolicy.defaultRetryPolicy()));
+        if (endpointOverride != null) {
+            builder.endpointOverride(endpointOverride);
+        }
+        return builder.build();
+    }
+
+    private SdkHttpClient.Builder<?> httpClientBuilder() {
+        if (httpClientType == HttpClientType.URL_CONNECTION) {
+            return UrlConnectionHttpClient.builder()
+                    .connectionTimeout(connectionTimeout);
+        }
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .tcpKeepAlive(tcpKeepAlive)
+                .connectionTimeout(connectionTimeout);
+        if (connectionTimeToLive != null) {
+            builder.connectionTimeToLive(connectionTimeToLive);
         }
+        return builder;
+    }
+
+    private ClientOverrideConfiguration overrideConfiguration(RetryPolicy retryPolicy) {
+        ClientOverrideConfiguration.Builder builder = ClientOverrideConfiguration.builder()
+                .retryPolicy(retryPolicy);
+        if (apiCallTimeout != null) {
+            builder.apiCallTimeout(apiCallTimeout);
+        }
+        if (apiCallAttemptTimeout != null) {
+            builder.apiCallAttemptTimeout(apiCallAttemptTimeout);
+        }
+        return builder.build();
     }
 
     public Region getRegion() {
@@ -44,10 +181,64 @@ public class AwsServiceConfigurator {
         return credentialsProvider;
     }
 
+    /**
+     * @return the endpoint the clients call instead of the AWS one of the region, or null to call AWS.
+     */
+    public URI getEndpointOverride() {
+        return endpointOverride;
+    }
+
+    public HttpClientType getHttpClientType() {
+        return httpClientType;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return how long a pooled connection is reused, or null to reuse it as long as it is open.
+     */
+    public Duration getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public Duration getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * @return the deadline of a call, retries of the asynchronous client included, or null for none.
+     */
+    public Duration getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    /**
+     * @return the deadline of each attempt of a call, or null for none.
+     */
+    public Duration getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public static class Builder {
+        private static final int DEFAULT_MAX_CONNECTIONS = 50;
+        private static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(2);
         private Region region;
         private AwsCredentialsProvider credentialsProvider;
+        private URI endpointOverride;
+        private HttpClientType httpClientType = HttpClientType.APACHE;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private Duration connectionTimeToLive;
+        private boolean tcpKeepAlive;
+        private Duration connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        private Duration apiCallTimeout;
+        private Duration apiCallAttemptTimeout;
 
         public Builder withRegion(String region) {
             if (isRegionInvalid(region)) {
@@ -79,9 +270,82 @@ public class AwsServiceConfigurator {
             return this;
         }
 
+        /**
+         * Credentials are looked up in the system properties, the environment variables, the web identity token,
+         * the profile file, then the container and instance metadata.
+         */
+        public Builder withDefaultCredentialsChain() {
+            this.credentialsProvider = DefaultCredentialsProvider.create();
+            return this;
+        }
+
+        public Builder withHttpClient(HttpClientType httpClientType) {
+            Objects.requireNonNull(httpClientType);
+            this.httpClientType = httpClientType;
+            return this;
+        }
+
+        public Builder withMaxConnections(int maxConnections) {
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("Max connections must be greater than 0");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder withConnectionTimeToLive(Duration connectionTimeToLive) {
+            this.connectionTimeToLive = positive(connectionTimeToLive, "Connection time to live");
+            return this;
+        }
+
+        public Builder withTcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        public Builder withConnectionTimeout(Duration connectionTimeout) {
+            this.connectionTimeout = positive(connectionTimeout, "Connection timeout");
+            return this;
+        }
+
+        /**
+         * @param apiCallTimeout        the deadline of a call, retries included.
+         * @param apiCallAttemptTimeout the deadline of each attempt.
+         */
+        public Builder withApiCallTimeouts(Duration apiCallTimeout, Duration apiCallAttemptTimeout) {
+            positive(apiCallTimeout, "Api call timeout");
+            positive(apiCallAttemptTimeout, "Api call attempt timeout");
+            if (apiCallAttemptTimeout.compareTo(apiCallTimeout) > 0) {
+                throw new IllegalArgumentException("Api call attempt timeout must not exceed the api call timeout");
+            }
+            this.apiCallTimeout = apiCallTimeout;
+            this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+            return this;
+        }
+
+        private static Duration positive(Duration duration, String name) {
+            Objects.requireNonNull(duration);
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return duration;
+        }
+
+        /**
+         * @param endpointOverride the endpoint to call instead of AWS, such as a local Rekognition simulator.
+         */
+        public Builder withEndpointOverride(URI endpointOverride) {
+            Objects.requireNonNull(endpointOverride);
+            if (endpointOverride.getScheme() == null || endpointOverride.getHost() == null) {
+                throw new IllegalArgumentException("Invalid endpoint: " + endpointOverride);
+            }
+            this.endpointOverride = endpointOverride;
+            return this;
+        }
+
 
         public AwsServiceConfigurator build() {
-            return new AwsServiceConfigurator(region, credentialsProvider);
+            return new AwsServiceConfigurator(this);
         }
     }
 
@@ -0,0 +1,160 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Detects the labels of a batch of images over a shared pool of workers.
+ * </p>
+ * <p>
+ * Each batch keeps at most a fixed number of detections in flight, so a large batch cannot monopolize the pool,
+ * and reports each result to its listener as soon as it completes, in completion order.
+ * The listener is always called from the thread running the batch.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class BatchLabelDetector implements AutoCloseable {
+    private final LabelDetector labelDetector;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    public BatchLabelDetector(LabelDetector labelDetector, int threads, int maxInFlight) {
+        Objects.requireNonNull(labelDetector);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be greater than 0");
+        }
+        this.labelDetector = labelDetector;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * <p>
+     * This method detects the labels on the images located at the given urls.
+     * </p>
+     *
+     * @param imageURLs     the urls of the images.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @param listener      the listener notified of each result.
+     * @throws IOException if the listener failed, the remaining detections are then cancelled.
+     */
+    public void detectLabels(List<String> imageURLs, int maxLabels, float minConfidence, ResultListener listener) throws IOException, InterruptedException {
+        List<Detection> detections = new ArrayList<>(imageURLs.size());
+        for (String imageURL : imageURLs) {
+            detections.add(() -> labelDetector.detectLabels(new URL(imageURL), maxLabels, minConfidence));
+        }
+        run(detections, listener);
+    }
+
+    /**
+     * <p>
+     * This method detects the labels on the images stored in a dataObject.
+     * </p>
+     *
+     * @param dataObject    the dataObject where the images are stored.
+     * @param keys          the keys of the images.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @param listener      the listener notified of each result.
+     * @throws IOException if the listener failed, the remaining detections are then cancelled.
+     */
+    public void detectLabels(String dataObject, List<String> keys, int maxLabels, float minConfidence, ResultListener listener) throws IOException, InterruptedException {
+        List<Detection> detections = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            detections.add(() -> labelDetector.detectLabels(dataObject, key, maxLabels, minConfidence));
+        }
+        run(detections, listener);
+    }
+
+    private void run(List<Detection> detections, ResultListener listener) throws IOException, InterruptedException {
+        CompletionService<IndexedResult> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<IndexedResult>> futures = new ArrayList<>(detections.size());
+        int submitted = 0;
+        try {
+            for (int completed = 0; completed < detections.size(); completed++) {
+                while (submitted < detections.size() && submitted - completed < maxInFlight) {
+                    futures.add(completionService.submit(detect(submitted, detections.get(submitted))));
+                    submitted++;
+                }
+                IndexedResult result = completionService.take().get();
+                if (result.exception == null) {
+                    listener.onResult(result.index, result.result);
+                } else {
+                    listener.onError(result.index, result.exception);
+                }
+            }
+        } catch (ExecutionException e) {
+            // detect() reports every exception in its result
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static Callable<IndexedResult> detect(int index, Detection detection) {
+        return () -> {
+            try {
+                return new IndexedResult(index, detection.detect(), null);
+            } catch (Exception e) {
+                return new IndexedResult(index, null, e);
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Listener of the results of a batch.
+     * </p>
+     */
+    public interface ResultListener {
+        /**
+         * @param index  the index of the image in the batch.
+         * @param result the result of the label detection.
+         */
+        void onResult(int index, LabelDetectorResult result) throws IOException;
+
+        /**
+         * @param index     the index of the image in the batch.
+         * @param exception the exception raised by the label detection.
+         */
+        void onError(int index, Exception exception) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Detection {
+        LabelDetectorResult detect() throws Exception;
+    }
+
+    private static class IndexedResult {
+        private final int index;
+        private final LabelDetectorResult result;
+        private final Exception exception;
+
+        private IndexedResult(int index, LabelDetectorResult result, Exception exception) {
+            this.index = index;
+            this.result = result;
+            this.exception = exception;
+        }
+    }
+}
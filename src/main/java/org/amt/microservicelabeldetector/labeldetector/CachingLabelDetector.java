@@ -0,0 +1,421 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * {@link LabelDetector} decorator caching the results of another detector.
+ * </p>
+ * <p>
+ * Results are keyed by the SHA-256 of the image bytes, so the same image downloaded from different URLs
+ * is only detected once. The keys are prefixed by the backend, if given, so the results of different backends or
+ * models sharing a disk store are never mixed. Images stored in a dataObject are not cached, their bytes are never read by the service and
+ * their location says nothing of their content, which can be overwritten. A cached result also answers requests asking for fewer labels or a higher confidence than the one it was detected with.
+ * </p>
+ * <p>
+ * A {@link DiskResultStore} can back the cache, so results survive restarts: the store is looked up on a miss and
+ * every detected result is written to it. Failures of the store fall back to the detector.
+ * </p>
+ * <p>
+ * Near-duplicate images, the same photo resized, recompressed or without its metadata, can reuse a result as well.
+ * On a miss, the {@link PerceptualHash} of the image is looked up among those of the detected images, and the result
+ * of the closest one within the maximum distance is used if it is still cached, and stored under the key of the
+ * image so the next request for it is an exact hit. Images are preprocessed before being hashed, a downscaled image
+ * is decoded in a fraction of the time, but the detector is still passed the original image, which it preprocesses
+ * itself.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class CachingLabelDetector implements LabelDetector {
+    private final LabelDetector delegate;
+    private final ImageDownloader imageDownloader;
+    private final String keyPrefix;
+    private final DiskResultStore store;
+    private final NearDuplicateIndex nearDuplicates;
+    private final int maxDistance;
+    private final ImagePreprocessor imagePreprocessor;
+    private final LabelDetectorMetrics metrics;
+    private final long timeToLiveNanos;
+    private final Map<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder nearDuplicateHits = new LongAdder();
+
+    private CachingLabelDetector(LabelDetector delegate, ImageDownloader imageDownloader, String backend, DiskResultStore store,
+                                 int maxEntries, Duration timeToLive, int maxDistance, ImagePreprocessor imagePreprocessor,
+                                 LabelDetectorMetrics metrics) {
+        this.delegate = delegate;
+        this.imageDownloader = imageDownloader;
+        this.keyPrefix = backend == null ? "" : backend + ":";
+        this.store = store;
+        this.nearDuplicates = maxDistance < 0 ? null : new NearDuplicateIndex(maxEntries);
+        this.maxDistance = maxDistance;
+        this.imagePreprocessor = imagePreprocessor;
+        this.metrics = metrics;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+        if (!isValid(maxLabels, minConfidence)) {
+            return delegate.detectLabels(image, maxLabels, minConfidence);
+        }
+        String key = key(image);
+        LabelDetectorResult cached = find(key, maxLabels, minConfidence);
+        OptionalLong hash = OptionalLong.empty();
+        if (cached == null && nearDuplicates != null) {
+            // only hashed on a miss, the hash costs a decoding of the image
+            long start = System.nanoTime();
+            hash = PerceptualHash.dHash(imagePreprocessor == null ? image : imagePreprocessor.process(image));
+            if (metrics != null) {
+                metrics.record(LabelDetectorMetrics.Phase.HASH, start);
+            }
+            String nearKey = hash.isPresent() ? nearDuplicates.nearest(hash.getAsLong(), maxDistance) : null;
+            cached = nearKey == null ? null : find(nearKey, maxLabels, minConfidence);
+            if (cached != null) {
+                nearDuplicateHits.increment();
+                store(key, cached, maxLabels, minConfidence);
+            }
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        LabelDetectorResult result = delegate.detectLabels(image, maxLabels, minConfidence);
+        store(key, result, maxLabels, minConfidence);
+        if (hash.isPresent()) {
+            nearDuplicates.add(hash.getAsLong(), key);
+        }
+        return result;
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+        // an object overwritten under the same key would keep its previous labels
+        return delegate.detectLabels(dataObject, key, maxLabels, minConfidence);
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
+        Objects.requireNonNull(url);
+        return detectLabels(imageDownloader.download(url), maxLabels, minConfidence);
+    }
+
+    /**
+     * <p>
+     * This method returns the statistics of the cache since its creation.
+     * </p>
+     *
+     * @return the statistics of the cache.
+     */
+    public Stats getStats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), storeHits.sum(), nearDuplicateHits.sum(), entries.size());
+        }
+    }
+
+    /**
+     * Returns the key of the result of an image in the cache and the store.
+     */
+    String key(byte[] image) {
+        return keyPrefix + sha256(image);
+    }
+
+    /**
+     * Looks the result of an image up without detecting it, for {@link AsyncCachingLabelDetector}.
+     *
+     * @return the cached result, or null on a miss.
+     */
+    LabelDetectorResult lookup(String key, int maxLabels, float minConfidence) {
+        LabelDetectorResult cached = find(key, maxLabels, minConfidence);
+        if (cached != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    static boolean isValid(int maxLabels, float minConfidence) {
+        // invalid parameters are left to the delegate to reject
+        return maxLabels >= 1 && minConfidence >= 0 && minConfidence <= 100;
+    }
+
+    private LabelDetectorResult find(String key, int maxLabels, float minConfidence) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                entries.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null || !entry.covers(maxLabels, minConfidence)) {
+            entry = load(key);
+            if (entry == null || !entry.covers(maxLabels, minConfidence)) {
+                return null;
+            }
+            storeHits.increment();
+        }
+        if (entry.maxLabels == maxLabels && entry.minConfidence == minConfidence) {
+            return entry.result;
+        }
+        return entry.result.filter(maxLabels, minConfidence);
+    }
+
+    private Entry load(String key) {
+        if (store == null) {
+            return null;
+        }
+        DiskResultStore.StoredResult stored;
+        try {
+            stored = store.get(key);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (stored == null) {
+            return null;
+        }
+        Entry entry = new Entry(stored.getResult(), stored.getMaxLabels(), stored.getMinConfidence(), System.nanoTime() + timeToLiveNanos);
+        remember(key, entry);
+        return entry;
+    }
+
+    void store(String key, LabelDetectorResult result, int maxLabels, float minConfidence) {
+        remember(key, new Entry(result, maxLabels, minConfidence, System.nanoTime() + timeToLiveNanos));
+        if (store != null) {
+            try {
+                store.put(key, result, maxLabels, minConfidence);
+            } catch (IOException | RuntimeException e) {
+                // the result is still cached in memory, it is only lost for the next restart
+            }
+        }
+    }
+
+    private void remember(String key, Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.get(key);
+            if (previous == null || previous.isExpired() || !previous.covers(entry.maxLabels, entry.minConfidence)) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final LabelDetectorResult result;
+        private final int maxLabels;
+        private final float minConfidence;
+        private final long expiresAt;
+
+        private Entry(LabelDetectorResult result, int maxLabels, float minConfidence, long expiresAt) {
+            this.result = result;
+            this.maxLabels = maxLabels;
+            this.minConfidence = minConfidence;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+
+        /**
+         * A result detected with a lower confidence holds every label of a stricter request. It holds enough of them
+         * if fewer labels are asked, or if the detection returned less than its maximum, i.e. it was not truncated.
+         */
+        private boolean covers(int maxLabels, float minConfidence) {
+            return minConfidence >= this.minConfidence
+                    && (maxLabels <= this.maxLabels || result.getNbLabels() < this.maxLabels);
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of a {@link CachingLabelDetector}.
+     * </p>
+     */
+    public static class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long storeHitCount;
+        private final long nearDuplicateHitCount;
+        private final int size;
+
+        private Stats(long hitCount, long missCount, long evictionCount, long storeHitCount, long nearDuplicateHitCount, int size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.storeHitCount = storeHitCount;
+            this.nearDuplicateHitCount = nearDuplicateHitCount;
+            this.size = size;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return the number of hits answered by the disk store, counted in the hits as well.
+         */
+        public long getStoreHitCount() {
+            return storeHitCount;
+        }
+
+        /**
+         * @return the number of hits answered by the result of a near-duplicate image, counted in the hits as well.
+         */
+        public long getNearDuplicateHitCount() {
+            return nearDuplicateHitCount;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public double getHitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 0 : (double) hitCount / requests;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private static final int DEFAULT_MAX_ENTRIES = 10_000;
+        private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(24);
+        private final LabelDetector delegate;
+        private final ImageDownloader imageDownloader;
+        private String backend;
+        private DiskResultStore store;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private int maxDistance = -1;
+        private ImagePreprocessor imagePreprocessor;
+        private LabelDetectorMetrics metrics;
+        private Duration timeToLive = DEFAULT_TIME_TO_LIVE;
+
+        /**
+         * @param imageDownloader the downloader of the images given by url, shared so its connections are.
+         */
+        public Builder(LabelDetector delegate, ImageDownloader imageDownloader) {
+            Objects.requireNonNull(delegate);
+            Objects.requireNonNull(imageDownloader);
+            this.delegate = delegate;
+            this.imageDownloader = imageDownloader;
+        }
+
+        /**
+         * @param backend the name of the backend detecting the images, with the identity of its model if it has one,
+         *                prefixing the keys of the results.
+         */
+        public Builder withBackend(String backend) {
+            Objects.requireNonNull(backend);
+            if (backend.isBlank()) {
+                throw new IllegalArgumentException("Backend must not be blank");
+            }
+            this.backend = backend;
+            return this;
+        }
+
+        public Builder withStore(DiskResultStore store) {
+            Objects.requireNonNull(store);
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * <p>
+         * Enables the reuse of the results of near-duplicate images.
+         * </p>
+         *
+         * @param maxDistance the maximum number of bits differing between the perceptual hashes of near-duplicates,
+         *                    out of 64.
+         */
+        public Builder withNearDuplicates(int maxDistance) {
+            if (maxDistance < 0 || maxDistance > 64) {
+                throw new IllegalArgumentException("Max distance must be between 0 and 64");
+            }
+            this.maxDistance = maxDistance;
+            return this;
+        }
+
+        /**
+         * @param imagePreprocessor the preprocessor of the images before they are hashed.
+         */
+        public Builder withImagePreprocessor(ImagePreprocessor imagePreprocessor) {
+            Objects.requireNonNull(imagePreprocessor);
+            this.imagePreprocessor = imagePreprocessor;
+            return this;
+        }
+
+        /**
+         * @param metrics the metrics recording the time spent hashing images.
+         */
+        public Builder withMetrics(LabelDetectorMetrics metrics) {
+            Objects.requireNonNull(metrics);
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder withMaxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("Max entries must be greater than 0");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withTimeToLive(Duration timeToLive) {
+            Objects.requireNonNull(timeToLive);
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new IllegalArgumentException("Time to live must be positive");
+            }
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public CachingLabelDetector build() {
+            return new CachingLabelDetector(delegate, imageDownloader, backend, store, maxEntries, timeToLive, maxDistance, imagePreprocessor, metrics);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * {@link LabelDetector} decorator failing fast while its delegate is unhealthy, and capping its concurrent calls.
+ * </p>
+ * <p>
+ * The circuit opens when the rate of internal errors, unavailability and timeouts of the service over the last calls
+ * exceeds a threshold. Failures to download an image, a slow origin included, say nothing of the service and are not
+ * counted. While open, calls fail immediately with a {@link LabelDetector.ServiceUnavailableException}. Once the
+ * open duration has elapsed, a few probe calls are let through: the circuit closes if they all succeed and opens
+ * again otherwise. Independently, a bulkhead caps the calls in flight, so a slow backend cannot hold every thread.
+ * </p>
+ * <p>
+ * An {@link AsyncLabelDetector} of the same service can be guarded by the same circuit and bulkhead with
+ * {@link #guard(AsyncLabelDetector)}.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class CircuitBreakerLabelDetector implements LabelDetector {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final LabelDetector delegate;
+    private final String name;
+    private final float failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+    private final int maxConcurrentCalls;
+    private final Duration maxWait;
+    private final Semaphore bulkhead;
+
+    // outcomes of the last calls, true for a failure
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCalls;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder bulkheadRejectedCalls = new LongAdder();
+
+    private CircuitBreakerLabelDetector(Builder builder) {
+        this.delegate = builder.delegate;
+        this.name = builder.name;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDurationNanos = builder.openDuration.toNanos();
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.maxConcurrentCalls = builder.maxConcurrentCalls;
+        this.maxWait = builder.maxWait;
+        this.bulkhead = new Semaphore(builder.maxConcurrentCalls);
+        this.window = new boolean[builder.windowSize];
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+        try {
+            return call(() -> delegate.detectLabels(image, maxLabels, minConfidence));
+        } catch (IOException e) {
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+        try {
+            return call(() -> delegate.detectLabels(dataObject, key, maxLabels, minConfidence));
+        } catch (IOException e) {
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
+        return call(() -> delegate.detectLabels(url, maxLabels, minConfidence));
+    }
+
+    private LabelDetectorResult call(Detection detection) throws IOException, LabelDetectorException {
+        boolean probe = acquirePermission();
+        try {
+            if (!bulkhead.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                bulkheadRejectedCalls.increment();
+                releaseProbe(probe);
+                throw new TooManyRequestsException("Too many concurrent calls to " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseProbe(probe);
+            throw new InterruptedIOException("Interrupted while waiting for " + name);
+        }
+        boolean failure = false;
+        try {
+            return detection.detect();
+        } catch (InternalErrorException | ServiceUnavailableException | ServiceTimeoutException e) {
+            failure = true;
+            throw e;
+        } finally {
+            bulkhead.release();
+            onResult(probe, failure);
+        }
+    }
+
+    /**
+     * <p>
+     * This method guards an asynchronous detector of the same service with this circuit breaker, so that the
+     * failures of either detector open the circuit for both. Its calls are rejected rather than waiting when the
+     * bulkhead is full, and a cancelled call is not counted.
+     * </p>
+     *
+     * @param asyncDelegate the asynchronous detector to guard.
+     * @return the guarded detector.
+     */
+    public AsyncLabelDetector guard(AsyncLabelDetector asyncDelegate) {
+        Objects.requireNonNull(asyncDelegate);
+        return new AsyncLabelDetector() {
+            @Override
+            public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+                return callAsync(() -> asyncDelegate.detectLabels(image, maxLabels, minConfidence));
+            }
+
+            @Override
+            public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+                return callAsync(() -> asyncDelegate.detectLabels(dataObject, key, maxLabels, minConfidence));
+            }
+
+            @Override
+            public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+                return callAsync(() -> asyncDelegate.detectLabels(url, maxLabels, minConfidence));
+            }
+        };
+    }
+
+    private CompletableFuture<LabelDetectorResult> callAsync(Supplier<CompletableFuture<LabelDetectorResult>> detection) {
+        boolean probe;
+        try {
+            probe = acquirePermission();
+        } catch (ServiceUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejectedCalls.increment();
+            releaseProbe(probe);
+            return CompletableFuture.failedFuture(new TooManyRequestsException("Too many concurrent calls to " + name));
+        }
+        CompletableFuture<LabelDetectorResult> call;
+        try {
+            call = detection.get();
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            releaseProbe(probe);
+            throw e;
+        }
+        // the future of the delegate is returned as is, so that cancelling it aborts the call
+        call.whenComplete((result, e) -> {
+            bulkhead.release();
+            if (call.isCancelled()) {
+                releaseProbe(probe);
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            onResult(probe, cause instanceof InternalErrorException || cause instanceof ServiceUnavailableException
+                    || cause instanceof ServiceTimeoutException);
+        });
+        return call;
+    }
+
+    /**
+     * Returns whether the call is a half-open probe.
+     */
+    private synchronized boolean acquirePermission() throws ServiceUnavailableException {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            state = State.HALF_OPEN;
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+            return true;
+        }
+        rejectedCalls.increment();
+        throw new ServiceUnavailableException("Circuit breaker of " + name + " is open");
+    }
+
+    private synchronized void releaseProbe(boolean probe) {
+        if (probe && state == State.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    private synchronized void onResult(boolean probe, boolean failure) {
+        if (probe) {
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            if (failure) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            // a call started before the circuit opened
+            return;
+        }
+        if (windowCalls == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+        if (windowCalls >= minimumCalls && getFailureRate() >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private float getFailureRate() {
+        return windowCalls == 0 ? 0 : 100f * windowFailures / windowCalls;
+    }
+
+    /**
+     * <p>
+     * This method returns the current status of the circuit breaker and bulkhead.
+     * </p>
+     *
+     * @return the status of the circuit breaker.
+     */
+    public synchronized Status getStatus() {
+        State current = state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos ? State.HALF_OPEN : state;
+        return new Status(name, current, getFailureRate(), windowCalls, rejectedCalls.sum(),
+                maxConcurrentCalls - bulkhead.availablePermits(), maxConcurrentCalls, bulkheadRejectedCalls.sum());
+    }
+
+    @FunctionalInterface
+    private interface Detection {
+        LabelDetectorResult detect() throws IOException, LabelDetectorException;
+    }
+
+    /**
+     * <p>
+     * Status of a {@link CircuitBreakerLabelDetector}.
+     * </p>
+     */
+    public static class Status {
+        private final String name;
+        private final State state;
+        private final float failureRate;
+        private final int bufferedCalls;
+        private final long rejectedCalls;
+        private final int concurrentCalls;
+        private final int maxConcurrentCalls;
+        private final long bulkheadRejectedCalls;
+
+        private Status(String name, State state, float failureRate, int bufferedCalls, long rejectedCalls,
+                       int concurrentCalls, int maxConcurrentCalls, long bulkheadRejectedCalls) {
+            this.name = name;
+            this.state = state;
+            this.failureRate = failureRate;
+            this.bufferedCalls = bufferedCalls;
+            this.rejectedCalls = rejectedCalls;
+            this.concurrentCalls = concurrentCalls;
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            this.bulkheadRejectedCalls = bulkheadRejectedCalls;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public float getFailureRate() {
+            return failureRate;
+        }
+
+        public int getBufferedCalls() {
+            return bufferedCalls;
+        }
+
+        public long getRejectedCalls() {
+            return rejectedCalls;
+        }
+
+        public int getConcurrentCalls() {
+            return concurrentCalls;
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public long getBulkheadRejectedCalls() {
+            return bulkheadRejectedCalls;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private final LabelDetector delegate;
+        private String name = "rekognition";
+        private float failureRateThreshold = 50;
+        private int windowSize = 100;
+        private int minimumCalls = 20;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int halfOpenCalls = 5;
+        private int maxConcurrentCalls = 100;
+        private Duration maxWait = Duration.ZERO;
+
+        public Builder(LabelDetector delegate) {
+            Objects.requireNonNull(delegate);
+            this.delegate = delegate;
+        }
+
+        public Builder withName(String name) {
+            Objects.requireNonNull(name);
+            this.name = name;
+            return this;
+        }
+
+        public Builder withFailureRateThreshold(float failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+                throw new IllegalArgumentException("Failure rate threshold must be between 0 and 100");
+            }
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        public Builder withWindow(int windowSize, int minimumCalls) {
+            if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+                throw new IllegalArgumentException("Window must satisfy 1 <= minimum calls <= window size");
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder withOpenDuration(Duration openDuration) {
+            Objects.requireNonNull(openDuration);
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public Builder withHalfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("Half open calls must be greater than 0");
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public Builder withBulkhead(int maxConcurrentCalls, Duration maxWait) {
+            if (maxConcurrentCalls < 1) {
+                throw new IllegalArgumentException("Max concurrent calls must be greater than 0");
+            }
+            Objects.requireNonNull(maxWait);
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public CircuitBreakerLabelDetector build() {
+            return new CircuitBreakerLabelDetector(this);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * {@link LabelDetector} decorator sharing a single detection between concurrent identical requests.
+ * </p>
+ * <p>
+ * The first request for an image and parameters runs the detection, the requests arriving while it is in flight
+ * wait for it and receive the same result or exception. Images are identified by their URL, their dataObject
+ * location or their bytes. Nothing is kept once the detection completes.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class CoalescingLabelDetector implements LabelDetector {
+    private final LabelDetector delegate;
+    private final ConcurrentMap<Key, CompletableFuture<LabelDetectorResult>> inFlightRequests = new ConcurrentHashMap<>();
+    private final LongAdder coalescedRequests = new LongAdder();
+
+    public CoalescingLabelDetector(LabelDetector delegate) {
+        Objects.requireNonNull(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+        Objects.requireNonNull(image);
+        try {
+            return coalesce(Key.of(image, maxLabels, minConfidence),
+                    () -> delegate.detectLabels(image, maxLabels, minConfidence));
+        } catch (IOException e) {
+            // the byte array detection does not do any I/O
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+        try {
+            return coalesce(Key.of(dataObject, key, maxLabels, minConfidence),
+                    () -> delegate.detectLabels(dataObject, key, maxLabels, minConfidence));
+        } catch (IOException e) {
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
+        return coalesce(Key.of(url, maxLabels, minConfidence),
+                () -> delegate.detectLabels(url, maxLabels, minConfidence));
+    }
+
+    /**
+     * <p>
+     * This method returns the number of requests that waited for an identical request instead of running their own
+     * detection.
+     * </p>
+     *
+     * @return the number of coalesced requests.
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    /**
+     * <p>
+     * This method returns the number of detections currently running.
+     * </p>
+     *
+     * @return the number of detections in flight.
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.size();
+    }
+
+    private LabelDetectorResult coalesce(Key key, Detection detection) throws IOException, LabelDetectorException {
+        CompletableFuture<LabelDetectorResult> future = new CompletableFuture<>();
+        CompletableFuture<LabelDetectorResult> inFlight = inFlightRequests.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalescedRequests.increment();
+            return await(inFlight);
+        }
+        try {
+            LabelDetectorResult result = detection.detect();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(key, future);
+        }
+    }
+
+    private static LabelDetectorResult await(CompletableFuture<LabelDetectorResult> future) throws IOException, LabelDetectorException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical detection");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LabelDetectorException) {
+                throw (LabelDetectorException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new LabelDetectorException(cause.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Detection {
+        LabelDetectorResult detect() throws IOException, LabelDetectorException;
+    }
+
+    /**
+     * Identifies the requests of the same image with the same parameters, shared with {@link AsyncCoalescingLabelDetector}.
+     */
+    static final class Key {
+        private final Object image;
+        private final int maxLabels;
+        private final float minConfidence;
+
+        private Key(Object image, int maxLabels, float minConfidence) {
+            this.image = image;
+            this.maxLabels = maxLabels;
+            this.minConfidence = minConfidence;
+        }
+
+        static Key of(byte[] image, int maxLabels, float minConfidence) {
+            return new Key(new ImageBytes(image), maxLabels, minConfidence);
+        }
+
+        static Key of(String dataObject, String key, int maxLabels, float minConfidence) {
+            return new Key("s3://" + dataObject + "/" + key, maxLabels, minConfidence);
+        }
+
+        static Key of(URL url, int maxLabels, float minConfidence) {
+            return new Key(url.toExternalForm(), maxLabels, minConfidence);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return maxLabels == key.maxLabels && Float.compare(key.minConfidence, minConfidence) == 0 && image.equals(key.image);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(image, maxLabels, minConfidence);
+        }
+    }
+
+    /**
+     * Compares the images by content, the hash code being computed once.
+     */
+    private static final class ImageBytes {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private ImageBytes(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ImageBytes)) return false;
+            ImageBytes other = (ImageBytes) o;
+            return hashCode == other.hashCode && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
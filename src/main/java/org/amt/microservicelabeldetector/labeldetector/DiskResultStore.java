@@ -0,0 +1,661 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Instance;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.Parent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Disk store of label detection results, kept across restarts of the service.
+ * </p>
+ * <p>
+ * Results are appended to a log file, each record holding its key, the detection parameters and the labels with
+ * their parents and instances, checked by a CRC. The position of the latest record of each key is indexed in memory.
+ * The index is rebuilt at startup by a single sequential read of the log, which also cuts a record torn by a crash.
+ * </p>
+ * <p>
+ * When the log grows over its maximum size it is compacted in the background: expired and overwritten records are
+ * dropped, then the latest records are kept, the most recent first, up to three quarters of the maximum size. Reads
+ * and writes go on during the compaction, which only holds the lock to swap in the compacted log; writes are dropped
+ * if the log reaches twice its maximum size before then. A directory is used by a single process at a time.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class DiskResultStore implements Closeable {
+    static final String LOG_FILE = "results.log";
+    static final String COMPACTION_FILE = "results.log.compact";
+    private static final String LOCK_FILE = "results.lock";
+    // length and CRC of the record body
+    private static final int HEADER_BYTES = 8;
+    private static final double COMPACTION_TARGET = 0.75;
+    private static final int MAX_GROWTH = 2;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition compactionDone = lock.writeLock().newCondition();
+    private final Map<String, Position> index = new HashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-store-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileChannel channel;
+    private long size;
+    private boolean compacting;
+    private volatile boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactionFailures = new LongAdder();
+
+    private DiskResultStore(Path directory, long maxBytes, Duration timeToLive) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lockChannel.close();
+            throw new IOException("Result store " + directory + " is already open", e);
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("Result store " + directory + " is used by another process");
+        }
+        try {
+            this.channel = openLog();
+            load();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    private FileChannel openLog() throws IOException {
+        return FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void load() throws IOException {
+        long offset = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(LOG_FILE)), 1 << 16))) {
+            while (true) {
+                int length;
+                int crc;
+                byte[] body;
+                try {
+                    length = input.readInt();
+                    crc = input.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    body = new byte[length];
+                    input.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (crc32(body) != crc) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                String key = record.readUTF();
+                long storedAt = record.readLong();
+                index.put(key, new Position(offset, HEADER_BYTES + length, storedAt));
+                offset += HEADER_BYTES + length;
+            }
+        }
+        if (offset < channel.size()) {
+            // the tail was torn or corrupted, the next records are appended over it
+            channel.truncate(offset);
+        }
+        size = offset;
+    }
+
+    /**
+     * <p>
+     * This method returns the latest result stored under the given key.
+     * </p>
+     *
+     * @param key the key of the result.
+     * @return the result with its detection parameters, or null if none is stored or it expired.
+     * @throws IOException if the log cannot be read.
+     */
+    public StoredResult get(String key) throws IOException {
+        Objects.requireNonNull(key);
+        ByteBuffer buffer;
+        lock.readLock().lock();
+        try {
+            Position position = index.get(key);
+            if (position == null || position.isExpired(System.currentTimeMillis(), timeToLiveMillis)) {
+                misses.increment();
+                return null;
+            }
+            buffer = ByteBuffer.allocate(position.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position.offset + buffer.position()) < 0) {
+                    throw new EOFException("Record of " + key + " is truncated");
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        buffer.flip();
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length != buffer.remaining()) {
+            misses.increment();
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.get(body);
+        if (crc32(body) != crc) {
+            misses.increment();
+            return null;
+        }
+        StoredResult result = decode(body);
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * <p>
+     * This method stores a result, replacing the one stored under the same key.
+     * </p>
+     *
+     * @param key           the key of the result.
+     * @param result        the result.
+     * @param maxLabels     the maximum number of labels the result was detected with.
+     * @param minConfidence the minimum confidence the result was detected with.
+     * @throws IOException if the log cannot be written.
+     */
+    public void put(String key, LabelDetectorResult result, int maxLabels, float minConfidence) throws IOException {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(result);
+        long storedAt = System.currentTimeMillis();
+        byte[] body = encode(key, storedAt, maxLabels, minConfidence, result);
+        if (body.length > MAX_RECORD_BYTES || HEADER_BYTES + body.length > maxBytes * COMPACTION_TARGET) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length).putInt(crc32(body)).put(body).flip();
+        lock.writeLock().lock();
+        try {
+            if (size + record.limit() > maxBytes * MAX_GROWTH) {
+                // the compaction is behind, the result is only kept in memory
+                return;
+            }
+            while (record.hasRemaining()) {
+                channel.write(record, size + record.position());
+            }
+            index.put(key, new Position(size, record.limit(), storedAt));
+            size += record.limit();
+            if (size > maxBytes && !compacting) {
+                startCompaction();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void startCompaction() {
+        compacting = true;
+        try {
+            compactor.execute(this::compact);
+        } catch (RejectedExecutionException e) {
+            // closed
+            compacting = false;
+        }
+    }
+
+    /**
+     * Waits for the compaction in progress, if any, to end.
+     */
+    void awaitCompaction() throws InterruptedException {
+        lock.writeLock().lock();
+        try {
+            while (compacting) {
+                compactionDone.await();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the log on the compaction thread, against a snapshot of the index taken under the read lock: the
+     * records kept are copied without holding the lock, then the records appended meanwhile are copied after them and
+     * the new log is swapped in under the write lock. A failed compaction leaves the current log in use.
+     */
+    private void compact() {
+        boolean swapped = false;
+        try {
+            Path compactionFile = directory.resolve(COMPACTION_FILE);
+            FileChannel output = FileChannel.open(compactionFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                swapped = compact(output, compactionFile);
+            } finally {
+                if (!swapped) {
+                    output.close();
+                    Files.deleteIfExists(compactionFile);
+                }
+            }
+        } catch (IOException e) {
+            // the log keeps growing over its maximum size, the next write over it compacts it again
+            compactionFailures.increment();
+        } finally {
+            lock.writeLock().lock();
+            try {
+                compacting = false;
+                if (swapped && size > maxBytes && !closed) {
+                    // more was appended during the compaction than it freed
+                    startCompaction();
+                }
+                compactionDone.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean compact(FileChannel output, Path compactionFile) throws IOException {
+        List<Map.Entry<String, Position>> live = new ArrayList<>();
+        FileChannel log;
+        long snapshotSize;
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Position> entry : index.entrySet()) {
+                if (!entry.getValue().isExpired(now, timeToLiveMillis)) {
+                    live.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+            log = channel;
+            snapshotSize = size;
+        } finally {
+            lock.readLock().unlock();
+        }
+        live.sort(Comparator.comparingLong((Map.Entry<String, Position> entry) -> entry.getValue().offset).reversed());
+        long target = (long) (maxBytes * COMPACTION_TARGET);
+        long kept = 0;
+        int count = 0;
+        while (count < live.size() && kept + live.get(count).getValue().length <= target) {
+            kept += live.get(count++).getValue().length;
+        }
+        Map<String, Position> compacted = new HashMap<>();
+        long offset = 0;
+        // copied oldest first, so the log stays ordered by age; the log is only swapped under the write lock
+        for (int i = count - 1; i >= 0; i--) {
+            if (closed) {
+                return false;
+            }
+            Position position = live.get(i).getValue();
+            transfer(log, position.offset, position.length, output);
+            compacted.put(live.get(i).getKey(), new Position(offset, position.length, position.storedAt));
+            offset += position.length;
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            Map<String, Position> swapped = new HashMap<>();
+            for (Map.Entry<String, Position> entry : live.subList(0, count)) {
+                // a result stored again during the compaction is carried over with the tail instead
+                if (index.get(entry.getKey()) == entry.getValue()) {
+                    swapped.put(entry.getKey(), compacted.get(entry.getKey()));
+                }
+            }
+            long tail = size - snapshotSize;
+            transfer(channel, snapshotSize, tail, output);
+            for (Map.Entry<String, Position> entry : index.entrySet()) {
+                Position position = entry.getValue();
+                if (position.offset >= snapshotSize) {
+                    swapped.put(entry.getKey(), new Position(offset + position.offset - snapshotSize, position.length, position.storedAt));
+                }
+            }
+            output.force(true);
+            // the new log is renamed while open, the current one stays in use if the rename fails
+            Files.move(compactionFile, directory.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel previous = channel;
+            channel = output;
+            index.clear();
+            index.putAll(swapped);
+            size = offset + tail;
+            compactions.increment();
+            previous.close();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void transfer(FileChannel source, long position, long length, FileChannel target) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long transferred = source.transferTo(position + copied, length - copied, target);
+            if (transferred <= 0) {
+                throw new EOFException("Log is truncated at " + (position + copied));
+            }
+            copied += transferred;
+        }
+    }
+
+    private static byte[] encode(String key, long storedAt, int maxLabels, float minConfidence, LabelDetectorResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeUTF(key);
+        output.writeLong(storedAt);
+        output.writeInt(maxLabels);
+        output.writeFloat(minConfidence);
+        output.writeInt(result.getNbLabels());
+        if (result instanceof AwsLabelDetectorHelperImpl.DetectLabelResult detectLabelResult) {
+            for (int i = 0; i < detectLabelResult.getNbLabels(); i++) {
+                output.writeUTF(detectLabelResult.getName(i));
+                output.writeFloat(detectLabelResult.getConfidence(i));
+                List<String> parents = detectLabelResult.getParents(i);
+                output.writeInt(parents.size());
+                for (String parent : parents) {
+                    output.writeUTF(parent);
+                }
+                List<Instance> instances = detectLabelResult.getInstances(i);
+                output.writeInt(instances.size());
+                for (Instance instance : instances) {
+                    writeInstance(output, instance);
+                }
+            }
+        } else {
+            for (Map.Entry<String, Float> label : result.getLabels().entrySet()) {
+                output.writeUTF(label.getKey());
+                output.writeFloat(label.getValue());
+                output.writeInt(0);
+                output.writeInt(0);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeInstance(DataOutputStream output, Instance instance) throws IOException {
+        // missing values are written as NaN
+        output.writeFloat(instance.confidence() == null ? Float.NaN : instance.confidence());
+        BoundingBox box = instance.boundingBox();
+        output.writeBoolean(box != null);
+        if (box != null) {
+            output.writeFloat(box.width() == null ? Float.NaN : box.width());
+            output.writeFloat(box.height() == null ? Float.NaN : box.height());
+            output.writeFloat(box.left() == null ? Float.NaN : box.left());
+            output.writeFloat(box.top() == null ? Float.NaN : box.top());
+        }
+    }
+
+    private static StoredResult decode(byte[] body) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        input.readUTF();
+        input.readLong();
+        int maxLabels = input.readInt();
+        float minConfidence = input.readFloat();
+        int nbLabels = input.readInt();
+        List<Label> labels = new ArrayList<>(nbLabels);
+        for (int i = 0; i < nbLabels; i++) {
+            Label.Builder label = Label.builder().name(input.readUTF()).confidence(input.readFloat());
+            int nbParents = input.readInt();
+            List<Parent> parents = new ArrayList<>(nbParents);
+            for (int j = 0; j < nbParents; j++) {
+                parents.add(Parent.builder().name(input.readUTF()).build());
+            }
+            int nbInstances = input.readInt();
+            List<Instance> instances = new ArrayList<>(nbInstances);
+            for (int j = 0; j < nbInstances; j++) {
+                instances.add(readInstance(input));
+            }
+            labels.add(label.parents(parents).instances(instances).build());
+        }
+        LabelDetectorResult result = new AwsLabelDetectorHelperImpl.DetectLabelResult(DetectLabelsResponse.builder().labels(labels).build());
+        return new StoredResult(result, maxLabels, minConfidence);
+    }
+
+    private static Instance readInstance(DataInputStream input) throws IOException {
+        Instance.Builder instance = Instance.builder().confidence(orNull(input.readFloat()));
+        if (input.readBoolean()) {
+            instance.boundingBox(BoundingBox.builder()
+                    .width(orNull(input.readFloat()))
+                    .height(orNull(input.readFloat()))
+                    .left(orNull(input.readFloat()))
+                    .top(orNull(input.readFloat()))
+                    .build());
+        }
+        return instance.build();
+    }
+
+    private static Float orNull(float value) {
+        return Float.isNaN(value) ? null : value;
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * <p>
+     * This method returns the statistics of the store since it was opened.
+     * </p>
+     *
+     * @return the statistics of the store.
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), compactions.sum(), compactionFailures.sum(), index.size(), size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        compactor.shutdown();
+        try {
+            // a compaction stops at its next record once the store is closed
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try (lockChannel) {
+            channel.close();
+            fileLock.release();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static class Position {
+        private final long offset;
+        private final int length;
+        private final long storedAt;
+
+        private Position(long offset, int length, long storedAt) {
+            this.offset = offset;
+            this.length = length;
+            this.storedAt = storedAt;
+        }
+
+        private boolean isExpired(long now, long timeToLiveMillis) {
+            return now - storedAt > timeToLiveMillis;
+        }
+    }
+
+    /**
+     * <p>
+     * A result read from a {@link DiskResultStore}, with the parameters it was detected with.
+     * </p>
+     */
+    public static class StoredResult {
+        private final LabelDetectorResult result;
+        private final int maxLabels;
+        private final float minConfidence;
+
+        private StoredResult(LabelDetectorResult result, int maxLabels, float minConfidence) {
+            this.result = result;
+            this.maxLabels = maxLabels;
+            this.minConfidence = minConfidence;
+        }
+
+        public LabelDetectorResult getResult() {
+            return result;
+        }
+
+        public int getMaxLabels() {
+            return maxLabels;
+        }
+
+        public float getMinConfidence() {
+            return minConfidence;
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of a {@link DiskResultStore}.
+     * </p>
+     */
+    public static class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long compactionCount;
+        private final long compactionFailureCount;
+        private final int size;
+        private final long bytes;
+
+        private Stats(long hitCount, long missCount, long compactionCount, long compactionFailureCount, int size, long bytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.compactionCount = compactionCount;
+            this.compactionFailureCount = compactionFailureCount;
+            this.size = size;
+            this.bytes = bytes;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getCompactionCount() {
+            return compactionCount;
+        }
+
+        public long getCompactionFailureCount() {
+            return compactionFailureCount;
+        }
+
+        /**
+         * @return the number of keys stored, including the expired ones not compacted yet.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the size of the log file.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private static final long DEFAULT_MAX_BYTES = 1L << 30;
+        private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofDays(30);
+        private final Path directory;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private Duration timeToLive = DEFAULT_TIME_TO_LIVE;
+
+        /**
+         * @param directory the directory of the log file, created if needed.
+         */
+        public Builder(Path directory) {
+            Objects.requireNonNull(directory);
+            this.directory = directory;
+        }
+
+        public Builder withMaxBytes(long maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("Max bytes must be greater than 0");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withTimeToLive(Duration timeToLive) {
+            Objects.requireNonNull(timeToLive);
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new IllegalArgumentException("Time to live must be positive");
+            }
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * @return the store, with the results of the log file already indexed.
+         * @throws IOException if the directory cannot be created, is used by another process, or its log cannot be
+         * read.
+         */
+        public DiskResultStore build() throws IOException {
+            return new DiskResultStore(directory, maxBytes, timeToLive);
+        }
+    }
+}
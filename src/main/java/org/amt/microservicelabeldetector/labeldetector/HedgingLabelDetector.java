@@ -0,0 +1,545 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * {@link LabelDetector} spreading the detections over the same service in several regions, and hedging the slow ones.
+ * </p>
+ * <p>
+ * Each region keeps a moving average of its latency and error rate, and a request goes to the region with the lowest
+ * latency, penalized by its errors. A small share of the requests goes to another region, so that a region recovering
+ * from an incident gets traffic back. When the chosen region has not answered within a percentile of its recent
+ * latencies, a duplicate request is sent to the next best region, and the first successful answer wins, the other
+ * call being interrupted. A chosen region failing before that delay, with an error telling it unhealthy, gets the
+ * duplicate sent right away rather than failing the request. Hedges are paid from a budget: each request adds a
+ * fraction of a hedge to it, so the extra calls stay within that fraction of the traffic even when a whole region
+ * slows down or fails.
+ * </p>
+ * <p>
+ * Only images sent as bytes are hedged. Images given by url are not downloaded twice, and images stored in a
+ * dataObject always go to the first region, Rekognition only reading buckets of its own region.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class HedgingLabelDetector implements LabelDetector, AutoCloseable {
+    // milli-hedges, so that a fraction of a hedge can be added per request
+    private static final long HEDGE_COST = 1000;
+    private static final int MAX_BUDGET_HEDGES = 10;
+
+    private final List<Region> regions;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long budgetPerRequest;
+    private final double probeRate;
+    private final ExecutorService executor;
+    private final AtomicLong budget = new AtomicLong();
+
+    private final LongAdder hedgedCalls = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetRejections = new LongAdder();
+
+    private HedgingLabelDetector(Builder builder) {
+        this.regions = List.copyOf(builder.regions);
+        this.percentile = builder.percentile;
+        this.minDelayNanos = builder.minDelay.toNanos();
+        this.budgetPerRequest = Math.round(builder.budget * HEDGE_COST);
+        this.probeRate = builder.probeRate;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rekognition-hedging-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+        try {
+            return hedge(detector -> detector.detectLabels(image, maxLabels, minConfidence));
+        } catch (IOException e) {
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+        try {
+            return regions.get(0).call(detector -> detector.detectLabels(dataObject, key, maxLabels, minConfidence), null);
+        } catch (IOException e) {
+            throw new LabelDetectorException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
+        return route().call(detector -> detector.detectLabels(url, maxLabels, minConfidence), null);
+    }
+
+    private LabelDetectorResult hedge(Detection detection) throws IOException, LabelDetectorException {
+        budget.accumulateAndGet(budgetPerRequest, (current, added) -> Math.min(current + added, MAX_BUDGET_HEDGES * HEDGE_COST));
+        Region primary = route();
+        Region secondary = alternative(primary);
+        if (secondary == null) {
+            return primary.call(detection, null);
+        }
+        Race race = new Race();
+        Future<?> primaryCall = executor.submit(() -> race.run(primary, detection));
+        Future<?> hedgeCall = null;
+        try {
+            Outcome outcome = race.await(Math.max(minDelayNanos, primary.latencyPercentileNanos(percentile)));
+            if (outcome == null) {
+                // the primary is slow, or failed and waits for a hedge
+                if (tryAcquireHedge() && race.hedge()) {
+                    hedgedCalls.increment();
+                    hedgeCall = executor.submit(() -> race.run(secondary, detection));
+                } else {
+                    race.withoutHedge();
+                }
+                outcome = race.await(Long.MAX_VALUE);
+            }
+            if (outcome.region != primary && outcome.exception == null) {
+                hedgeWins.increment();
+            }
+            return outcome.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Rekognition");
+        } finally {
+            // the call still running, if any, lost the race
+            primaryCall.cancel(true);
+            if (hedgeCall != null) {
+                hedgeCall.cancel(true);
+            }
+        }
+    }
+
+    private boolean tryAcquireHedge() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < HEDGE_COST) {
+                budgetRejections.increment();
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - HEDGE_COST));
+        return true;
+    }
+
+    /**
+     * @return the region with the best score, or sometimes another one to keep its statistics fresh.
+     */
+    private Region route() {
+        Region best = regions.get(0);
+        for (Region region : regions) {
+            if (region.score() < best.score()) {
+                best = region;
+            }
+        }
+        if (regions.size() > 1 && ThreadLocalRandom.current().nextDouble() < probeRate) {
+            Region probe = regions.get(ThreadLocalRandom.current().nextInt(regions.size() - 1));
+            return probe == best ? regions.get(regions.size() - 1) : probe;
+        }
+        return best;
+    }
+
+    /**
+     * @return the region with the best score other than the given one, or null if there is none.
+     */
+    private Region alternative(Region excluded) {
+        Region best = null;
+        for (Region region : regions) {
+            if (region != excluded && (best == null || region.score() < best.score())) {
+                best = region;
+            }
+        }
+        return best;
+    }
+
+    public Stats getStats() {
+        List<RegionStats> regionStats = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            regionStats.add(region.getStats());
+        }
+        return new Stats(hedgedCalls.sum(), hedgeWins.sum(), budgetRejections.sum(), regionStats);
+    }
+
+    /**
+     * @return the detectors of the regions, the first region first.
+     */
+    List<LabelDetector> getRegionDetectors() {
+        List<LabelDetector> detectors = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            detectors.add(region.detector);
+        }
+        return detectors;
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdownNow();
+        for (Region region : regions) {
+            if (region.detector instanceof AutoCloseable) {
+                ((AutoCloseable) region.detector).close();
+            }
+        }
+    }
+
+    /**
+     * @return whether a failure tells that the region is unhealthy, rather than the request invalid.
+     */
+    private static boolean isRegionFailure(Exception e) {
+        // throttling is the only invalid request telling about the region
+        return e instanceof TooManyRequestsException || !(e instanceof LabelDetectorRequestException);
+    }
+
+    @FunctionalInterface
+    private interface Detection {
+        LabelDetectorResult detect(LabelDetector detector) throws IOException, LabelDetectorException;
+    }
+
+    private static class Outcome {
+        private final Region region;
+        private final LabelDetectorResult result;
+        private final Exception exception;
+
+        private Outcome(Region region, LabelDetectorResult result, Exception exception) {
+            this.region = region;
+            this.result = result;
+            this.exception = exception;
+        }
+
+        private LabelDetectorResult get() throws IOException, LabelDetectorException {
+            if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception instanceof LabelDetectorException) {
+                throw (LabelDetectorException) exception;
+            } else if (exception != null) {
+                throw new LabelDetectorException(exception.getMessage());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The calls of a request: the first success wins, or the last failure when every call failed. A region failure of
+     * the first call is held back while a hedge can still be sent.
+     */
+    private static class Race {
+        private int calls = 1;
+        private int failures;
+        private boolean hedgeable = true;
+        private Outcome heldFailure;
+        private Outcome winner;
+
+        private void run(Region region, Detection detection) {
+            try {
+                offer(new Outcome(region, region.call(detection, this), null));
+            } catch (Exception e) {
+                offer(new Outcome(region, null, e));
+            }
+        }
+
+        private synchronized void offer(Outcome outcome) {
+            if (winner != null) {
+                return;
+            }
+            if (outcome.exception != null && ++failures < calls) {
+                return;
+            }
+            if (outcome.exception != null && hedgeable && isRegionFailure(outcome.exception)) {
+                heldFailure = outcome;
+            } else {
+                winner = outcome;
+            }
+            notifyAll();
+        }
+
+        /**
+         * @return whether a hedge can still join the race, which is not the case once it is decided.
+         */
+        private synchronized boolean hedge() {
+            hedgeable = false;
+            if (winner != null) {
+                return false;
+            }
+            calls++;
+            return true;
+        }
+
+        /**
+         * Decides the race on the failure held back, if any, as no hedge is sent.
+         */
+        private synchronized void withoutHedge() {
+            hedgeable = false;
+            if (winner == null && heldFailure != null) {
+                winner = heldFailure;
+                notifyAll();
+            }
+        }
+
+        private synchronized boolean isDecided() {
+            return winner != null;
+        }
+
+        /**
+         * @return the winner, or null if the race is not decided within the timeout or waits for a hedge.
+         */
+        private synchronized Outcome await(long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (winner == null) {
+                if (heldFailure != null && hedgeable) {
+                    return null;
+                }
+                long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return winner;
+        }
+    }
+
+    private static class Region {
+        private static final int SAMPLES = 256;
+        private static final int MIN_SAMPLES = 20;
+        private static final int PERCENTILE_REFRESH = 16;
+        private static final double SMOOTHING = 0.1;
+        private static final double ERROR_PENALTY = 10;
+
+        private final String name;
+        private final LabelDetector detector;
+        // last latencies, in a ring
+        private final long[] samples = new long[SAMPLES];
+        private int sampleCount;
+        private int sinceRefresh;
+        private long percentileNanos = Long.MAX_VALUE;
+        private double latencyNanos;
+        private double errorRate;
+        private long calls;
+        private long failures;
+
+        private Region(String name, LabelDetector detector) {
+            this.name = name;
+            this.detector = detector;
+        }
+
+        /**
+         * @param race the race the call takes part in, or null if it is alone.
+         */
+        private LabelDetectorResult call(Detection detection, Race race) throws IOException, LabelDetectorException {
+            long start = System.nanoTime();
+            try {
+                LabelDetectorResult result = detection.detect(detector);
+                record(System.nanoTime() - start, false);
+                return result;
+            } catch (IOException | LabelDetectorException | RuntimeException e) {
+                // a call interrupted after losing its race only tells that the region was slower
+                boolean lost = race != null && race.isDecided();
+                record(System.nanoTime() - start, !lost && isRegionFailure(e));
+                throw e;
+            }
+        }
+
+        private synchronized void record(long nanos, boolean failed) {
+            samples[(int) (calls % SAMPLES)] = nanos;
+            sampleCount = Math.min(sampleCount + 1, SAMPLES);
+            sinceRefresh++;
+            latencyNanos = calls == 0 ? nanos : latencyNanos + SMOOTHING * (nanos - latencyNanos);
+            errorRate += SMOOTHING * ((failed ? 1 : 0) - errorRate);
+            calls++;
+            if (failed) {
+                failures++;
+            }
+        }
+
+        private synchronized double score() {
+            return latencyNanos * (1 + ERROR_PENALTY * errorRate);
+        }
+
+        /**
+         * @return the percentile of the last latencies, or Long.MAX_VALUE while there are too few of them.
+         */
+        private synchronized long latencyPercentileNanos(double percentile) {
+            if (sampleCount < MIN_SAMPLES) {
+                return Long.MAX_VALUE;
+            }
+            // sorting every few samples is enough, the percentile moves slowly
+            if (sinceRefresh >= PERCENTILE_REFRESH || percentileNanos == Long.MAX_VALUE) {
+                long[] sorted = Arrays.copyOf(samples, sampleCount);
+                Arrays.sort(sorted);
+                percentileNanos = sorted[(int) Math.min(sampleCount - 1, Math.ceil(percentile * sampleCount) - 1)];
+                sinceRefresh = 0;
+            }
+            return percentileNanos;
+        }
+
+        private synchronized RegionStats getStats() {
+            return new RegionStats(name, calls, failures, Duration.ofNanos((long) latencyNanos), errorRate);
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of a {@link HedgingLabelDetector}.
+     * </p>
+     */
+    public static class Stats {
+        private final long hedgedCalls;
+        private final long hedgeWins;
+        private final long budgetRejections;
+        private final List<RegionStats> regions;
+
+        private Stats(long hedgedCalls, long hedgeWins, long budgetRejections, List<RegionStats> regions) {
+            this.hedgedCalls = hedgedCalls;
+            this.hedgeWins = hedgeWins;
+            this.budgetRejections = budgetRejections;
+            this.regions = regions;
+        }
+
+        public long getHedgedCalls() {
+            return hedgedCalls;
+        }
+
+        /**
+         * @return the number of hedges answering before the call they duplicate.
+         */
+        public long getHedgeWins() {
+            return hedgeWins;
+        }
+
+        /**
+         * @return the number of hedges not sent for lack of budget.
+         */
+        public long getBudgetRejections() {
+            return budgetRejections;
+        }
+
+        public List<RegionStats> getRegions() {
+            return regions;
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of a region of a {@link HedgingLabelDetector}.
+     * </p>
+     */
+    public static class RegionStats {
+        private final String name;
+        private final long calls;
+        private final long failures;
+        private final Duration latency;
+        private final double errorRate;
+
+        private RegionStats(String name, long calls, long failures, Duration latency, double errorRate) {
+            this.name = name;
+            this.calls = calls;
+            this.failures = failures;
+            this.latency = latency;
+            this.errorRate = errorRate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the moving average of the latency.
+         */
+        public Duration getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the moving average of the rate of failures telling the region unhealthy.
+         */
+        public double getErrorRate() {
+            return errorRate;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private final List<Region> regions = new ArrayList<>();
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(50);
+        private double budget = 0.1;
+        private double probeRate = 0.01;
+
+        /**
+         * Regions are added by order of preference, the first one also serving the images stored in a dataObject.
+         */
+        public Builder withRegion(String name, LabelDetector detector) {
+            Objects.requireNonNull(name);
+            Objects.requireNonNull(detector);
+            regions.add(new Region(name, detector));
+            return this;
+        }
+
+        /**
+         * A hedge is sent once the call has lasted this percentile of the recent latencies of its region, and at
+         * least the minimum delay.
+         */
+        public Builder withHedgeDelay(double percentile, Duration minDelay) {
+            Objects.requireNonNull(minDelay);
+            if (percentile <= 0 || percentile >= 1) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 1");
+            }
+            this.percentile = percentile;
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * The budget is the maximum share of extra calls hedging adds.
+         */
+        public Builder withBudget(double budget) {
+            if (budget < 0 || budget > 1) {
+                throw new IllegalArgumentException("Budget must be between 0 and 1");
+            }
+            this.budget = budget;
+            return this;
+        }
+
+        public Builder withProbeRate(double probeRate) {
+            if (probeRate < 0 || probeRate > 1) {
+                throw new IllegalArgumentException("Probe rate must be between 0 and 1");
+            }
+            this.probeRate = probeRate;
+            return this;
+        }
+
+        public HedgingLabelDetector build() {
+            if (regions.isEmpty()) {
+                throw new IllegalStateException("At least one region is required");
+            }
+            return new HedgingLabelDetector(this);
+        }
+    }
+}
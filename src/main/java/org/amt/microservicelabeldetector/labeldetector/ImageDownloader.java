@@ -0,0 +1,435 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Downloads the bytes of an image given its URL.
+ * </p>
+ * <p>
+ * HTTP images are fetched through a single shared {@link HttpClient}, which keeps connections alive between
+ * downloads and multiplexes them over HTTP/2 when the origin supports it. The number of concurrent downloads per
+ * host is limited, the permits of a host being dropped once it has no download left. Host names are resolved
+ * through the JVM DNS cache, whose lifetime is set by the {@code networkaddress.cache.ttl} security property.
+ * </p>
+ * <p>
+ * How long an idle connection is kept open is set by the {@code jdk.httpclient.keepalive.timeout} system property,
+ * which is read once for every {@link HttpClient} of the JVM and so must be given at launch.
+ * </p>
+ * <p>
+ * The download is rejected before reading the body when the announced length or content type cannot be an image
+ * Rekognition accepts, and aborted as soon as the body exceeds the maximum size or the download its deadline, or as
+ * soon as its first bytes are not the header of a JPEG or PNG image.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class ImageDownloader {
+    /**
+     * Maximum size of an image passed to Rekognition as bytes
+     */
+    public static final int MAX_IMAGE_BYTES = 5 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-download-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxBytes;
+    private final Duration readTimeout;
+    private final Duration downloadTimeout;
+    private final int maxConnectionsPerHost;
+    private final HttpClient httpClient;
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public ImageDownloader() {
+        this(new Builder());
+    }
+
+    private ImageDownloader(Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.readTimeout = builder.readTimeout;
+        this.downloadTimeout = builder.downloadTimeout;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(builder.connectTimeout)
+                .build();
+    }
+
+    /**
+     * <p>
+     * This method downloads the image located at the given url.
+     * </p>
+     *
+     * @param url the http or https url of the image.
+     * @return the bytes of the image.
+     * @throws MalformedURLException if the url is not an http or https one.
+     * @throws LabelDetector.InvalidImageSizeException if the image is larger than the maximum size.
+     * @throws LabelDetector.ImageFormatException if the server does not answer with a JPEG or PNG image.
+     */
+    public byte[] download(URL url) throws IOException, LabelDetector.LabelDetectorException {
+        long deadline = System.nanoTime() + downloadTimeout.toNanos();
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            // other schemes have neither timeouts nor host limits, and file: urls would read the local disk
+            throw new MalformedURLException("Unsupported protocol: " + protocol);
+        }
+        String host = url.getHost() + ":" + url.getPort();
+        HostPermits permits = hostPermits.compute(host, (key, current) -> {
+            HostPermits held = current == null ? new HostPermits(maxConnectionsPerHost) : current;
+            held.users++;
+            return held;
+        });
+        try {
+            acquire(permits.semaphore, url);
+        } catch (IOException e) {
+            leave(host);
+            throw e;
+        }
+        try {
+            requests.increment();
+            byte[] image = download(toURI(url), deadline);
+            bytesDownloaded.add(image.length);
+            return image;
+        } catch (LabelDetector.LabelDetectorException e) {
+            rejections.increment();
+            throw e;
+        } finally {
+            permits.semaphore.release();
+            leave(host);
+        }
+    }
+
+    private void acquire(Semaphore semaphore, URL url) throws IOException {
+        try {
+            if (!semaphore.tryAcquire(downloadTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for a connection to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+    }
+
+    private void leave(String host) {
+        // the last download of a host drops its permits, so hosts seen once do not pile up
+        hostPermits.computeIfPresent(host, (key, permits) -> --permits.users == 0 ? null : permits);
+    }
+
+    private byte[] download(URI uri, long deadline) throws IOException, LabelDetector.LabelDetectorException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("Accept", "image/*")
+                .GET()
+                .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + uri);
+        }
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.increment();
+        }
+        // closing the body before reading it all aborts the transfer
+        try (InputStream stream = response.body()) {
+            checkResponse(response);
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (contentLength > maxBytes) {
+                throw new LabelDetector.InvalidImageSizeException("Image size " + contentLength + " exceeds the maximum of " + maxBytes + " bytes");
+            }
+            long remaining = deadline - System.nanoTime();
+            ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> closeQuietly(stream), remaining, TimeUnit.NANOSECONDS);
+            try {
+                return readBounded(stream, contentLength, maxBytes, deadline, true);
+            } catch (IOException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new SocketTimeoutException("Image download exceeded its deadline");
+                }
+                throw e;
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private static void checkResponse(HttpResponse<?> response) throws IOException, LabelDetector.LabelDetectorException {
+        int status = response.statusCode();
+        if (status >= 400) {
+            throw new IOException("Server returned HTTP status " + status + " for " + response.uri());
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (contentType != null && !isImageContentType(contentType)) {
+            throw new LabelDetector.ImageFormatException("Unsupported content type: " + contentType);
+        }
+    }
+
+    private static URI toURI(URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid image url: " + url, e);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // the download fails on its own
+        }
+    }
+
+    static boolean isImageContentType(String contentType) {
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        return mediaType.startsWith("image/")
+                || mediaType.equals("application/octet-stream")
+                || mediaType.equals("binary/octet-stream");
+    }
+
+    /**
+     * <p>
+     * This method reads a stream, failing as soon as it is longer than the given maximum.
+     * </p>
+     *
+     * @param stream        the stream to read.
+     * @param contentLength the announced length of the stream, or -1 if unknown.
+     * @param maxBytes      the maximum number of bytes to read.
+     * @return the bytes of the stream.
+     * @throws LabelDetector.InvalidImageSizeException if the stream is longer than maxBytes.
+     */
+    public static byte[] readBounded(InputStream stream, long contentLength, int maxBytes) throws IOException, LabelDetector.LabelDetectorException {
+        return readBounded(stream, contentLength, maxBytes, NO_DEADLINE, false);
+    }
+
+    /**
+     * <p>
+     * This method reads an image from a stream, failing as soon as it is longer than the given maximum or its first
+     * bytes are not the header of a JPEG or PNG image.
+     * </p>
+     *
+     * @param stream        the stream to read.
+     * @param contentLength the announced length of the stream, or -1 if unknown.
+     * @param maxBytes      the maximum number of bytes to read.
+     * @return the bytes of the image.
+     * @throws LabelDetector.InvalidImageSizeException if the stream is longer than maxBytes.
+     * @throws LabelDetector.ImageFormatException if the stream is not a JPEG or PNG image, see {@link ImageSignature}.
+     */
+    public static byte[] readImage(InputStream stream, long contentLength, int maxBytes) throws IOException, LabelDetector.LabelDetectorException {
+        return readBounded(stream, contentLength, maxBytes, NO_DEADLINE, true);
+    }
+
+    private static byte[] readBounded(InputStream stream, long contentLength, int maxBytes, long deadline, boolean image) throws IOException, LabelDetector.LabelDetectorException {
+        if (contentLength > maxBytes) {
+            throw new LabelDetector.InvalidImageSizeException("Image size of " + contentLength + " bytes exceeds the maximum of " + maxBytes + " bytes");
+        }
+        // a known length is read in place, otherwise the buffer grows as data comes
+        byte[] buffer = new byte[contentLength >= 0 ? (int) contentLength : BUFFER_SIZE];
+        int length = 0;
+        // an image is checked until its header is known to be valid
+        boolean checked = !image;
+        while (true) {
+            if (length == buffer.length) {
+                if (contentLength >= 0) {
+                    // the whole announced content is read, the stream should be over
+                    if (stream.read() < 0) {
+                        return complete(buffer, checked);
+                    }
+                    throw new LabelDetector.InvalidImageSizeException("Image is longer than its announced size of " + contentLength + " bytes");
+                }
+                if (buffer.length >= maxBytes) {
+                    if (stream.read() < 0) {
+                        return complete(buffer, checked);
+                    }
+                    throw new LabelDetector.InvalidImageSizeException("Image exceeds the maximum of " + maxBytes + " bytes");
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxBytes));
+            }
+            int read = stream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                return complete(length == buffer.length ? buffer : Arrays.copyOf(buffer, length), checked);
+            }
+            length += read;
+            if (!checked) {
+                // a page or another format is rejected from its first bytes, without reading the rest
+                checked = ImageSignature.check(buffer, length);
+            }
+            if (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+                throw new SocketTimeoutException("Image download exceeded its deadline");
+            }
+        }
+    }
+
+    private static byte[] complete(byte[] bytes, boolean checked) throws LabelDetector.ImageFormatException {
+        if (!checked) {
+            // the image ended before its header could be told valid
+            ImageSignature.checkComplete(bytes, bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>
+     * This method returns the statistics of the downloads since the creation of the downloader.
+     * </p>
+     *
+     * @return the statistics of the downloads.
+     */
+    public Stats getStats() {
+        int active = 0;
+        int waiting = 0;
+        for (HostPermits permits : hostPermits.values()) {
+            active += maxConnectionsPerHost - permits.semaphore.availablePermits();
+            waiting += permits.semaphore.getQueueLength();
+        }
+        return new Stats(requests.sum(), http2Responses.sum(), bytesDownloaded.sum(), rejections.sum(), hostPermits.size(), active, waiting);
+    }
+
+    /**
+     * The download permits of a host, with the number of downloads holding or waiting for one, only changed inside
+     * the map so the permits are dropped when no download is left.
+     */
+    private static class HostPermits {
+        private final Semaphore semaphore;
+        private int users;
+
+        private HostPermits(int permits) {
+            this.semaphore = new Semaphore(permits);
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of an {@link ImageDownloader}.
+     * </p>
+     */
+    public static class Stats {
+        private final long requests;
+        private final long http2Responses;
+        private final long bytesDownloaded;
+        private final long rejections;
+        private final int hosts;
+        private final int activeDownloads;
+        private final int waitingDownloads;
+
+        private Stats(long requests, long http2Responses, long bytesDownloaded, long rejections, int hosts, int activeDownloads, int waitingDownloads) {
+            this.requests = requests;
+            this.http2Responses = http2Responses;
+            this.bytesDownloaded = bytesDownloaded;
+            this.rejections = rejections;
+            this.hosts = hosts;
+            this.activeDownloads = activeDownloads;
+            this.waitingDownloads = waitingDownloads;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getHttp2Responses() {
+            return http2Responses;
+        }
+
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        public long getRejections() {
+            return rejections;
+        }
+
+        public int getHosts() {
+            return hosts;
+        }
+
+        public int getActiveDownloads() {
+            return activeDownloads;
+        }
+
+        public int getWaitingDownloads() {
+            return waitingDownloads;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private int maxBytes = MAX_IMAGE_BYTES;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration readTimeout = Duration.ofSeconds(10);
+        private Duration downloadTimeout = Duration.ofSeconds(30);
+        private int maxConnectionsPerHost = 50;
+
+        public Builder withMaxBytes(int maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("Max bytes must be greater than 0");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withConnectTimeout(Duration connectTimeout) {
+            Objects.requireNonNull(connectTimeout);
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * The read timeout bounds the wait for the response headers, the body being bounded by the download timeout.
+         */
+        public Builder withReadTimeout(Duration readTimeout) {
+            Objects.requireNonNull(readTimeout);
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder withDownloadTimeout(Duration downloadTimeout) {
+            Objects.requireNonNull(downloadTimeout);
+            this.downloadTimeout = downloadTimeout;
+            return this;
+        }
+
+        public Builder withMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("Max connections per host must be greater than 0");
+            }
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public ImageDownloader build() {
+            return new ImageDownloader(this);
+        }
+    }
+}
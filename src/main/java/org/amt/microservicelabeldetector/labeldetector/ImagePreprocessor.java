@@ -0,0 +1,207 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Shrinks images before they are sent to Rekognition.
+ * </p>
+ * <p>
+ * Images larger than the maximum dimension are downscaled and re-encoded as JPEG, which barely changes the detected
+ * labels while dividing the upload size. Smaller images are kept as is unless they exceed the size Rekognition
+ * accepts. Images that cannot be decoded, or whose re-encoding is not smaller, are left untouched for Rekognition to
+ * judge.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class ImagePreprocessor {
+    private final int maxDimension;
+    private final float quality;
+
+    private final LongAdder images = new LongAdder();
+    private final LongAdder reencodedImages = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    private ImagePreprocessor(int maxDimension, float quality) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+    }
+
+    /**
+     * <p>
+     * This method shrinks the given image if needed.
+     * </p>
+     *
+     * @param image the bytes of the image.
+     * @return the bytes of the image to send to Rekognition.
+     */
+    public byte[] process(byte[] image) {
+        long start = System.nanoTime();
+        byte[] processed = image;
+        try {
+            processed = shrink(image);
+        } catch (IOException | RuntimeException e) {
+            // left to Rekognition, which reports the invalid images
+        }
+        images.increment();
+        bytesIn.add(image.length);
+        bytesOut.add(processed.length);
+        if (processed != image) {
+            reencodedImages.increment();
+        }
+        nanos.add(System.nanoTime() - start);
+        return processed;
+    }
+
+    private byte[] shrink(byte[] image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return image;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int largest = Math.max(width, height);
+                if (largest <= maxDimension && image.length <= ImageDownloader.MAX_IMAGE_BYTES) {
+                    return image;
+                }
+                // subsampling while decoding saves most of the decoding work, the exact size is set when scaling
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, largest / maxDimension);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                byte[] encoded = encode(scale(decoded, Math.min(1.0, (double) maxDimension / Math.max(decoded.getWidth(), decoded.getHeight()))));
+                return encoded.length < image.length ? encoded : image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, double ratio) {
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        // JPEG has no alpha channel, transparent pixels are drawn over white
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * <p>
+     * This method returns the statistics of the preprocessing since the creation of the preprocessor.
+     * </p>
+     *
+     * @return the statistics of the preprocessing.
+     */
+    public Stats getStats() {
+        return new Stats(images.sum(), reencodedImages.sum(), bytesIn.sum() - bytesOut.sum(), nanos.sum());
+    }
+
+    /**
+     * <p>
+     * Statistics of an {@link ImagePreprocessor}.
+     * </p>
+     */
+    public static class Stats {
+        private final long images;
+        private final long reencodedImages;
+        private final long bytesSaved;
+        private final long nanos;
+
+        private Stats(long images, long reencodedImages, long bytesSaved, long nanos) {
+            this.images = images;
+            this.reencodedImages = reencodedImages;
+            this.bytesSaved = bytesSaved;
+            this.nanos = nanos;
+        }
+
+        public long getImages() {
+            return images;
+        }
+
+        public long getReencodedImages() {
+            return reencodedImages;
+        }
+
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private int maxDimension = 1600;
+        private float quality = 0.85f;
+
+        public Builder withMaxDimension(int maxDimension) {
+            if (maxDimension < 80) {
+                // Rekognition does not accept images smaller than 80 pixels
+                throw new IllegalArgumentException("Max dimension must be at least 80 pixels");
+            }
+            this.maxDimension = maxDimension;
+            return this;
+        }
+
+        public Builder withQuality(float quality) {
+            if (quality <= 0 || quality > 1) {
+                throw new IllegalArgumentException("Quality must be between 0 and 1");
+            }
+            this.quality = quality;
+            return this;
+        }
+
+        public ImagePreprocessor build() {
+            return new ImagePreprocessor(maxDimension, quality);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+/**
+ * <p>
+ * Validation of the first bytes of an image, before it is sent to Rekognition.
+ * </p>
+ * <p>
+ * Rekognition only accepts JPEG and PNG images, anything else, such as the HTML page of a broken url, is only rejected
+ * after a full download and upload. The signature and the dimensions are in the header of both formats: the IHDR chunk
+ * right after the PNG signature, the frame header of a JPEG after its metadata segments. They are checked as the
+ * bytes come, so a download can be aborted after its first chunk.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public final class ImageSignature {
+    /**
+     * Maximum number of pixels of an image, larger ones being decompression bombs rather than photos
+     */
+    public static final long MAX_PIXELS = 200_000_000L;
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    // signature, length and type of the IHDR chunk, then its width and height
+    private static final int PNG_HEADER_BYTES = 24;
+
+    private ImageSignature() {
+    }
+
+    /**
+     * <p>
+     * This method checks the header of an image, given its first bytes.
+     * </p>
+     *
+     * @param image  the bytes of the image read so far.
+     * @param length the number of bytes read so far.
+     * @return true if the header is valid, false if more bytes are needed to tell.
+     * @throws LabelDetector.ImageFormatException if the bytes are not a JPEG or PNG header with plausible dimensions.
+     */
+    public static boolean check(byte[] image, int length) throws LabelDetector.ImageFormatException {
+        if (startsWith(image, length, PNG)) {
+            return length >= PNG.length && checkPng(image, length);
+        }
+        if (startsWith(image, length, JPEG)) {
+            return length >= JPEG.length && checkJpeg(image, length);
+        }
+        throw new LabelDetector.ImageFormatException("Unsupported image format, " + describe(image, length) + " is neither JPEG nor PNG");
+    }
+
+    /**
+     * <p>
+     * This method checks the header of a whole image.
+     * </p>
+     *
+     * @param image  the bytes of the image.
+     * @param length the length of the image.
+     * @throws LabelDetector.ImageFormatException if the image is not a JPEG or PNG image with plausible dimensions,
+     *                                            or ends before its dimensions.
+     */
+    public static void checkComplete(byte[] image, int length) throws LabelDetector.ImageFormatException {
+        if (length == 0) {
+            throw new LabelDetector.ImageFormatException("Image is empty");
+        }
+        if (!check(image, length)) {
+            throw new LabelDetector.ImageFormatException("Image is truncated before its dimensions");
+        }
+    }
+
+    private static boolean checkPng(byte[] image, int length) throws LabelDetector.ImageFormatException {
+        if (length < PNG_HEADER_BYTES) {
+            return false;
+        }
+        if (image[12] != 'I' || image[13] != 'H' || image[14] != 'D' || image[15] != 'R') {
+            throw new LabelDetector.ImageFormatException("PNG image does not start with its header chunk");
+        }
+        checkDimensions(readInt(image, 16), readInt(image, 20));
+        return true;
+    }
+
+    private static boolean checkJpeg(byte[] image, int length) throws LabelDetector.ImageFormatException {
+        int position = 2;
+        while (true) {
+            // markers may be preceded by fill bytes
+            while (position + 1 < length && (image[position] & 0xFF) == 0xFF && (image[position + 1] & 0xFF) == 0xFF) {
+                position++;
+            }
+            if (position + 1 >= length) {
+                return false;
+            }
+            if ((image[position] & 0xFF) != 0xFF) {
+                throw new LabelDetector.ImageFormatException("JPEG image has a corrupt segment at byte " + position);
+            }
+            int marker = image[position + 1] & 0xFF;
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without a segment
+                position += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                throw new LabelDetector.ImageFormatException("JPEG image has no frame header");
+            }
+            if (position + 3 >= length) {
+                return false;
+            }
+            int segmentLength = readShort(image, position + 2);
+            if (segmentLength < 2) {
+                throw new LabelDetector.ImageFormatException("JPEG image has a corrupt segment at byte " + position);
+            }
+            if (isStartOfFrame(marker)) {
+                if (position + 8 >= length) {
+                    return false;
+                }
+                checkDimensions(readShort(image, position + 7), readShort(image, position + 5));
+                return true;
+            }
+            position += 2 + segmentLength;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // C4, C8 and CC share the range but are tables and extensions
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static void checkDimensions(long width, long height) throws LabelDetector.ImageFormatException {
+        if (width < 1 || height < 1) {
+            throw new LabelDetector.ImageFormatException("Image has invalid dimensions " + width + "x" + height);
+        }
+        if (width > MAX_PIXELS || height > MAX_PIXELS || width * height > MAX_PIXELS) {
+            throw new LabelDetector.ImageFormatException("Image dimensions " + width + "x" + height + " exceed the maximum of " + MAX_PIXELS + " pixels");
+        }
+    }
+
+    private static boolean startsWith(byte[] image, int length, byte[] signature) {
+        for (int i = 0; i < Math.min(length, signature.length); i++) {
+            if (image[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String describe(byte[] image, int length) {
+        if (length >= 4 && image[0] == 'G' && image[1] == 'I' && image[2] == 'F' && image[3] == '8') {
+            return "GIF";
+        }
+        if (length >= 12 && image[0] == 'R' && image[1] == 'I' && image[2] == 'F' && image[3] == 'F'
+                && image[8] == 'W' && image[9] == 'E' && image[10] == 'B' && image[11] == 'P') {
+            return "WebP";
+        }
+        if (length >= 2 && image[0] == 'B' && image[1] == 'M') {
+            return "BMP";
+        }
+        if (length >= 4 && ((image[0] == 'I' && image[1] == 'I' && image[2] == 42 && image[3] == 0)
+                || (image[0] == 'M' && image[1] == 'M' && image[2] == 0 && image[3] == 42))) {
+            return "TIFF";
+        }
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(image[i])) {
+                return image[i] == '<' ? "markup such as an HTML page" : "the content";
+            }
+        }
+        return "the content";
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static long readInt(byte[] bytes, int offset) {
+        return (long) readShort(bytes, offset) << 16 | readShort(bytes, offset + 2);
+    }
+}
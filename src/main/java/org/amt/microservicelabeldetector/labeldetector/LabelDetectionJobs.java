@@ -0,0 +1,377 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Runs label detections as jobs, so that a client gets an id at once and fetches the result later instead of holding
+ * its request open during the detection.
+ * </p>
+ * <p>
+ * Jobs run on a fixed pool of workers over a bounded queue: once the queue is full, new jobs are rejected with a
+ * {@link LabelDetector.TooManyRequestsException} rather than queued for longer than any client would wait. Completed
+ * jobs are retained for a while to be fetched, then forgotten, the oldest first when too many are retained. A listener
+ * can be notified of each completed job, from the worker that ran it.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LabelDetectionJobs implements AutoCloseable {
+    public enum State {
+        /** waiting for a worker */
+        PENDING,
+        /** detecting the labels */
+        RUNNING,
+        /** completed with a result */
+        SUCCEEDED,
+        /** completed with an exception */
+        FAILED
+    }
+
+    private final LabelDetector labelDetector;
+    private final ThreadPoolExecutor executor;
+    private final Duration retention;
+    private final int maxRetained;
+    private final CompletionListener listener;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    // completed jobs in completion order, guarded by itself
+    private final Deque<Job> completed = new ArrayDeque<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    private LabelDetectionJobs(Builder builder) {
+        this.labelDetector = builder.labelDetector;
+        this.retention = builder.retention;
+        this.maxRetained = builder.maxRetained;
+        this.listener = builder.listener;
+        AtomicInteger workers = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(builder.threads, builder.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder.maxQueueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "label-detection-job-" + workers.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * <p>
+     * This method queues the detection of the labels on the image located at the given url.
+     * </p>
+     *
+     * @param imageURL      the url of the image.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @param callback      the url to notify on completion, or null.
+     * @return the queued job.
+     * @throws LabelDetector.TooManyRequestsException if the queue is full.
+     */
+    public Job submit(URL imageURL, int maxLabels, float minConfidence, URI callback) throws LabelDetector.TooManyRequestsException {
+        Objects.requireNonNull(imageURL);
+        return submit(imageURL.toString(), () -> labelDetector.detectLabels(imageURL, maxLabels, minConfidence), callback);
+    }
+
+    /**
+     * <p>
+     * This method queues the detection of the labels on an image stored in a dataObject.
+     * </p>
+     *
+     * @param dataObject    the dataObject where the image is stored.
+     * @param key           the key of the image.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @param callback      the url to notify on completion, or null.
+     * @return the queued job.
+     * @throws LabelDetector.TooManyRequestsException if the queue is full.
+     */
+    public Job submit(String dataObject, String key, int maxLabels, float minConfidence, URI callback) throws LabelDetector.TooManyRequestsException {
+        Objects.requireNonNull(dataObject);
+        Objects.requireNonNull(key);
+        return submit(key, () -> labelDetector.detectLabels(dataObject, key, maxLabels, minConfidence), callback);
+    }
+
+    private Job submit(String image, Detection detection, URI callback) throws LabelDetector.TooManyRequestsException {
+        purge();
+        Job job = new Job(UUID.randomUUID().toString(), image, callback);
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job, detection));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            rejected.increment();
+            throw new LabelDetector.TooManyRequestsException("The job queue is full");
+        }
+        submitted.increment();
+        return job;
+    }
+
+    private void run(Job job, Detection detection) {
+        job.startedAt = Instant.now();
+        job.state = State.RUNNING;
+        try {
+            job.result = detection.detect();
+            job.completedAt = Instant.now();
+            job.state = State.SUCCEEDED;
+        } catch (Exception e) {
+            job.exception = e;
+            job.completedAt = Instant.now();
+            job.state = State.FAILED;
+        }
+        synchronized (completed) {
+            completed.addLast(job);
+        }
+        if (listener != null) {
+            try {
+                listener.onCompletion(job);
+            } catch (RuntimeException e) {
+                // the job is completed whatever happens to its notification
+            }
+        }
+    }
+
+    /**
+     * @param id the id of the job.
+     * @return the job, or null if it is unknown or expired.
+     */
+    public Job get(String id) {
+        purge();
+        return jobs.get(id);
+    }
+
+    private void purge() {
+        Instant expiry = Instant.now().minus(retention);
+        synchronized (completed) {
+            while (!completed.isEmpty()
+                    && (completed.size() > maxRetained || completed.peekFirst().completedAt.isBefore(expiry))) {
+                jobs.remove(completed.removeFirst().id);
+                expired.increment();
+            }
+        }
+    }
+
+    public Stats getStats() {
+        int retained;
+        synchronized (completed) {
+            retained = completed.size();
+        }
+        return new Stats(submitted.sum(), rejected.sum(), expired.sum(), executor.getQueue().size(), executor.getActiveCount(), retained);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * <p>
+     * A label detection job, updated by the worker running it.
+     * </p>
+     */
+    public static class Job {
+        private final String id;
+        private final String image;
+        private final URI callback;
+        private final Instant createdAt = Instant.now();
+        private volatile Instant startedAt;
+        private volatile Instant completedAt;
+        private volatile LabelDetectorResult result;
+        private volatile Exception exception;
+        // written last, so the fields above are visible once it is read as completed
+        private volatile State state = State.PENDING;
+
+        private Job(String id, String image, URI callback) {
+            this.id = id;
+            this.image = image;
+            this.callback = callback;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the url or the key of the image.
+         */
+        public String getImage() {
+            return image;
+        }
+
+        /**
+         * @return the url to notify on completion, or null.
+         */
+        public URI getCallback() {
+            return callback;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getCompletedAt() {
+            return completedAt;
+        }
+
+        /**
+         * @return the result of a succeeded job, or null.
+         */
+        public LabelDetectorResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return the exception of a failed job, or null.
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * <p>
+     * Listener of the completed jobs.
+     * </p>
+     */
+    @FunctionalInterface
+    public interface CompletionListener {
+        /**
+         * @param job the succeeded or failed job.
+         */
+        void onCompletion(Job job);
+    }
+
+    @FunctionalInterface
+    private interface Detection {
+        LabelDetectorResult detect() throws Exception;
+    }
+
+    /**
+     * <p>
+     * Statistics of the {@link LabelDetectionJobs}.
+     * </p>
+     */
+    public static class Stats {
+        private final long submitted;
+        private final long rejected;
+        private final long expired;
+        private final int queued;
+        private final int running;
+        private final int retained;
+
+        private Stats(long submitted, long rejected, long expired, int queued, int running, int retained) {
+            this.submitted = submitted;
+            this.rejected = rejected;
+            this.expired = expired;
+            this.queued = queued;
+            this.running = running;
+            this.retained = retained;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getExpired() {
+            return expired;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * @return the number of completed jobs retained.
+         */
+        public int getRetained() {
+            return retained;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private final LabelDetector labelDetector;
+        private int threads = 16;
+        private int maxQueueSize = 1000;
+        private Duration retention = Duration.ofHours(1);
+        private int maxRetained = 100_000;
+        private CompletionListener listener;
+
+        public Builder(LabelDetector labelDetector) {
+            Objects.requireNonNull(labelDetector);
+            this.labelDetector = labelDetector;
+        }
+
+        public Builder withThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be greater than 0");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Jobs submitted while the queue holds this many pending jobs are rejected.
+         */
+        public Builder withMaxQueueSize(int maxQueueSize) {
+            if (maxQueueSize < 1) {
+                throw new IllegalArgumentException("Max queue size must be greater than 0");
+            }
+            this.maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        /**
+         * Completed jobs are forgotten after the retention, or sooner once more than the maximum are retained.
+         */
+        public Builder withRetention(Duration retention, int maxRetained) {
+            Objects.requireNonNull(retention);
+            if (maxRetained < 0) {
+                throw new IllegalArgumentException("Max retained must not be negative");
+            }
+            this.retention = retention;
+            this.maxRetained = maxRetained;
+            return this;
+        }
+
+        public Builder withCompletionListener(CompletionListener listener) {
+            Objects.requireNonNull(listener);
+            this.listener = listener;
+            return this;
+        }
+
+        public LabelDetectionJobs build() {
+            return new LabelDetectionJobs(this);
+        }
+    }
+}
@@ -113,4 +113,13 @@ public interface LabelDetector {
             super(message);
         }
     }
+
+    /**
+     * The service did not answer in time, which unlike a throttling is not retried nor taken as a sign to slow down.
+     */
+    class ServiceTimeoutException extends LabelDetectorException {
+        public ServiceTimeoutException(String message) {
+            super(message);
+        }
+    }
 }
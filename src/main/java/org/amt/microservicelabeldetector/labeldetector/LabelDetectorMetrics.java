@@ -0,0 +1,291 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Records where the time of a label detection goes, the size of the images and the errors.
+ * </p>
+ * <p>
+ * Each phase of a detection has its own timer, {@code labeldetector.phase} tagged with the phase, so our own
+ * slowness can be told apart from Rekognition's. Image sizes are recorded by {@code labeldetector.image.bytes}, as
+ * received and as sent to Rekognition, and errors are counted by {@code labeldetector.errors}, tagged with the
+ * exception type. The state of the cache, disk store, downloader, preprocessor, concurrency limiter, circuit breaker,
+ * regions, jobs and local backend can be bound as gauges, as can the report of the warm-up.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LabelDetectorMetrics {
+    public enum Phase {
+        /** download of the image given by url */
+        DOWNLOAD,
+        /** preprocessing and perceptual hash of an image missing from the cache, when near-duplicates are reused */
+        HASH,
+        /** preprocessing of the image and build of the Rekognition request */
+        PAYLOAD,
+        /** call to Rekognition */
+        REKOGNITION,
+        /** run of the local model, waiting for the batch included */
+        INFERENCE,
+        /** mapping of the Rekognition response to the result */
+        MAPPING,
+        /** serialization of the result to the response */
+        SERIALIZATION
+    }
+
+    private final MeterRegistry registry;
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+    private final DistributionSummary receivedBytes;
+    private final DistributionSummary sentBytes;
+
+    public LabelDetectorMetrics(MeterRegistry registry) {
+        Objects.requireNonNull(registry);
+        this.registry = registry;
+        for (Phase phase : Phase.values()) {
+            timers.put(phase, Timer.builder("labeldetector.phase")
+                    .description("Time spent in each phase of a label detection")
+                    .tag("phase", phase.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        this.receivedBytes = imageBytes("received");
+        this.sentBytes = imageBytes("sent");
+    }
+
+    private DistributionSummary imageBytes(String stage) {
+        return DistributionSummary.builder("labeldetector.image.bytes")
+                .description("Size of the images, as received and as sent to Rekognition")
+                .baseUnit("bytes")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    /**
+     * <p>
+     * This method records the time of a phase started at the given instant.
+     * </p>
+     *
+     * @param phase      the phase.
+     * @param startNanos the {@link System#nanoTime()} at the start of the phase.
+     */
+    public void record(Phase phase, long startNanos) {
+        timers.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param bytes the size of an image received by the service.
+     */
+    public void recordReceivedImage(int bytes) {
+        receivedBytes.record(bytes);
+    }
+
+    /**
+     * @param bytes the size of an image sent to Rekognition.
+     */
+    public void recordSentImage(int bytes) {
+        sentBytes.record(bytes);
+    }
+
+    /**
+     * <p>
+     * This method counts an error by its type.
+     * </p>
+     *
+     * @param e the error.
+     */
+    public void recordError(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        Counter.builder("labeldetector.errors")
+                .description("Errors of the label detections by type")
+                .tag("exception", e.getClass().getSimpleName())
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * <p>
+     * This method counts the notification of a completed job to its callback url.
+     * </p>
+     *
+     * @param delivered whether the callback accepted the notification, possibly after retries.
+     */
+    public void recordWebhook(boolean delivered) {
+        Counter.builder("labeldetector.jobs.webhooks")
+                .description("Notifications of completed jobs to their callback url")
+                .tag("result", delivered ? "delivered" : "failed")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param hedging the multi-region detector whose hedges and regional latencies and error rates are exposed.
+     */
+    public void bindHedging(HedgingLabelDetector hedging) {
+        FunctionCounter.builder("labeldetector.hedging.calls", hedging, h -> h.getStats().getHedgedCalls())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.hedging.wins", hedging, h -> h.getStats().getHedgeWins())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.hedging.budget.rejections", hedging, h -> h.getStats().getBudgetRejections())
+                .register(registry);
+        List<HedgingLabelDetector.RegionStats> regions = hedging.getStats().getRegions();
+        for (int i = 0; i < regions.size(); i++) {
+            int index = i;
+            Gauge.builder("labeldetector.region.latency", hedging, h -> h.getStats().getRegions().get(index).getLatency().toNanos() / 1e9)
+                    .tag("region", regions.get(i).getName())
+                    .baseUnit("seconds")
+                    .register(registry);
+            Gauge.builder("labeldetector.region.error.rate", hedging, h -> h.getStats().getRegions().get(index).getErrorRate())
+                    .tag("region", regions.get(i).getName())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * @param detector the local detector whose inferences, batches and queue are exposed.
+     */
+    public void bindLocalLabelDetector(LocalLabelDetector detector) {
+        FunctionCounter.builder("labeldetector.local.inferences", detector, d -> d.getStats().getInferences())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.local.batches", detector, d -> d.getStats().getBatches())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.local.rejections", detector, d -> d.getStats().getRejections())
+                .register(registry);
+        Gauge.builder("labeldetector.local.queue.size", detector, d -> d.getStats().getQueued())
+                .register(registry);
+        Gauge.builder("labeldetector.local.sessions", detector, d -> d.getStats().getSessions())
+                .register(registry);
+    }
+
+    /**
+     * @param report the report of the warm-up run before the service took traffic, exposed with its duration.
+     */
+    public void bindWarmUp(LabelDetectorWarmUp.Report report) {
+        Gauge.builder("labeldetector.warmup.duration", report, r -> r.getDuration().toNanos() / 1e9)
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("labeldetector.warmup.failures", report, LabelDetectorWarmUp.Report::getFailures)
+                .register(registry);
+    }
+
+    /**
+     * @param jobs the jobs whose queue, workers and retained results are exposed.
+     */
+    public void bindJobs(LabelDetectionJobs jobs) {
+        FunctionCounter.builder("labeldetector.jobs.submitted", jobs, j -> j.getStats().getSubmitted())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.jobs.rejections", jobs, j -> j.getStats().getRejected())
+                .register(registry);
+        Gauge.builder("labeldetector.jobs.queued", jobs, j -> j.getStats().getQueued())
+                .register(registry);
+        Gauge.builder("labeldetector.jobs.running", jobs, j -> j.getStats().getRunning())
+                .register(registry);
+        Gauge.builder("labeldetector.jobs.retained", jobs, j -> j.getStats().getRetained())
+                .register(registry);
+    }
+
+    /**
+     * @param cache the cache whose hits, misses and size are exposed.
+     */
+    public void bindCache(CachingLabelDetector cache) {
+        FunctionCounter.builder("labeldetector.cache.requests", cache, c -> c.getStats().getHitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("labeldetector.cache.requests", cache, c -> c.getStats().getMissCount())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("labeldetector.cache.evictions", cache, c -> c.getStats().getEvictionCount())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.cache.nearduplicate.hits", cache, c -> c.getStats().getNearDuplicateHitCount())
+                .register(registry);
+        Gauge.builder("labeldetector.cache.size", cache, c -> c.getStats().getSize())
+                .register(registry);
+    }
+
+    /**
+     * @param store the disk store whose hits, misses, size and compactions are exposed.
+     */
+    public void bindResultStore(DiskResultStore store) {
+        FunctionCounter.builder("labeldetector.store.requests", store, s -> s.getStats().getHitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("labeldetector.store.requests", store, s -> s.getStats().getMissCount())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("labeldetector.store.compactions", store, s -> s.getStats().getCompactionCount())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.store.compaction.failures", store, s -> s.getStats().getCompactionFailureCount())
+                .register(registry);
+        Gauge.builder("labeldetector.store.size", store, s -> s.getStats().getSize())
+                .register(registry);
+        Gauge.builder("labeldetector.store.bytes", store, s -> s.getStats().getBytes())
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * @param imageDownloader the downloader whose downloads are exposed.
+     */
+    public void bindImageDownloader(ImageDownloader imageDownloader) {
+        Gauge.builder("labeldetector.download.active", imageDownloader, d -> d.getStats().getActiveDownloads())
+                .register(registry);
+        Gauge.builder("labeldetector.download.waiting", imageDownloader, d -> d.getStats().getWaitingDownloads())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.download.rejections", imageDownloader, d -> d.getStats().getRejections())
+                .register(registry);
+    }
+
+    /**
+     * @param imagePreprocessor the preprocessor whose work is exposed.
+     */
+    public void bindImagePreprocessor(ImagePreprocessor imagePreprocessor) {
+        FunctionCounter.builder("labeldetector.preprocessing.images", imagePreprocessor, p -> p.getStats().getImages())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.preprocessing.reencoded", imagePreprocessor, p -> p.getStats().getReencodedImages())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.preprocessing.saved", imagePreprocessor, p -> p.getStats().getBytesSaved())
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("labeldetector.preprocessing.time", imagePreprocessor, p -> p.getStats().getNanos() / 1e9)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * @param concurrencyLimiter the limiter of the calls to Rekognition whose state is exposed.
+     */
+    public void bindConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        Gauge.builder("labeldetector.rekognition.limit", concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .register(registry);
+        Gauge.builder("labeldetector.rekognition.inflight", concurrencyLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .register(registry);
+        Gauge.builder("labeldetector.rekognition.queue.depth", concurrencyLimiter, AdaptiveConcurrencyLimiter::getQueueDepth)
+                .register(registry);
+    }
+
+    /**
+     * @param circuitBreaker the circuit breaker whose state is exposed, 0 when closed, 1 when open, 2 when half open.
+     */
+    public void bindCircuitBreaker(CircuitBreakerLabelDetector circuitBreaker) {
+        Gauge.builder("labeldetector.circuitbreaker.state", circuitBreaker, c -> c.getStatus().getState().ordinal())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.circuitbreaker.rejections", circuitBreaker, c -> c.getStatus().getRejectedCalls())
+                .register(registry);
+        FunctionCounter.builder("labeldetector.bulkhead.rejections", circuitBreaker, c -> c.getStatus().getBulkheadRejectedCalls())
+                .register(registry);
+    }
+}
@@ -27,4 +27,14 @@ public interface LabelDetectorResult {
      */
     int getNbLabels();
 
+    /**
+     * <p>
+     *     This method returns the subset of this result matching narrower detection parameters.
+     * </p>
+     * @param maxLabels     the number of labels to keep, at most.
+     * @param minConfidence the minimum confidence level to keep a label.
+     * @return     the labels of this result with at least minConfidence, the most confident first.
+     */
+    LabelDetectorResult filter(int maxLabels, float minConfidence);
+
 }
\ No newline at end of file
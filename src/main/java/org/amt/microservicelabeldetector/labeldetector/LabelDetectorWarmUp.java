@@ -0,0 +1,417 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Image;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.Parent;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Pays the cold start of the service before it takes traffic, rather than on the first requests.
+ * </p>
+ * <p>
+ * The credentials are resolved once, so that the providers cache them, and each Rekognition client opens a number of
+ * connections, by sending that many concurrent requests whose single byte is not an image. Rekognition rejects them
+ * without running a detection, but the connections, their TLS sessions and the signing are then ready. The images of
+ * the hottest origins are downloaded to open their connections too, then the preprocessing, the hash, the mapping of
+ * a response and the serialization of a result run a number of times on them, or on a generated image, so that the
+ * JIT compiles these paths. With the local backend, the images also run through the model, which gets its sessions
+ * to allocate their buffers.
+ * </p>
+ * <p>
+ * A step failing is counted and the next one goes on, the whole warm-up being bounded by a timeout: the service must
+ * start even when AWS or an origin is unreachable.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LabelDetectorWarmUp {
+    private static final byte[] NOT_AN_IMAGE = {0};
+    private static final int GENERATED_WIDTH = 2048;
+    private static final int GENERATED_HEIGHT = 1536;
+    private static final int SYNTHETIC_LABELS = 20;
+    // mapping and serialization are cheap and run in Java only, they need more runs than the codecs to get compiled
+    private static final int MAPPINGS_PER_ITERATION = 100;
+
+    private final AwsCredentialsProvider credentialsProvider;
+    private final List<RekognitionClient> rekognitionClients;
+    private final int connections;
+    private final ImageDownloader imageDownloader;
+    private final List<URL> imageOrigins;
+    private final ImagePreprocessor imagePreprocessor;
+    private final LocalLabelDetector localLabelDetector;
+    private final ResultWriter resultWriter;
+    private final int iterations;
+    private final Duration timeout;
+
+    private LabelDetectorWarmUp(Builder builder) {
+        this.credentialsProvider = builder.credentialsProvider;
+        this.rekognitionClients = List.copyOf(builder.rekognitionClients);
+        this.connections = builder.connections;
+        this.imageDownloader = builder.imageDownloader;
+        this.imageOrigins = List.copyOf(builder.imageOrigins);
+        this.imagePreprocessor = builder.imagePreprocessor;
+        this.localLabelDetector = builder.localLabelDetector;
+        this.resultWriter = builder.resultWriter;
+        this.iterations = builder.iterations;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * <p>
+     * This method runs the warm-up, returning once it is done or its timeout has passed.
+     * </p>
+     *
+     * @return the report of the warm-up.
+     */
+    public Report run() {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "warm-up-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Report report = new Report();
+        try {
+            if (credentialsProvider != null) {
+                report.credentialsResolved = step(executor, deadline, report, () -> {
+                    credentialsProvider.resolveCredentials();
+                    return true;
+                }) != null;
+            }
+            List<Callable<Boolean>> connects = new ArrayList<>();
+            for (RekognitionClient client : rekognitionClients) {
+                for (int i = 0; i < connections; i++) {
+                    connects.add(() -> callRekognition(client));
+                }
+            }
+            report.rekognitionConnections = steps(executor, deadline, report, connects).size();
+            List<Callable<byte[]>> downloads = new ArrayList<>();
+            if (imageDownloader != null) {
+                for (URL origin : imageOrigins) {
+                    for (int i = 0; i < connections; i++) {
+                        downloads.add(() -> imageDownloader.download(origin));
+                    }
+                }
+            }
+            List<byte[]> images = steps(executor, deadline, report, downloads);
+            report.downloads = images.size();
+            if (images.isEmpty()) {
+                images = List.of(generatedImage());
+            }
+            List<byte[]> samples = images;
+            Integer iterationsRun = step(executor, deadline, report, () -> exercise(samples, deadline));
+            report.iterations = iterationsRun == null ? 0 : iterationsRun;
+        } finally {
+            executor.shutdownNow();
+        }
+        report.duration = Duration.ofNanos(System.nanoTime() - start);
+        report.timedOut = System.nanoTime() - deadline >= 0;
+        return report;
+    }
+
+    /**
+     * @return whether the call reached Rekognition, which answers that a single byte is not an image.
+     */
+    private static boolean callRekognition(RekognitionClient client) {
+        try {
+            client.detectLabels(DetectLabelsRequest.builder()
+                    .image(Image.builder().bytes(SdkBytes.fromByteArrayUnsafe(NOT_AN_IMAGE)).build())
+                    .maxLabels(1)
+                    .build());
+        } catch (AwsServiceException e) {
+            // an answer of the service, the connection is open
+            if (e.statusCode() >= 500) {
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of iterations run over the paths of a detection, stopping early at the deadline.
+     */
+    private int exercise(List<byte[]> images, long deadline) throws IOException, LabelDetector.LabelDetectorException {
+        DetectLabelsResponse response = syntheticResponse();
+        int iteration = 0;
+        while (iteration < iterations && System.nanoTime() - deadline < 0) {
+            byte[] image = images.get(iteration % images.size());
+            byte[] processed = imagePreprocessor == null ? image : imagePreprocessor.process(image);
+            PerceptualHash.dHash(processed);
+            if (localLabelDetector != null) {
+                localLabelDetector.detectLabels(image, 10, 50);
+            }
+            for (int i = 0; i < MAPPINGS_PER_ITERATION; i++) {
+                AwsLabelDetectorHelperImpl.DetectLabelResult result = new AwsLabelDetectorHelperImpl.DetectLabelResult(response);
+                LabelDetectorResult filtered = result.filter(10, 50);
+                if (resultWriter != null) {
+                    resultWriter.write(result);
+                    resultWriter.write(filtered);
+                }
+            }
+            iteration++;
+        }
+        return iteration;
+    }
+
+    private static DetectLabelsResponse syntheticResponse() {
+        List<Label> labels = new ArrayList<>(SYNTHETIC_LABELS);
+        for (int i = 0; i < SYNTHETIC_LABELS; i++) {
+            labels.add(Label.builder()
+                    .name("Label " + i)
+                    .confidence(99f - i * 3)
+                    .parents(Parent.builder().name("Parent " + i % 4).build())
+                    .build());
+        }
+        return DetectLabelsResponse.builder().labels(labels).build();
+    }
+
+    /**
+     * @return a JPEG larger than the maximum dimension of the preprocessing, with some detail to encode.
+     */
+    static byte[] generatedImage() {
+        BufferedImage image = new BufferedImage(GENERATED_WIDTH, GENERATED_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < GENERATED_HEIGHT; y++) {
+            for (int x = 0; x < GENERATED_WIDTH; x++) {
+                image.setRGB(x, y, (x * 255 / GENERATED_WIDTH) << 16 | (y * 255 / GENERATED_HEIGHT) << 8 | ((x ^ y) & 0xFF));
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "jpg", bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static <T> T step(ExecutorService executor, long deadline, Report report, Callable<T> step) {
+        List<T> results = steps(executor, deadline, report, List.of(step));
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * @return the results of the steps done before the deadline, the others being counted as failures.
+     */
+    private static <T> List<T> steps(ExecutorService executor, long deadline, Report report, List<Callable<T>> steps) {
+        List<Future<T>> futures = new ArrayList<>(steps.size());
+        for (Callable<T> step : steps) {
+            futures.add(executor.submit(step));
+        }
+        List<T> results = new ArrayList<>(steps.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                report.failures++;
+            } catch (ExecutionException | TimeoutException e) {
+                future.cancel(true);
+                report.failures++;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Serializes a result as the responses do, such as with the object mapper of the service.
+     */
+    @FunctionalInterface
+    public interface ResultWriter {
+        void write(LabelDetectorResult result) throws IOException;
+    }
+
+    /**
+     * What the warm-up did, the steps failing or left at the timeout being counted as failures.
+     */
+    public static class Report {
+        private boolean credentialsResolved;
+        private int rekognitionConnections;
+        private int downloads;
+        private int iterations;
+        private int failures;
+        private boolean timedOut;
+        private Duration duration;
+
+        private Report() {
+        }
+
+        public boolean isCredentialsResolved() {
+            return credentialsResolved;
+        }
+
+        /**
+         * @return the number of calls to Rekognition answered by the service.
+         */
+        public int getRekognitionConnections() {
+            return rekognitionConnections;
+        }
+
+        public int getDownloads() {
+            return downloads;
+        }
+
+        /**
+         * @return the number of times the preprocessing and hash ran, the mapping and serialization running a hundred
+         * times each.
+         */
+        public int getIterations() {
+            return iterations;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return "credentials " + (credentialsResolved ? "resolved" : "not resolved")
+                    + ", " + rekognitionConnections + " Rekognition connections"
+                    + ", " + downloads + " downloads"
+                    + ", " + iterations + " iterations"
+                    + ", " + failures + " failures"
+                    + (timedOut ? ", timed out" : "")
+                    + " in " + duration.toMillis() + " ms";
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private AwsCredentialsProvider credentialsProvider;
+        private final List<RekognitionClient> rekognitionClients = new ArrayList<>();
+        private int connections = 4;
+        private ImageDownloader imageDownloader;
+        private final List<URL> imageOrigins = new ArrayList<>();
+        private ImagePreprocessor imagePreprocessor;
+        private LocalLabelDetector localLabelDetector;
+        private ResultWriter resultWriter;
+        private int iterations = 10;
+        private Duration timeout = Duration.ofSeconds(30);
+
+        public Builder withCredentialsProvider(AwsCredentialsProvider credentialsProvider) {
+            Objects.requireNonNull(credentialsProvider);
+            this.credentialsProvider = credentialsProvider;
+            return this;
+        }
+
+        public Builder withRekognitionClient(RekognitionClient rekognitionClient) {
+            Objects.requireNonNull(rekognitionClient);
+            this.rekognitionClients.add(rekognitionClient);
+            return this;
+        }
+
+        /**
+         * Adds the clients of the regions of the given detector, other than the ones already added.
+         */
+        public Builder withRegions(HedgingLabelDetector regions) {
+            Objects.requireNonNull(regions);
+            for (LabelDetector detector : regions.getRegionDetectors()) {
+                if (detector instanceof AwsLabelDetectorHelperImpl
+                        && !rekognitionClients.contains(((AwsLabelDetectorHelperImpl) detector).rekClient)) {
+                    rekognitionClients.add(((AwsLabelDetectorHelperImpl) detector).rekClient);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param connections the number of connections opened to each Rekognition client and image origin.
+         */
+        public Builder withConnections(int connections) {
+            if (connections < 1) {
+                throw new IllegalArgumentException("Connections must be greater than 0");
+            }
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * @param imageOrigins images of the hottest origins, downloaded to open connections to them.
+         */
+        public Builder withImageOrigins(ImageDownloader imageDownloader, List<URL> imageOrigins) {
+            Objects.requireNonNull(imageDownloader);
+            Objects.requireNonNull(imageOrigins);
+            this.imageDownloader = imageDownloader;
+            this.imageOrigins.addAll(imageOrigins);
+            return this;
+        }
+
+        public Builder withImagePreprocessor(ImagePreprocessor imagePreprocessor) {
+            Objects.requireNonNull(imagePreprocessor);
+            this.imagePreprocessor = imagePreprocessor;
+            return this;
+        }
+
+        public Builder withLocalLabelDetector(LocalLabelDetector localLabelDetector) {
+            Objects.requireNonNull(localLabelDetector);
+            this.localLabelDetector = localLabelDetector;
+            return this;
+        }
+
+        public Builder withResultWriter(ResultWriter resultWriter) {
+            Objects.requireNonNull(resultWriter);
+            this.resultWriter = resultWriter;
+            return this;
+        }
+
+        /**
+         * @param iterations the number of times the preprocessing and hash of an image run, 0 to skip the paths of a
+         *                   detection.
+         */
+        public Builder withIterations(int iterations) {
+            if (iterations < 0) {
+                throw new IllegalArgumentException("Iterations must not be negative");
+            }
+            this.iterations = iterations;
+            return this;
+        }
+
+        public Builder withTimeout(Duration timeout) {
+            Objects.requireNonNull(timeout);
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("Timeout must be positive");
+            }
+            this.timeout = timeout;
+            return this;
+        }
+
+        public LabelDetectorWarmUp build() {
+            return new LabelDetectorWarmUp(this);
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Label;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Implementation of {@link LabelDetector} classifying the images on the CPU with an ONNX model, without calling AWS.
+ * </p>
+ * <p>
+ * The model takes a batch of images as a float tensor of shape [batch, 3, height, width] and returns one score per
+ * label of its vocabulary, a text file with the name of the label of each output on its own line. The scores are
+ * turned into probabilities when the model returns logits, and into the confidences between 0 and 100 of the
+ * labels of a Rekognition result, so the cache, the store and the serializer handle both backends alike.
+ * </p>
+ * <p>
+ * The images are decoded and scaled by the calling threads, then queued. Each session of the pool runs on its own
+ * thread, taking as many queued images as fit in a batch, waiting at most the batch delay for more: concurrent
+ * requests share the fixed cost of a run, while a lone request waits no longer than the delay. The sessions share
+ * the cores, each running its batches with its share of them.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LocalLabelDetector implements LabelDetector, AutoCloseable {
+    private static final int CHANNELS = 3;
+
+    private final OrtEnvironment environment;
+    private final List<OrtSession> sessions;
+    private final String inputName;
+    private final int width;
+    private final int height;
+    private final String[] labels;
+    private final String modelId;
+    private final float[] mean;
+    private final float[] std;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final BlockingQueue<Inference> queue;
+    private final ExecutorService workers;
+    private final ImageDownloader imageDownloader;
+    private final LabelDetectorMetrics metrics;
+    private volatile boolean closed;
+
+    private final LongAdder inferences = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    private LocalLabelDetector(Builder builder, OrtEnvironment environment, List<OrtSession> sessions, String[] labels,
+                               String modelId) throws OrtException {
+        this.environment = environment;
+        this.sessions = sessions;
+        this.labels = labels;
+        this.modelId = modelId;
+        this.mean = builder.mean;
+        this.std = builder.std;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchDelayNanos = builder.maxBatchDelay.toNanos();
+        this.queue = new ArrayBlockingQueue<>(builder.maxQueueSize);
+        this.imageDownloader = builder.imageDownloader;
+        this.metrics = builder.metrics;
+
+        OrtSession session = sessions.get(0);
+        if (session.getNumInputs() != 1 || session.getNumOutputs() < 1) {
+            throw new IllegalArgumentException("Model must have a single input and at least one output");
+        }
+        Map.Entry<String, NodeInfo> input = session.getInputInfo().entrySet().iterator().next();
+        this.inputName = input.getKey();
+        long[] inputShape = shapeOf(input.getValue());
+        if (inputShape.length != 4 || inputShape[1] != CHANNELS) {
+            throw new IllegalArgumentException("Model input must be of shape [batch, 3, height, width], not " + Arrays.toString(inputShape));
+        }
+        // dynamic dimensions are given as -1, the configured size is used for them
+        this.height = inputShape[2] > 0 ? (int) inputShape[2] : builder.height;
+        this.width = inputShape[3] > 0 ? (int) inputShape[3] : builder.width;
+        long[] outputShape = shapeOf(session.getOutputInfo().values().iterator().next());
+        long outputs = outputShape.length > 0 ? outputShape[outputShape.length - 1] : -1;
+        if (outputs > 0 && outputs != labels.length) {
+            throw new IllegalArgumentException("Model has " + outputs + " outputs but the vocabulary has " + labels.length + " labels");
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "local-inference-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (OrtSession each : sessions) {
+            workers.execute(() -> serve(each));
+        }
+    }
+
+    private static long[] shapeOf(NodeInfo node) {
+        if (!(node.getInfo() instanceof TensorInfo tensorInfo)) {
+            throw new IllegalArgumentException("Model input and output must be tensors, " + node.getName() + " is not");
+        }
+        return tensorInfo.getShape();
+    }
+
+    public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+        validate(maxLabels, minConfidence);
+        long start = System.nanoTime();
+        float[] pixels = pixels(image);
+        if (metrics != null) {
+            metrics.recordReceivedImage(image.length);
+        }
+        record(LabelDetectorMetrics.Phase.PAYLOAD, start);
+        start = System.nanoTime();
+        float[] scores;
+        try {
+            scores = infer(pixels);
+        } finally {
+            record(LabelDetectorMetrics.Phase.INFERENCE, start);
+        }
+        start = System.nanoTime();
+        LabelDetectorResult result = toResult(scores, maxLabels, minConfidence);
+        record(LabelDetectorMetrics.Phase.MAPPING, start);
+        return result;
+    }
+
+    /**
+     * @throws InvalidParamException always, images stored in data objects are only reachable by Rekognition.
+     */
+    public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+        throw new InvalidParamException("Images stored in data objects are not supported by the local backend");
+    }
+
+    public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws IOException, LabelDetectorException {
+        validate(maxLabels, minConfidence);
+        long start = System.nanoTime();
+        byte[] image;
+        try {
+            image = imageDownloader.download(url);
+        } finally {
+            record(LabelDetectorMetrics.Phase.DOWNLOAD, start);
+        }
+        return detectLabels(image, maxLabels, minConfidence);
+    }
+
+    private static void validate(int maxLabels, float minConfidence) throws InvalidParamException {
+        if (maxLabels < 1) {
+            throw new InvalidParamException("Max labels must be greater than 0");
+        }
+        if (minConfidence < 0 || minConfidence > 100) {
+            throw new InvalidParamException("Min confidence must be between 0 and 100");
+        }
+    }
+
+    /**
+     * @return the pixels of the image scaled to the input of the model, normalized channel by channel.
+     */
+    private float[] pixels(byte[] image) throws LabelDetectorException {
+        ImageSignature.checkComplete(image, image.length);
+        BufferedImage decoded;
+        try {
+            decoded = decode(image);
+        } catch (IOException e) {
+            throw new ImageFormatException("Image could not be decoded: " + e.getMessage());
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(decoded, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        int[] rgb = scaled.getRGB(0, 0, width, height, null, 0, width);
+        int plane = width * height;
+        float[] pixels = new float[CHANNELS * plane];
+        for (int i = 0; i < plane; i++) {
+            pixels[i] = ((rgb[i] >> 16 & 0xFF) / 255f - mean[0]) / std[0];
+            pixels[plane + i] = ((rgb[i] >> 8 & 0xFF) / 255f - mean[1]) / std[1];
+            pixels[2 * plane + i] = ((rgb[i] & 0xFF) / 255f - mean[2]) / std[2];
+        }
+        return pixels;
+    }
+
+    private BufferedImage decode(byte[] image) throws IOException, ImageFormatException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new ImageFormatException("Image could not be decoded");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // the model sees a few hundred pixels at most, subsampling while decoding skips most of the work
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.min(reader.getWidth(0) / width, reader.getHeight(0) / height));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private float[] infer(float[] pixels) throws LabelDetectorException {
+        Inference inference = new Inference(pixels);
+        if (closed) {
+            throw new ServiceUnavailableException("Local label detector is closed");
+        }
+        if (!queue.offer(inference)) {
+            rejections.increment();
+            throw new TooManyRequestsException("Local inference queue is full");
+        }
+        if (closed && queue.remove(inference)) {
+            // queued after close drained the queue, no session would take it
+            throw new ServiceUnavailableException("Local label detector is closed");
+        }
+        try {
+            return inference.scores.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LabelDetectorException("Interrupted while waiting for the local inference");
+        } catch (ExecutionException e) {
+            throw AwsLabelDetectorHelperImpl.toLabelDetectorException(e.getCause());
+        }
+    }
+
+    private void serve(OrtSession session) {
+        List<Inference> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxBatchDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Inference next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(session, batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed, the pending inferences are failed by close
+            for (Inference inference : batch) {
+                inference.scores.completeExceptionally(new ServiceUnavailableException("Local label detector is closed"));
+            }
+        }
+    }
+
+    private void run(OrtSession session, List<Inference> batch) {
+        int size = batch.size();
+        int imageSize = CHANNELS * width * height;
+        FloatBuffer input = FloatBuffer.allocate(size * imageSize);
+        for (Inference inference : batch) {
+            input.put(inference.pixels);
+        }
+        input.flip();
+        try (OnnxTensor tensor = OnnxTensor.createTensor(environment, input, new long[]{size, CHANNELS, height, width});
+             OrtSession.Result result = session.run(Map.of(inputName, tensor))) {
+            FloatBuffer output = ((OnnxTensor) result.get(0)).getFloatBuffer();
+            int outputs = output.remaining() / size;
+            if (outputs != labels.length) {
+                throw new IllegalStateException("Model returned " + outputs + " scores per image for " + labels.length + " labels");
+            }
+            for (Inference inference : batch) {
+                float[] scores = new float[outputs];
+                output.get(scores);
+                inference.scores.complete(scores);
+            }
+        } catch (OrtException | RuntimeException e) {
+            for (Inference inference : batch) {
+                inference.scores.completeExceptionally(new InternalErrorException("Local inference failed: " + e.getMessage()));
+            }
+        }
+        inferences.add(size);
+        batches.increment();
+    }
+
+    private LabelDetectorResult toResult(float[] scores, int maxLabels, float minConfidence) {
+        float[] probabilities = probabilities(scores);
+        Integer[] order = new Integer[probabilities.length];
+        int size = 0;
+        for (int i = 0; i < probabilities.length; i++) {
+            if (probabilities[i] * 100 >= minConfidence) {
+                order[size++] = i;
+            }
+        }
+        Arrays.sort(order, 0, size, (a, b) -> Float.compare(probabilities[b], probabilities[a]));
+        List<Label> detected = new ArrayList<>(Math.min(size, maxLabels));
+        for (int i = 0; i < Math.min(size, maxLabels); i++) {
+            detected.add(Label.builder().name(labels[order[i]]).confidence(probabilities[order[i]] * 100).build());
+        }
+        return new AwsLabelDetectorHelperImpl.DetectLabelResult(DetectLabelsResponse.builder().labels(detected).build());
+    }
+
+    /**
+     * @return the scores if they already are probabilities, their softmax if they are logits.
+     */
+    static float[] probabilities(float[] scores) {
+        double sum = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        boolean probabilities = true;
+        for (float score : scores) {
+            probabilities &= score >= 0 && score <= 1;
+            sum += score;
+            max = Math.max(max, score);
+        }
+        if (probabilities && Math.abs(sum - 1) < 0.01) {
+            return scores;
+        }
+        float[] softmax = new float[scores.length];
+        double total = 0;
+        for (int i = 0; i < scores.length; i++) {
+            // shifted by the maximum so the exponentials cannot overflow
+            double exp = Math.exp(scores[i] - max);
+            softmax[i] = (float) exp;
+            total += exp;
+        }
+        for (int i = 0; i < softmax.length; i++) {
+            softmax[i] /= (float) total;
+        }
+        return softmax;
+    }
+
+    private void record(LabelDetectorMetrics.Phase phase, long start) {
+        if (metrics != null) {
+            metrics.record(phase, start);
+        }
+    }
+
+    /**
+     * <p>
+     * This method returns the identity of the model, which changes with its file, its vocabulary or the
+     * preprocessing of its input, so that the results of different models are not mixed.
+     * </p>
+     *
+     * @return the identity of the model, 16 hexadecimal digits.
+     */
+    public String getModelId() {
+        return modelId;
+    }
+
+    /**
+     * <p>
+     * This method returns the statistics of the inferences since the creation of the detector.
+     * </p>
+     *
+     * @return the statistics of the inferences.
+     */
+    public Stats getStats() {
+        return new Stats(inferences.sum(), batches.sum(), rejections.sum(), queue.size(), sessions.size());
+    }
+
+    /**
+     * <p>
+     * This method stops the sessions, failing the inferences still queued.
+     * </p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Inference inference;
+        while ((inference = queue.poll()) != null) {
+            inference.scores.completeExceptionally(new ServiceUnavailableException("Local label detector is closed"));
+        }
+        for (OrtSession session : sessions) {
+            try {
+                session.close();
+            } catch (OrtException e) {
+                // the native memory is released with the process anyway
+            }
+        }
+    }
+
+    private static class Inference {
+        private final float[] pixels;
+        private final CompletableFuture<float[]> scores = new CompletableFuture<>();
+
+        private Inference(float[] pixels) {
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * <p>
+     * Statistics of a {@link LocalLabelDetector}.
+     * </p>
+     */
+    public static class Stats {
+        private final long inferences;
+        private final long batches;
+        private final long rejections;
+        private final int queued;
+        private final int sessions;
+
+        private Stats(long inferences, long batches, long rejections, int queued, int sessions) {
+            this.inferences = inferences;
+            this.batches = batches;
+            this.rejections = rejections;
+            this.queued = queued;
+            this.sessions = sessions;
+        }
+
+        /**
+         * @return the number of images run through the model.
+         */
+        public long getInferences() {
+            return inferences;
+        }
+
+        /**
+         * @return the number of runs of the model, each over a batch of images.
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * @return the number of images rejected because the queue was full.
+         */
+        public long getRejections() {
+            return rejections;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getSessions() {
+            return sessions;
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private final Path model;
+        private final Path labels;
+        private int sessions = Math.min(4, Runtime.getRuntime().availableProcessors());
+        private int maxBatchSize = 16;
+        private Duration maxBatchDelay = Duration.ofMillis(2);
+        private int maxQueueSize = 1000;
+        private int width = 224;
+        private int height = 224;
+        // ImageNet statistics, which most image classification models are trained with
+        private float[] mean = {0.485f, 0.456f, 0.406f};
+        private float[] std = {0.229f, 0.224f, 0.225f};
+        private final ImageDownloader imageDownloader;
+        private LabelDetectorMetrics metrics;
+
+        /**
+         * @param model  the ONNX file of the model.
+         * @param labels the text file with the name of the label of each output of the model, one per line.
+         * @param imageDownloader the downloader of the images given by url, shared so its connections are.
+         */
+        public Builder(Path model, Path labels, ImageDownloader imageDownloader) {
+            Objects.requireNonNull(model);
+            Objects.requireNonNull(labels);
+            Objects.requireNonNull(imageDownloader);
+            this.model = model;
+            this.labels = labels;
+            this.imageDownloader = imageDownloader;
+        }
+
+        /**
+         * @param sessions the number of sessions running batches concurrently, each with its own copy of the model.
+         */
+        public Builder withSessions(int sessions) {
+            if (sessions < 1) {
+                throw new IllegalArgumentException("Sessions must be greater than 0");
+            }
+            this.sessions = sessions;
+            return this;
+        }
+
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("Max batch size must be greater than 0");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBatchDelay how long a session waits for more images before running a batch which is not full.
+         */
+        public Builder withMaxBatchDelay(Duration maxBatchDelay) {
+            Objects.requireNonNull(maxBatchDelay);
+            if (maxBatchDelay.isNegative()) {
+                throw new IllegalArgumentException("Max batch delay must not be negative");
+            }
+            this.maxBatchDelay = maxBatchDelay;
+            return this;
+        }
+
+        public Builder withMaxQueueSize(int maxQueueSize) {
+            if (maxQueueSize < 1) {
+                throw new IllegalArgumentException("Max queue size must be greater than 0");
+            }
+            this.maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        /**
+         * @param width  the width of the images given to a model whose input width is dynamic.
+         * @param height the height of the images given to a model whose input height is dynamic.
+         */
+        public Builder withInputSize(int width, int height) {
+            if (width < 1 || height < 1) {
+                throw new IllegalArgumentException("Input size must be greater than 0");
+            }
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * @param mean the mean of the red, green and blue channels, between 0 and 1, subtracted from the pixels.
+         * @param std  the standard deviation of the channels the pixels are divided by.
+         */
+        public Builder withNormalization(float[] mean, float[] std) {
+            Objects.requireNonNull(mean);
+            Objects.requireNonNull(std);
+            if (mean.length != CHANNELS || std.length != CHANNELS) {
+                throw new IllegalArgumentException("Normalization needs a mean and a standard deviation per channel");
+            }
+            for (float deviation : std) {
+                if (deviation <= 0) {
+                    throw new IllegalArgumentException("Standard deviations must be greater than 0");
+                }
+            }
+            this.mean = mean.clone();
+            this.std = std.clone();
+            return this;
+        }
+
+        public Builder withMetrics(LabelDetectorMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Digests what the results depend on: the model file, its vocabulary and the preprocessing of its input.
+         */
+        private String modelId(String[] vocabulary) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            try (InputStream input = Files.newInputStream(model);
+                 OutputStream output = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                input.transferTo(output);
+            }
+            digest.update(String.join("\n", vocabulary).getBytes(StandardCharsets.UTF_8));
+            digest.update((Arrays.toString(mean) + Arrays.toString(std) + width + "x" + height).getBytes(StandardCharsets.UTF_8));
+            // 64 bits tell the few models a service ever runs apart
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        }
+
+        /**
+         * @return the detector, with its sessions loaded and running.
+         * @throws IOException if the model or the vocabulary cannot be read.
+         */
+        public LocalLabelDetector build() throws IOException {
+            String[] vocabulary = Files.readAllLines(labels, StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .toArray(String[]::new);
+            for (int i = 0; i < vocabulary.length; i++) {
+                if (vocabulary[i].isEmpty()) {
+                    throw new IllegalArgumentException("Label " + (i + 1) + " of " + labels + " is blank");
+                }
+            }
+            OrtEnvironment environment = OrtEnvironment.getEnvironment();
+            // each session gets its share of the cores, so concurrent batches do not oversubscribe them
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / sessions);
+            List<OrtSession> loaded = new ArrayList<>(sessions);
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                options.setExecutionMode(OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+                options.setIntraOpNumThreads(threads);
+                options.setInterOpNumThreads(1);
+                for (int i = 0; i < sessions; i++) {
+                    loaded.add(environment.createSession(model.toString(), options));
+                }
+                return new LocalLabelDetector(this, environment, loaded, vocabulary, modelId(vocabulary));
+            } catch (OrtException | RuntimeException e) {
+                for (OrtSession session : loaded) {
+                    try {
+                        session.close();
+                    } catch (OrtException ignored) {
+                        // already failing
+                    }
+                }
+                if (e instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException("Model " + model + " could not be loaded: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * <p>
+ * Index of perceptual hashes, finding the closest known hash within a Hamming distance.
+ * </p>
+ * <p>
+ * Hashes are held in a BK-tree: the children of a node are indexed by their distance to it, so by the triangle
+ * inequality a search within distance d of a hash only visits the children at a distance within d of the one to the
+ * node. The index is bounded, the oldest hashes are evicted first. Evicted nodes are only marked as removed, the tree
+ * is rebuilt once they make up half of it.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+class NearDuplicateIndex {
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final int maxEntries;
+    private final Deque<Node> insertionOrder = new ArrayDeque<>();
+    private Node root;
+    private int removed;
+
+    NearDuplicateIndex(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * <p>
+     * This method indexes a hash, replacing the key of an identical hash.
+     * </p>
+     *
+     * @param hash the perceptual hash of an image.
+     * @param key  the cache key of the image.
+     */
+    synchronized void add(long hash, String key) {
+        Node node = insert(hash, key);
+        if (node != null) {
+            insertionOrder.addLast(node);
+        }
+        while (insertionOrder.size() > maxEntries) {
+            insertionOrder.removeFirst().removed = true;
+            removed++;
+        }
+        if (removed > insertionOrder.size()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return the new node, or null if an identical hash was updated.
+     */
+    private Node insert(long hash, String key) {
+        if (root == null) {
+            root = new Node(hash, key);
+            return root;
+        }
+        Node node = root;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.key = key;
+                if (node.removed) {
+                    node.removed = false;
+                    removed--;
+                    insertionOrder.addLast(node);
+                } else {
+                    // refreshed, the node moves to the end of the eviction order
+                    insertionOrder.remove(node);
+                    insertionOrder.addLast(node);
+                }
+                return null;
+            }
+            if (distance >= node.children.length) {
+                node.children = Arrays.copyOf(node.children, distance + 1);
+            }
+            Node child = node.children[distance];
+            if (child == null) {
+                child = new Node(hash, key);
+                node.children[distance] = child;
+                return child;
+            }
+            node = child;
+        }
+    }
+
+    private void rebuild() {
+        Node[] live = insertionOrder.toArray(new Node[0]);
+        insertionOrder.clear();
+        root = null;
+        removed = 0;
+        for (Node node : live) {
+            insertionOrder.addLast(insert(node.hash, node.key));
+        }
+    }
+
+    /**
+     * <p>
+     * This method returns the key of the closest indexed hash within the given distance.
+     * </p>
+     *
+     * @param hash        the perceptual hash of an image.
+     * @param maxDistance the maximum number of differing bits.
+     * @return the key of the closest hash, or null if none is within the distance.
+     */
+    synchronized String nearest(long hash, int maxDistance) {
+        if (root == null) {
+            return null;
+        }
+        Node best = null;
+        int bestDistance = maxDistance + 1;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (!node.removed && distance < bestDistance) {
+                best = node;
+                bestDistance = distance;
+            }
+            int from = Math.max(1, distance - bestDistance + 1);
+            int to = Math.min(node.children.length - 1, distance + bestDistance - 1);
+            for (int i = from; i <= to; i++) {
+                if (node.children[i] != null) {
+                    pending.push(node.children[i]);
+                }
+            }
+        }
+        return best == null ? null : best.key;
+    }
+
+    synchronized int size() {
+        return insertionOrder.size();
+    }
+
+    private static class Node {
+        private final long hash;
+        private String key;
+        private boolean removed;
+        private Node[] children = NO_CHILDREN;
+
+        private Node(long hash, String key) {
+            this.hash = hash;
+            this.key = key;
+        }
+    }
+}
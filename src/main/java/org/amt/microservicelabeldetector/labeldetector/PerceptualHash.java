@@ -0,0 +1,106 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.OptionalLong;
+
+/**
+ * <p>
+ * Perceptual hash of images, telling apart images that look different rather than bytes that differ.
+ * </p>
+ * <p>
+ * The difference hash (dHash) reduces the image to 9x8 gray cells and sets one bit per cell brighter than its right
+ * neighbour. Resizing, recompressing or stripping the metadata of a photo changes few bits, if any, so near-duplicates
+ * are found by the Hamming distance between hashes. The image is subsampled while decoding, only a few pixels per
+ * cell are ever converted.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public final class PerceptualHash {
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+    // decoded pixels per cell and dimension, enough to average out the subsampling
+    private static final int PIXELS_PER_CELL = 16;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * <p>
+     * This method computes the difference hash of an image.
+     * </p>
+     *
+     * @param image the bytes of the image.
+     * @return the 64 bits hash, or empty if the image cannot be decoded.
+     */
+    public static OptionalLong dHash(byte[] image) {
+        try {
+            BufferedImage decoded = decode(image);
+            return decoded == null ? OptionalLong.empty() : OptionalLong.of(dHash(decoded));
+        } catch (IOException | RuntimeException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private static BufferedImage decode(byte[] image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.min(reader.getWidth(0) / (WIDTH * PIXELS_PER_CELL),
+                        reader.getHeight(0) / (HEIGHT * PIXELS_PER_CELL)));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static long dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        long[] sums = new long[WIDTH * HEIGHT];
+        int[] counts = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int row = y * HEIGHT / height * WIDTH;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[y * width + x];
+                int cell = row + x * WIDTH / width;
+                // integer approximation of the luma, 0.299 R + 0.587 G + 0.114 B
+                sums[cell] += (((rgb >> 16) & 0xff) * 77 + ((rgb >> 8) & 0xff) * 150 + (rgb & 0xff) * 29) >> 8;
+                counts[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                int cell = y * WIDTH + x;
+                // compared as sum / count without dividing
+                boolean brighter = sums[cell] * Math.max(1, counts[cell + 1]) > sums[cell + 1] * Math.max(1, counts[cell]);
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of bits differing between two hashes.
+     */
+    public static int distance(long hash, long other) {
+        return Long.bitCount(hash ^ other);
+    }
+}
@@ -0,0 +1,249 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Detects labels as a single non-blocking pipeline, for the reactive mode of the service.
+ * </p>
+ * <p>
+ * Images are downloaded by a Reactor Netty client and detected by an {@link AsyncLabelDetector}, so no thread waits
+ * on a slow image origin or on Rekognition. The image is read chunk by chunk into a buffer bounded by the maximum
+ * size, its header being checked by {@link ImageSignature} on the first chunks. The detector given by the
+ * configuration caches and coalesces the detections as in the servlet mode, see {@link AsyncCachingLabelDetector}
+ * and {@link AsyncCoalescingLabelDetector}.
+ * </p>
+ * <p>
+ * Cancelling the returned {@link Mono}, as when the client disconnects, aborts the download in flight, or cancels
+ * the future of the detection, which aborts the Rekognition call unless an identical request still waits for it.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class ReactiveLabelDetector implements AutoCloseable {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final AsyncLabelDetector asyncLabelDetector;
+    private final int maxBytes;
+    private final Duration downloadTimeout;
+    private final ConnectionProvider connectionProvider;
+    private final HttpClient httpClient;
+
+    private ReactiveLabelDetector(Builder builder) {
+        this.asyncLabelDetector = builder.asyncLabelDetector;
+        this.maxBytes = builder.maxBytes;
+        this.downloadTimeout = builder.downloadTimeout;
+        // pools are per host, so the maximum of connections is per host as well
+        this.connectionProvider = ConnectionProvider.builder("image-download")
+                .maxConnections(builder.maxConnectionsPerHost)
+                .pendingAcquireTimeout(builder.downloadTimeout)
+                .maxIdleTime(builder.keepAlive)
+                .build();
+        this.httpClient = HttpClient.create(connectionProvider)
+                .followRedirect(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) builder.connectTimeout.toMillis())
+                .responseTimeout(builder.readTimeout)
+                .headers(headers -> headers.set(HttpHeaderNames.ACCEPT, "image/*"));
+    }
+
+    /**
+     * <p>
+     * This method detects the labels on the image located at the given url.
+     * </p>
+     *
+     * @param url           the http or https url of the image.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @return the result of the label detection, failing with the exceptions of {@link LabelDetector}.
+     */
+    public Mono<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+        Objects.requireNonNull(url);
+        // the future is cancelled when the Mono is
+        return download(url).flatMap(image -> Mono.fromFuture(() -> asyncLabelDetector.detectLabels(image, maxLabels, minConfidence)));
+    }
+
+    /**
+     * <p>
+     * This method detects the labels on an image stored in a dataObject.
+     * </p>
+     *
+     * @param dataObject    the dataObject where the image is stored.
+     * @param key           the key of the image.
+     * @param maxLabels     the number of labels to detect.
+     * @param minConfidence the minimum confidence level to accept a label.
+     * @return the result of the label detection, failing with the exceptions of {@link LabelDetector}.
+     */
+    public Mono<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+        return Mono.fromFuture(() -> asyncLabelDetector.detectLabels(dataObject, key, maxLabels, minConfidence));
+    }
+
+    Mono<byte[]> download(URL url) {
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            return Mono.error(new MalformedURLException("Unsupported protocol: " + protocol));
+        }
+        return httpClient.get()
+                .uri(url.toString())
+                .response((response, body) -> read(url, response, body))
+                .single()
+                .timeout(downloadTimeout, Mono.error(() -> new SocketTimeoutException("Image download exceeded its deadline")));
+    }
+
+    private Mono<byte[]> read(URL url, HttpClientResponse response, ByteBufFlux body) {
+        int status = response.status().code();
+        if (status >= 400) {
+            return Mono.error(new IOException("Server returned HTTP status " + status + " for " + url));
+        }
+        String contentType = response.responseHeaders().get(HttpHeaderNames.CONTENT_TYPE);
+        if (contentType != null && !ImageDownloader.isImageContentType(contentType)) {
+            return Mono.error(new LabelDetector.ImageFormatException("Unsupported content type: " + contentType));
+        }
+        long contentLength = contentLength(response);
+        if (contentLength > maxBytes) {
+            return Mono.error(new LabelDetector.InvalidImageSizeException("Image size " + contentLength + " exceeds the maximum of " + maxBytes + " bytes"));
+        }
+        ImageBuffer image = new ImageBuffer(contentLength >= 0 ? (int) contentLength : BUFFER_SIZE);
+        // the header is checked on the first chunks, until it is known to be valid
+        AtomicBoolean checked = new AtomicBoolean();
+        // chunks are copied as they come, failing as soon as the image is too large or not an image
+        return body.handle((ByteBuf chunk, SynchronousSink<Void> sink) -> {
+                    if (image.size() + chunk.readableBytes() > maxBytes) {
+                        sink.error(new LabelDetector.InvalidImageSizeException("Image exceeds the maximum of " + maxBytes + " bytes"));
+                        return;
+                    }
+                    try {
+                        chunk.readBytes(image, chunk.readableBytes());
+                        if (!checked.get()) {
+                            checked.set(image.checkSignature());
+                        }
+                    } catch (IOException | LabelDetector.LabelDetectorException e) {
+                        sink.error(e);
+                    }
+                })
+                .then(Mono.fromCallable(() -> {
+                    byte[] bytes = image.bytes();
+                    if (!checked.get()) {
+                        ImageSignature.checkComplete(bytes, bytes.length);
+                    }
+                    return bytes;
+                }));
+    }
+
+    private static long contentLength(HttpClientResponse response) {
+        String contentLength = response.responseHeaders().get(HttpHeaderNames.CONTENT_LENGTH);
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        connectionProvider.dispose();
+    }
+
+    /**
+     * Buffer of a downloaded image, whose header is checked in place as it grows.
+     */
+    private static class ImageBuffer extends ByteArrayOutputStream {
+        private ImageBuffer(int size) {
+            super(size);
+        }
+
+        private boolean checkSignature() throws LabelDetector.ImageFormatException {
+            return ImageSignature.check(buf, count);
+        }
+
+        /**
+         * Returns the image, without a copy when its size was announced.
+         */
+        private byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private final AsyncLabelDetector asyncLabelDetector;
+        private int maxBytes = ImageDownloader.MAX_IMAGE_BYTES;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration readTimeout = Duration.ofSeconds(10);
+        private Duration downloadTimeout = Duration.ofSeconds(30);
+        private int maxConnectionsPerHost = 50;
+        private Duration keepAlive = Duration.ofMinutes(5);
+
+        /**
+         * @param asyncLabelDetector the detector of the downloaded images.
+         */
+        public Builder(AsyncLabelDetector asyncLabelDetector) {
+            Objects.requireNonNull(asyncLabelDetector);
+            this.asyncLabelDetector = asyncLabelDetector;
+        }
+
+        public Builder withMaxBytes(int maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("Max bytes must be greater than 0");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withConnectTimeout(Duration connectTimeout) {
+            Objects.requireNonNull(connectTimeout);
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * The read timeout bounds the wait for the response headers, the body being bounded by the download timeout.
+         */
+        public Builder withReadTimeout(Duration readTimeout) {
+            Objects.requireNonNull(readTimeout);
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder withDownloadTimeout(Duration downloadTimeout) {
+            Objects.requireNonNull(downloadTimeout);
+            this.downloadTimeout = downloadTimeout;
+            return this;
+        }
+
+        public Builder withMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("Max connections per host must be greater than 0");
+            }
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder withKeepAlive(Duration keepAlive) {
+            Objects.requireNonNull(keepAlive);
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public ReactiveLabelDetector build() {
+            return new ReactiveLabelDetector(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.amt.microservicelabeldetector;
+
+import org.amt.microservicelabeldetector.loadtest.RekognitionSimulator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.mvc.async.request-timeout=200ms",
+        "labeldetector.batch.timeout=30s",
+        "labeldetector.batch.max-in-flight=1",
+        "labeldetector.warmup.enabled=false"
+})
+public class BatchStreamTimeoutTest {
+    private static final int IMAGES = 5;
+    private static RekognitionSimulator simulator;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    public static void rekognition(DynamicPropertyRegistry registry) {
+        try {
+            simulator = new RekognitionSimulator.Builder()
+                    .withLatency(Duration.ofMillis(100), Duration.ofMillis(100))
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        registry.add("labeldetector.rekognition.endpoint", () -> "http://localhost:" + simulator.getPort());
+        // first link of the default credentials chain
+        System.setProperty("aws.accessKeyId", "test");
+        System.setProperty("aws.secretAccessKey", "test");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        simulator.close();
+    }
+
+    @Test
+    public void testBatchLongerThanTheAsyncTimeoutShouldStreamEveryImage() throws Exception {
+        // Given
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < IMAGES; i++) {
+            keys.append(i == 0 ? "" : ",").append("\"").append(i).append(".jpg\"");
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/labels/s3/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"dataObject\":\"bucket\",\"keys\":[" + keys + "],\"maxLabels\":3,\"confidence\":50}"))
+                .build();
+
+        // When
+        long start = System.nanoTime();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // Then
+        assertEquals(200, response.statusCode());
+        // one image at a time, the stream outlasts the 200ms of the single detections
+        assertTrue(elapsed.toMillis() >= IMAGES * 100, "Batch took " + elapsed.toMillis() + " ms");
+        assertEquals(IMAGES, response.body().lines().filter(line -> line.contains("\"labels\"")).count(), response.body());
+    }
+}
@@ -0,0 +1,110 @@
+package org.amt.microservicelabeldetector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorMetrics;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabelDetectorResultSerializerTest {
+
+    private static ObjectMapper objectMapper(boolean includeDetails) {
+        return new ObjectMapper().registerModule(new SimpleModule()
+                .addSerializer(LabelDetectorResult.class, new LabelDetectorResultSerializer(includeDetails)));
+    }
+
+    @Test
+    public void testSerializeShouldWriteLabelsAndNbLabels() throws Exception {
+        // Given
+        Map<String, Float> labels = new LinkedHashMap<>();
+        labels.put("Car", 99f);
+        labels.put("Vehicle", 90f);
+        LabelDetectorResult result = new LabelDetectorResult() {
+            @Override
+            public Map<String, Float> getLabels() {
+                return labels;
+            }
+
+            @Override
+            public int getNbLabels() {
+                return labels.size();
+            }
+
+            @Override
+            public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                return this;
+            }
+        };
+
+        // When
+        String json = objectMapper(true).writeValueAsString(result);
+
+        // Then
+        assertEquals("{\"labels\":{\"Car\":99.0,\"Vehicle\":90.0},\"nbLabels\":2}", json);
+    }
+
+    @Test
+    public void testSerializeInNestedObjectShouldUseTheSerializer() throws Exception {
+        // Given
+        LabelDetectorResult result = new LabelDetectorResult() {
+            @Override
+            public Map<String, Float> getLabels() {
+                return Map.of("Car", 99f);
+            }
+
+            @Override
+            public int getNbLabels() {
+                return 1;
+            }
+
+            @Override
+            public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                return this;
+            }
+        };
+
+        // When
+        JsonNode json = objectMapper(false).valueToTree(BatchLabelItem.success(0, "car.jpg", result));
+
+        // Then
+        assertEquals(99.0, json.get("result").get("labels").get("Car").asDouble());
+        assertEquals(1, json.get("result").get("nbLabels").asInt());
+    }
+
+    @Test
+    public void testSerializeWithMetricsShouldTimeTheSerialization() throws Exception {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new SimpleModule()
+                .addSerializer(LabelDetectorResult.class, new LabelDetectorResultSerializer(false, new LabelDetectorMetrics(registry))));
+        LabelDetectorResult result = new LabelDetectorResult() {
+            @Override
+            public Map<String, Float> getLabels() {
+                return Map.of("Car", 99f);
+            }
+
+            @Override
+            public int getNbLabels() {
+                return 1;
+            }
+
+            @Override
+            public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                return this;
+            }
+        };
+
+        // When
+        objectMapper.writeValueAsString(result);
+
+        // Then
+        assertEquals(1, registry.get("labeldetector.phase").tag("phase", "serialization").timer().count());
+    }
+}
@@ -0,0 +1,238 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.amt.microservicelabeldetector.loadtest.RekognitionSimulator;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static AdaptiveConcurrencyLimiter.Builder builder() {
+        return new AdaptiveConcurrencyLimiter.Builder()
+                .withBackoff(Duration.ofMillis(1), Duration.ofMillis(5))
+                .withDecreaseInterval(Duration.ZERO);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testCallThrottledShouldRetryAndDecreaseLimit() throws Exception {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(8, 1, 16).build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        String result = limiter.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new LabelDetector.ServiceUnavailableException("Rate exceeded");
+            }
+            return "labels";
+        });
+
+        // Then
+        assertEquals("labels", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCallSucceedingShouldIncreaseLimit() throws Exception {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(2, 1, 16).build();
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            limiter.call(() -> "labels");
+        }
+
+        // Then
+        assertTrue(limiter.getLimit() > 2);
+    }
+
+    @Test
+    public void testCallThrottledMoreThanMaxAttemptsShouldRaiseException() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withMaxAttempts(2).build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When & Then
+        assertThrows(LabelDetector.TooManyRequestsException.class, () -> limiter.call(() -> {
+            attempts.incrementAndGet();
+            throw new LabelDetector.TooManyRequestsException("Provisioned rate exceeded");
+        }));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testCallThrottledWithConfiguredClientShouldSendOneRequestPerAttempt() throws Exception {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(8, 1, 8).withMaxAttempts(3).build();
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().withThrottleRate(1).build();
+             AwsLabelDetectorHelperImpl labelDetector = new AwsLabelDetectorHelperImpl(new AwsServiceConfigurator.Builder()
+                     .withCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                     .withEndpointOverride(URI.create("http://localhost:" + simulator.getPort()))
+                     .build().createRekognitionClient(), new ImageDownloader(), null, limiter, null)) {
+
+            // When
+            assertThrows(LabelDetector.TooManyRequestsException.class, () -> labelDetector.detectLabels("bucket", "car.jpg", 3, 90));
+
+            // Then
+            // the client does not retry on its own, every throttling reaches the limiter
+            assertEquals(3, simulator.getRequests());
+            assertEquals(1, limiter.getLimit());
+        }
+    }
+
+    @Test
+    public void testCallTimedOutShouldNotRetryNorChangeLimit() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(4, 1, 8).build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        assertThrows(LabelDetector.ServiceTimeoutException.class, () -> limiter.call(() -> {
+            attempts.incrementAndGet();
+            throw new LabelDetector.ServiceTimeoutException("Client execution did not complete before the specified timeout");
+        }));
+
+        // Then
+        assertEquals(1, attempts.get());
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testCallWithInternalErrorShouldDecreaseLimitWithoutRetrying() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(8, 1, 16).build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        assertThrows(LabelDetector.InternalErrorException.class, () -> limiter.call(() -> {
+            attempts.incrementAndGet();
+            throw new LabelDetector.InternalErrorException("Internal server error");
+        }));
+
+        // Then
+        assertEquals(1, attempts.get());
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testCallsWithInvalidRequestsShouldNotRaiseLimit() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(4, 1, 16).build();
+
+        // When
+        for (int i = 0; i < 20; i++) {
+            assertThrows(LabelDetector.ImageFormatException.class, () -> limiter.call(() -> {
+                throw new LabelDetector.ImageFormatException("Unsupported image format");
+            }));
+        }
+
+        // Then
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCallThrottledShouldStopRetryingAtMaxCallTime() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder()
+                .withMaxAttempts(100)
+                .withMaxCallTime(Duration.ofMillis(100))
+                .build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        long start = System.nanoTime();
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> limiter.call(() -> {
+            attempts.incrementAndGet();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(30));
+            throw new LabelDetector.ServiceUnavailableException("Rate exceeded");
+        }));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Then
+        assertTrue(attempts.get() <= 4, "Made " + attempts.get() + " attempts");
+        assertTrue(elapsed < 1000, "Took " + elapsed + " ms");
+    }
+
+    @Test
+    public void testCallOtherExceptionShouldNotRetry() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> limiter.call(() -> {
+            attempts.incrementAndGet();
+            throw new LabelDetector.ImageFormatException("Invalid image format");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testCallWithFullQueueShouldRaiseException() throws Exception {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(1, 1, 1).withMaxQueueSize(0).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> limiter.call(() -> {
+            started.countDown();
+            awaitQuietly(release);
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When & Then
+        assertThrows(LabelDetector.TooManyRequestsException.class, () -> limiter.call(() -> "labels"));
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCallAboveLimitShouldWaitForPermit() throws Exception {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = builder().withLimits(1, 1, 1).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        executor.submit(() -> limiter.call(() -> {
+            started.countDown();
+            awaitQuietly(release);
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When
+        var waiting = executor.submit(() -> limiter.call(() -> "labels"));
+        while (limiter.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        // Then
+        assertEquals("labels", waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getQueueDepth());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,156 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncCachingLabelDetectorTest {
+    private static final byte[] IMAGE = {1, 2, 3};
+    private static final Executor DIRECT = Runnable::run;
+    private static final LabelDetectorResult RESULT = new LabelDetectorResult() {
+        @Override
+        public Map<String, Float> getLabels() {
+            return Map.of("Car", 99f);
+        }
+
+        @Override
+        public int getNbLabels() {
+            return 1;
+        }
+
+        @Override
+        public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+            return this;
+        }
+    };
+
+    @Test
+    public void testDetectLabelsOfImageDetectedBySyncCacheShouldNotCallDelegate() throws Exception {
+        // Given
+        CountingLabelDetector syncDelegate = new CountingLabelDetector();
+        CachingLabelDetector cache = new CachingLabelDetector.Builder(syncDelegate, new ImageDownloader()).build();
+        cache.detectLabels(IMAGE, 3, 50);
+        FakeAsyncLabelDetector asyncDelegate = new FakeAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        AsyncCachingLabelDetector labelDetector = new AsyncCachingLabelDetector(asyncDelegate, cache, DIRECT);
+
+        // When
+        LabelDetectorResult result = labelDetector.detectLabels(IMAGE.clone(), 3, 50).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertSame(syncDelegate.result, result);
+        assertEquals(0, asyncDelegate.calls.get());
+        assertEquals(1, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void testDetectLabelsTwiceWithSameImageShouldCallDelegateOnce() throws Exception {
+        // Given
+        CountingLabelDetector syncDelegate = new CountingLabelDetector();
+        CachingLabelDetector cache = new CachingLabelDetector.Builder(syncDelegate, new ImageDownloader()).build();
+        FakeAsyncLabelDetector asyncDelegate = new FakeAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        AsyncCachingLabelDetector labelDetector = new AsyncCachingLabelDetector(asyncDelegate, cache, DIRECT);
+
+        // When
+        labelDetector.detectLabels(IMAGE, 3, 50).get(5, TimeUnit.SECONDS);
+        LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 3, 50).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertSame(RESULT, result);
+        assertSame(RESULT, cache.detectLabels(IMAGE, 3, 50));
+        assertEquals(1, asyncDelegate.calls.get());
+        assertEquals(0, syncDelegate.calls.get());
+        assertEquals(2, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void testDetectLabelsFailureShouldNotBeCached() {
+        // Given
+        CachingLabelDetector cache = new CachingLabelDetector.Builder(new CountingLabelDetector(), new ImageDownloader()).build();
+        FakeAsyncLabelDetector asyncDelegate = new FakeAsyncLabelDetector(
+                CompletableFuture.failedFuture(new LabelDetector.InternalErrorException("Rekognition failed")));
+        AsyncCachingLabelDetector labelDetector = new AsyncCachingLabelDetector(asyncDelegate, cache, DIRECT);
+
+        // When
+        Exception e = assertThrows(Exception.class, () -> labelDetector.detectLabels(IMAGE, 3, 50).join());
+        assertThrows(Exception.class, () -> labelDetector.detectLabels(IMAGE, 3, 50).join());
+
+        // Then
+        assertInstanceOf(LabelDetector.InternalErrorException.class, e.getCause());
+        assertEquals(2, asyncDelegate.calls.get());
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testCancelDetectLabelsShouldCancelTheCallOfTheDelegate() {
+        // Given
+        CompletableFuture<LabelDetectorResult> call = new CompletableFuture<>();
+        CachingLabelDetector cache = new CachingLabelDetector.Builder(new CountingLabelDetector(), new ImageDownloader()).build();
+        AsyncCachingLabelDetector labelDetector = new AsyncCachingLabelDetector(new FakeAsyncLabelDetector(call), cache, DIRECT);
+        CompletableFuture<LabelDetectorResult> result = labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // When
+        result.cancel(true);
+
+        // Then
+        assertTrue(call.isCancelled());
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    private static class CountingLabelDetector implements LabelDetector {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final LabelDetectorResult result = RESULT.filter(3, 50);
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+    }
+
+    private static class FakeAsyncLabelDetector implements AsyncLabelDetector {
+        private final CompletableFuture<LabelDetectorResult> result;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private FakeAsyncLabelDetector(CompletableFuture<LabelDetectorResult> result) {
+            this.result = result;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+            calls.incrementAndGet();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncCoalescingLabelDetectorTest {
+    private static final LabelDetectorResult RESULT = new LabelDetectorResult() {
+        @Override
+        public Map<String, Float> getLabels() {
+            return Map.of("Car", 99f);
+        }
+
+        @Override
+        public int getNbLabels() {
+            return 1;
+        }
+
+        @Override
+        public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+            return this;
+        }
+    };
+
+    @Test
+    public void testConcurrentIdenticalRequestsShouldShareOneCall() throws Exception {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+
+        // When
+        CompletableFuture<LabelDetectorResult> first = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        CompletableFuture<LabelDetectorResult> second = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        delegate.calls.get(0).complete(RESULT);
+
+        // Then
+        assertSame(RESULT, first.get(5, TimeUnit.SECONDS));
+        assertSame(RESULT, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, delegate.calls.size());
+        assertEquals(1, labelDetector.getCoalescedRequests());
+        assertEquals(0, labelDetector.getInFlightRequests());
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShouldShareTheException() {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+
+        // When
+        CompletableFuture<LabelDetectorResult> first = labelDetector.detectLabels("bucket", "car.jpg", 3, 50);
+        CompletableFuture<LabelDetectorResult> second = labelDetector.detectLabels("bucket", "car.jpg", 3, 50);
+        delegate.calls.get(0).completeExceptionally(new LabelDetector.InternalErrorException("Rekognition failed"));
+
+        // Then
+        Exception e = assertThrows(Exception.class, first::join);
+        assertInstanceOf(LabelDetector.InternalErrorException.class, e.getCause());
+        e = assertThrows(Exception.class, second::join);
+        assertInstanceOf(LabelDetector.InternalErrorException.class, e.getCause());
+        assertEquals(1, delegate.calls.size());
+    }
+
+    @Test
+    public void testCancelOneOfIdenticalRequestsShouldNotCancelTheCall() throws Exception {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+        CompletableFuture<LabelDetectorResult> first = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        CompletableFuture<LabelDetectorResult> second = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+
+        // When
+        first.cancel(true);
+        delegate.calls.get(0).complete(RESULT);
+
+        // Then
+        assertSame(RESULT, second.get(5, TimeUnit.SECONDS));
+        assertTrue(first.isCancelled());
+    }
+
+    @Test
+    public void testCancelEveryIdenticalRequestShouldCancelTheCall() {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+        CompletableFuture<LabelDetectorResult> first = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        CompletableFuture<LabelDetectorResult> second = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+
+        // When
+        first.cancel(true);
+        second.cancel(true);
+
+        // Then
+        assertTrue(delegate.calls.get(0).isCancelled());
+        assertEquals(0, labelDetector.getInFlightRequests());
+    }
+
+    @Test
+    public void testRequestAfterCancelledCallShouldStartANewCall() throws Exception {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+        labelDetector.detectLabels(new byte[]{1, 2}, 3, 50).cancel(true);
+
+        // When
+        CompletableFuture<LabelDetectorResult> result = labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        delegate.calls.get(1).complete(RESULT);
+
+        // Then
+        assertSame(RESULT, result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, delegate.calls.size());
+    }
+
+    @Test
+    public void testRequestsWithDifferentParametersShouldNotBeCoalesced() {
+        // Given
+        PendingAsyncLabelDetector delegate = new PendingAsyncLabelDetector();
+        AsyncCoalescingLabelDetector labelDetector = new AsyncCoalescingLabelDetector(delegate);
+
+        // When
+        labelDetector.detectLabels(new byte[]{1, 2}, 3, 50);
+        labelDetector.detectLabels(new byte[]{1, 2}, 4, 50);
+        labelDetector.detectLabels(new byte[]{1, 3}, 3, 50);
+
+        // Then
+        assertEquals(3, delegate.calls.size());
+        assertEquals(0, labelDetector.getCoalescedRequests());
+    }
+
+    /**
+     * Returns a new pending future for each call, completed by the test.
+     */
+    private static class PendingAsyncLabelDetector implements AsyncLabelDetector {
+        private final List<CompletableFuture<LabelDetectorResult>> calls = new ArrayList<>();
+
+        private synchronized CompletableFuture<LabelDetectorResult> detect() {
+            CompletableFuture<LabelDetectorResult> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+            return detect();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+            return detect();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+            return detect();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.amt.microservicelabeldetector.loadtest.RekognitionSimulator;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AwsAsyncLabelDetectorImplTest {
+
+    @Test
+    public void testDetectLabelsShouldPreprocessOffTheCallingThread() throws Exception {
+        // Given
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().build();
+             AwsAsyncLabelDetectorImpl labelDetector = new AwsAsyncLabelDetectorImpl(new AwsServiceConfigurator.Builder()
+                     .withCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                     .withEndpointOverride(URI.create("http://localhost:" + simulator.getPort()))
+                     .build(), new ImageDownloader(), new ImagePreprocessor.Builder().build(), 1, 10)) {
+
+            // When
+            CompletableFuture<LabelDetectorResult> result = labelDetector.detectLabels(image, 3, 90);
+
+            // Then
+            // shrinking the 3MB image takes far longer than returning the future
+            assertFalse(result.isDone());
+            assertEquals(3, result.get(30, TimeUnit.SECONDS).getNbLabels());
+            assertEquals(1, simulator.getRequests());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsAboveTheRekognitionLimitShouldThrowInvalidImageSizeExceptionWithoutCallingIt() throws Exception {
+        // Given
+        byte[] image = new byte[ImageDownloader.MAX_IMAGE_BYTES + 1];
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().build();
+             AwsAsyncLabelDetectorImpl labelDetector = new AwsAsyncLabelDetectorImpl(new AwsServiceConfigurator.Builder()
+                     .withCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                     .withEndpointOverride(URI.create("http://localhost:" + simulator.getPort()))
+                     .build(), new ImageDownloader(), null, 1, 10)) {
+
+            // When
+            ExecutionException e = assertThrows(ExecutionException.class, () -> labelDetector.detectLabels(image, 3, 90).get(30, TimeUnit.SECONDS));
+
+            // Then
+            assertInstanceOf(LabelDetector.InvalidImageSizeException.class, e.getCause());
+            assertEquals(0, simulator.getRequests());
+        }
+    }
+}
@@ -21,7 +21,7 @@ public class AwsLabelDetectorHelperImplTest {
 
     @BeforeAll
     public static void setUp() throws IOException {
-        labelDetector = new AwsLabelDetectorHelperImpl(new AwsServiceConfigurator.Builder().build());
+        labelDetector = new AwsLabelDetectorHelperImpl(new AwsServiceConfigurator.Builder().build(), new ImageDownloader());
         imageBytes = IoUtils.toByteArray(Files.newInputStream(Paths.get("src/test/resources/car.jpg")));
         imageURL = new URL("https://raw.githubusercontent.com/Nelson-Jnrnd/AMT-Microservice-LabelDetector/main/src/test/resources/car.jpg");
     }
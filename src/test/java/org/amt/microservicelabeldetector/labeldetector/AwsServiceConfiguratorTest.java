@@ -1,9 +1,13 @@
 package org.amt.microservicelabeldetector.labeldetector;
 
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 
+import java.net.URI;
+import java.time.Duration;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class AwsServiceConfiguratorTest {
@@ -105,4 +109,92 @@ public class AwsServiceConfiguratorTest {
         // Then
         assertNotNull(awsServiceConfigurator.getCredentialsProvider());
     }
+
+    @Test
+    public void testBuilderWithEndpointOverrideShouldSetEndpoint() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+        AwsServiceConfigurator awsServiceConfigurator;
+
+        // When
+        awsServiceConfigurator = builder.withEndpointOverride(URI.create("http://localhost:4566")).build();
+
+        // Then
+        assertEquals(URI.create("http://localhost:4566"), awsServiceConfigurator.getEndpointOverride());
+    }
+
+    @Test
+    public void testBuilderWithoutEndpointOverrideShouldCallAws() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+        AwsServiceConfigurator awsServiceConfigurator;
+
+        // When
+        awsServiceConfigurator = builder.build();
+
+        // Then
+        assertNull(awsServiceConfigurator.getEndpointOverride());
+    }
+
+    @Test
+    public void testBuilderWithRelativeEndpointOverrideShouldThrowIllegalArgumentException() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withEndpointOverride(URI.create("localhost")));
+    }
+
+    @Test
+    public void testBuilderWithDefaultCredentialsChainShouldSetDefaultCredentialsProvider() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+
+        // When
+        AwsServiceConfigurator awsServiceConfigurator = builder.withDefaultCredentialsChain().build();
+
+        // Then
+        assertInstanceOf(DefaultCredentialsProvider.class, awsServiceConfigurator.getCredentialsProvider());
+    }
+
+    @Test
+    public void testBuilderWithHttpSettingsShouldSetThem() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+
+        // When
+        AwsServiceConfigurator awsServiceConfigurator = builder
+                .withHttpClient(AwsServiceConfigurator.HttpClientType.URL_CONNECTION)
+                .withMaxConnections(500)
+                .withConnectionTimeToLive(Duration.ofMinutes(1))
+                .withTcpKeepAlive(true)
+                .withApiCallTimeouts(Duration.ofSeconds(30), Duration.ofSeconds(10))
+                .build();
+
+        // Then
+        assertEquals(AwsServiceConfigurator.HttpClientType.URL_CONNECTION, awsServiceConfigurator.getHttpClientType());
+        assertEquals(500, awsServiceConfigurator.getMaxConnections());
+        assertEquals(Duration.ofMinutes(1), awsServiceConfigurator.getConnectionTimeToLive());
+        assertTrue(awsServiceConfigurator.isTcpKeepAlive());
+        assertEquals(Duration.ofSeconds(30), awsServiceConfigurator.getApiCallTimeout());
+        assertEquals(Duration.ofSeconds(10), awsServiceConfigurator.getApiCallAttemptTimeout());
+    }
+
+    @Test
+    public void testBuilderWithInvalidMaxConnectionsShouldThrowIllegalArgumentException() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withMaxConnections(0));
+    }
+
+    @Test
+    public void testBuilderWithAttemptTimeoutOverCallTimeoutShouldThrowIllegalArgumentException() {
+        // Given
+        AwsServiceConfigurator.Builder builder = new AwsServiceConfigurator.Builder();
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withApiCallTimeouts(Duration.ofSeconds(1), Duration.ofSeconds(2)));
+    }
 }
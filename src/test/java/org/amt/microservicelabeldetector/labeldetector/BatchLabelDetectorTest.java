@@ -0,0 +1,135 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchLabelDetectorTest {
+    private static final int MAX_IN_FLIGHT = 2;
+    private final ConcurrentLabelDetector delegate = new ConcurrentLabelDetector();
+    private final BatchLabelDetector batchLabelDetector = new BatchLabelDetector(delegate, 4, MAX_IN_FLIGHT);
+
+    @AfterEach
+    public void tearDown() {
+        batchLabelDetector.close();
+    }
+
+    @Test
+    public void testDetectLabelsShouldReportEveryImage() throws Exception {
+        // Given
+        List<String> imageURLs = List.of("http://localhost/1.jpg", "not an url", "http://localhost/2.jpg", "http://localhost/invalid.jpg", "http://localhost/3.jpg");
+        RecordingListener listener = new RecordingListener();
+
+        // When
+        batchLabelDetector.detectLabels(imageURLs, 3, 50, listener);
+
+        // Then
+        assertEquals(3, listener.results.size());
+        assertEquals(2, listener.errors.size());
+        assertInstanceOf(MalformedURLException.class, listener.errors.get(1));
+        assertInstanceOf(LabelDetector.ImageFormatException.class, listener.errors.get(3));
+        assertTrue(delegate.maxConcurrentCalls.get() <= MAX_IN_FLIGHT);
+    }
+
+    @Test
+    public void testDetectLabelsFromDataObjectShouldReportEveryImage() throws Exception {
+        // Given
+        RecordingListener listener = new RecordingListener();
+
+        // When
+        batchLabelDetector.detectLabels("bucket", List.of("a", "b", "c"), 3, 50, listener);
+
+        // Then
+        assertEquals(3, listener.results.size());
+        assertTrue(listener.errors.isEmpty());
+    }
+
+    @Test
+    public void testDetectLabelsWithFailingListenerShouldStop() {
+        // Given
+        List<String> imageURLs = List.of("http://localhost/1.jpg", "http://localhost/2.jpg", "http://localhost/3.jpg");
+        BatchLabelDetector.ResultListener listener = new RecordingListener() {
+            @Override
+            public void onResult(int index, LabelDetectorResult result) throws IOException {
+                throw new IOException("Client disconnected");
+            }
+        };
+
+        // When & Then
+        assertThrows(IOException.class, () -> batchLabelDetector.detectLabels(imageURLs, 3, 50, listener));
+    }
+
+    private static class RecordingListener implements BatchLabelDetector.ResultListener {
+        private final Map<Integer, LabelDetectorResult> results = new ConcurrentHashMap<>();
+        private final Map<Integer, Exception> errors = new ConcurrentHashMap<>();
+
+        @Override
+        public void onResult(int index, LabelDetectorResult result) throws IOException {
+            results.put(index, result);
+        }
+
+        @Override
+        public void onError(int index, Exception exception) throws IOException {
+            errors.put(index, exception);
+        }
+    }
+
+    private static class ConcurrentLabelDetector implements LabelDetector {
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+        private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+        private LabelDetectorResult detect(String image) throws LabelDetectorException {
+            maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentCalls.decrementAndGet();
+            }
+            if (image.contains("invalid")) {
+                throw new ImageFormatException("Invalid image format");
+            }
+            return new LabelDetectorResult() {
+                @Override
+                public Map<String, Float> getLabels() {
+                    return Map.of(image, 99f);
+                }
+
+                @Override
+                public int getNbLabels() {
+                    return 1;
+                }
+
+                @Override
+                public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                    return this;
+                }
+            };
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect("bytes");
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(key);
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(url.toExternalForm());
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingLabelDetectorTest {
+    private static final byte[] IMAGE = {1, 2, 3};
+    private static final byte[] OTHER_IMAGE = {4, 5, 6};
+    private static final ImageDownloader DOWNLOADER = new ImageDownloader();
+
+    private CountingLabelDetector delegate;
+
+    @BeforeEach
+    public void setUp() {
+        delegate = new CountingLabelDetector();
+    }
+
+    @Test
+    public void testDetectLabelsTwiceWithSameImageShouldCallDelegateOnce() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+
+        // When
+        labelDetector.detectLabels(IMAGE, 3, 50);
+        LabelDetectorResult result = labelDetector.detectLabels(IMAGE.clone(), 3, 50);
+
+        // Then
+        assertEquals(1, delegate.calls.get());
+        assertEquals(3, result.getNbLabels());
+        assertEquals(1, labelDetector.getStats().getHitCount());
+        assertEquals(1, labelDetector.getStats().getMissCount());
+    }
+
+    @Test
+    public void testDetectLabelsWithNarrowerParametersShouldFilterCachedResult() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+        labelDetector.detectLabels(IMAGE, 4, 50);
+
+        // When
+        LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 3, 75);
+
+        // Then
+        assertEquals(1, delegate.calls.get());
+        assertEquals(Map.of("Car", 99f, "Vehicle", 90f), result.getLabels());
+    }
+
+    @Test
+    public void testDetectLabelsWithWiderParametersShouldCallDelegate() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+        labelDetector.detectLabels(IMAGE, 2, 50);
+
+        // When
+        labelDetector.detectLabels(IMAGE, 3, 50);
+        labelDetector.detectLabels(IMAGE, 3, 40);
+
+        // Then
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    public void testDetectLabelsWithMoreLabelsThanDetectedShouldUseCachedResult() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+        labelDetector.detectLabels(IMAGE, 10, 50);
+
+        // When
+        LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 20, 50);
+
+        // Then
+        assertEquals(1, delegate.calls.get());
+        assertEquals(4, result.getNbLabels());
+    }
+
+    @Test
+    public void testDetectLabelsOverMaxEntriesShouldEvictLeastRecentlyUsed() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).withMaxEntries(1).build();
+        labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // When
+        labelDetector.detectLabels(OTHER_IMAGE, 3, 50);
+        labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // Then
+        assertEquals(3, delegate.calls.get());
+        assertEquals(2, labelDetector.getStats().getEvictionCount());
+        assertEquals(1, labelDetector.getStats().getSize());
+    }
+
+    @Test
+    public void testDetectLabelsAfterTimeToLiveShouldCallDelegate() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).withTimeToLive(Duration.ofMillis(1)).build();
+        labelDetector.detectLabels(IMAGE, 3, 50);
+        Thread.sleep(5);
+
+        // When
+        labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // Then
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testDetectLabelsFromDataObjectTwiceShouldCallDelegateEachTime() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+
+        // When
+        labelDetector.detectLabels("bucket", "key", 3, 50);
+        labelDetector.detectLabels("bucket", "key", 3, 50);
+
+        // Then
+        assertEquals(2, delegate.calls.get());
+        assertEquals(0, labelDetector.getStats().getHitCount());
+    }
+
+    @Test
+    public void testDetectLabelsAfterRestartShouldUseStore(@TempDir Path directory) throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            new CachingLabelDetector.Builder(delegate, DOWNLOADER).withStore(store).build().detectLabels(IMAGE, 4, 50);
+        }
+
+        // When
+        LabelDetectorResult result;
+        CachingLabelDetector labelDetector;
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).withStore(store).build();
+            result = labelDetector.detectLabels(IMAGE, 3, 75);
+            labelDetector.detectLabels(IMAGE, 3, 75);
+        }
+
+        // Then
+        assertEquals(1, delegate.calls.get());
+        assertEquals(Map.of("Car", 99f, "Vehicle", 90f), result.getLabels());
+        assertEquals(2, labelDetector.getStats().getHitCount());
+        assertEquals(1, labelDetector.getStats().getStoreHitCount());
+    }
+
+    @Test
+    public void testDetectLabelsWithAnotherBackendShouldNotUseStore(@TempDir Path directory) throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            new CachingLabelDetector.Builder(delegate, DOWNLOADER).withBackend("rekognition").withStore(store).build()
+                    .detectLabels(IMAGE, 3, 50);
+        }
+
+        // When
+        CachingLabelDetector labelDetector;
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).withBackend("local:0123456789abcdef").withStore(store).build();
+            labelDetector.detectLabels(IMAGE, 3, 50);
+        }
+
+        // Then
+        assertEquals(2, delegate.calls.get());
+        assertEquals(0, labelDetector.getStats().getStoreHitCount());
+    }
+
+    @Test
+    public void testBuilderWithBlankBackendShouldThrowIllegalArgumentException() {
+        // Given
+        CachingLabelDetector.Builder builder = new CachingLabelDetector.Builder(delegate, DOWNLOADER);
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withBackend(" "));
+    }
+
+    @Test
+    public void testDetectLabelsWithNearDuplicateImageShouldReuseResult() throws Exception {
+        // Given
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        byte[] resized = new ImagePreprocessor.Builder().withMaxDimension(400).withQuality(0.5f).build().process(image);
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).withNearDuplicates(4).build();
+        labelDetector.detectLabels(image, 4, 50);
+
+        // When
+        LabelDetectorResult result = labelDetector.detectLabels(resized, 3, 75);
+        LabelDetectorResult again = labelDetector.detectLabels(resized, 3, 75);
+
+        // Then
+        assertEquals(1, delegate.calls.get());
+        assertEquals(Map.of("Car", 99f, "Vehicle", 90f), result.getLabels());
+        assertEquals(result.getLabels(), again.getLabels());
+        // the second request is an exact hit
+        assertEquals(1, labelDetector.getStats().getNearDuplicateHitCount());
+        assertEquals(2, labelDetector.getStats().getHitCount());
+        assertEquals(1, labelDetector.getStats().getMissCount());
+    }
+
+    @Test
+    public void testDetectLabelsWithNearDuplicatesShouldPassTheOriginalImageToDelegate() throws Exception {
+        // Given
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER)
+                .withNearDuplicates(4)
+                .withImagePreprocessor(new ImagePreprocessor.Builder().withMaxDimension(400).build())
+                .build();
+
+        // When
+        labelDetector.detectLabels(image, 3, 50);
+
+        // Then
+        assertArrayEquals(image, delegate.image);
+    }
+
+    @Test
+    public void testDetectLabelsWithNearDuplicatesDisabledShouldCallDelegate() throws Exception {
+        // Given
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        byte[] resized = new ImagePreprocessor.Builder().withMaxDimension(400).withQuality(0.5f).build().process(image);
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+        labelDetector.detectLabels(image, 4, 50);
+
+        // When
+        labelDetector.detectLabels(resized, 3, 75);
+
+        // Then
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testDetectLabelsWithInvalidParamShouldBeRejectedByDelegate() throws Exception {
+        // Given
+        CachingLabelDetector labelDetector = new CachingLabelDetector.Builder(delegate, DOWNLOADER).build();
+        labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // When & Then
+        assertThrows(LabelDetector.InvalidParamException.class, () -> labelDetector.detectLabels(IMAGE, -1, 50));
+    }
+
+    @Test
+    public void testBuilderWithInvalidMaxEntriesShouldThrowIllegalArgumentException() {
+        // Given
+        CachingLabelDetector.Builder builder = new CachingLabelDetector.Builder(delegate, DOWNLOADER);
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withMaxEntries(0));
+    }
+
+    private static class CountingLabelDetector implements LabelDetector {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile byte[] image;
+
+        private LabelDetectorResult detect(int maxLabels, float minConfidence) throws LabelDetectorException {
+            if (maxLabels < 1) {
+                throw new InvalidParamException("Max labels must be greater than 0");
+            }
+            calls.incrementAndGet();
+            Map<String, Float> labels = new LinkedHashMap<>();
+            labels.put("Car", 99f);
+            labels.put("Vehicle", 90f);
+            labels.put("Wheel", 70f);
+            labels.put("Road", 60f);
+            return new MapResult(labels).filter(maxLabels, minConfidence);
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            this.image = image;
+            return detect(maxLabels, minConfidence);
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(maxLabels, minConfidence);
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(maxLabels, minConfidence);
+        }
+    }
+
+    private static class MapResult implements LabelDetectorResult {
+        private final Map<String, Float> labels;
+
+        private MapResult(Map<String, Float> labels) {
+            this.labels = labels;
+        }
+
+        @Override
+        public Map<String, Float> getLabels() {
+            return labels;
+        }
+
+        @Override
+        public int getNbLabels() {
+            return labels.size();
+        }
+
+        @Override
+        public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+            Map<String, Float> filtered = new LinkedHashMap<>();
+            labels.forEach((name, confidence) -> {
+                if (confidence >= minConfidence && filtered.size() < maxLabels) {
+                    filtered.put(name, confidence);
+                }
+            });
+            return new MapResult(filtered);
+        }
+    }
+}
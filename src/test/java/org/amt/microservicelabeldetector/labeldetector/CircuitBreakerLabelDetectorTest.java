@@ -0,0 +1,300 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerLabelDetectorTest {
+    private static final byte[] IMAGE = new byte[]{1, 2, 3};
+
+    @Test
+    public void testFailuresAboveThresholdShouldOpenTheCircuit() {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.exception = new LabelDetector.InternalErrorException("Internal error");
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(10, 4)
+                .withOpenDuration(Duration.ofMinutes(1))
+                .build();
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertThrows(LabelDetector.InternalErrorException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        }
+
+        // Then
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        assertEquals(4, delegate.calls.get());
+        assertEquals(CircuitBreakerLabelDetector.State.OPEN, labelDetector.getStatus().getState());
+        assertEquals(1, labelDetector.getStatus().getRejectedCalls());
+    }
+
+    @Test
+    public void testRequestErrorsShouldNotOpenTheCircuit() {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.exception = new LabelDetector.ImageFormatException("Invalid format");
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(10, 4)
+                .build();
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            assertThrows(LabelDetector.ImageFormatException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        }
+
+        // Then
+        assertEquals(CircuitBreakerLabelDetector.State.CLOSED, labelDetector.getStatus().getState());
+        assertEquals(0, labelDetector.getStatus().getFailureRate());
+    }
+
+    @Test
+    public void testRekognitionTimeoutsShouldCountAsFailures() {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.exception = new LabelDetector.ServiceTimeoutException("Client execution did not complete before the specified timeout");
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(4, 2)
+                .build();
+
+        // When
+        assertThrows(LabelDetector.ServiceTimeoutException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        assertThrows(LabelDetector.ServiceTimeoutException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+
+        // Then
+        assertEquals(CircuitBreakerLabelDetector.State.OPEN, labelDetector.getStatus().getState());
+    }
+
+    @Test
+    public void testImageDownloadTimeoutsShouldNotOpenTheCircuit() throws Exception {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.timeout = true;
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(4, 2)
+                .build();
+        URL url = new URL("http://localhost/car.jpg");
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertThrows(SocketTimeoutException.class, () -> labelDetector.detectLabels(url, 3, 50));
+        }
+
+        // Then
+        // a slow image origin is not a failure of Rekognition
+        assertEquals(CircuitBreakerLabelDetector.State.CLOSED, labelDetector.getStatus().getState());
+        assertEquals(0, labelDetector.getStatus().getFailureRate());
+    }
+
+    @Test
+    public void testSuccessfulProbesShouldCloseTheCircuit() throws Exception {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.exception = new LabelDetector.ServiceUnavailableException("Service unavailable");
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(2, 2)
+                .withOpenDuration(Duration.ofMillis(50))
+                .withHalfOpenCalls(2)
+                .build();
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+
+        // When
+        Thread.sleep(100);
+        delegate.exception = null;
+        labelDetector.detectLabels(IMAGE, 3, 50);
+        labelDetector.detectLabels(IMAGE, 3, 50);
+
+        // Then
+        assertEquals(CircuitBreakerLabelDetector.State.CLOSED, labelDetector.getStatus().getState());
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void testFailedProbeShouldReopenTheCircuit() throws Exception {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.exception = new LabelDetector.ServiceUnavailableException("Service unavailable");
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(1, 1)
+                .withOpenDuration(Duration.ofMillis(50))
+                .build();
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        Thread.sleep(100);
+        assertEquals(CircuitBreakerLabelDetector.State.HALF_OPEN, labelDetector.getStatus().getState());
+
+        // When
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+
+        // Then
+        assertEquals(CircuitBreakerLabelDetector.State.OPEN, labelDetector.getStatus().getState());
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testCallsAboveBulkheadShouldBeRejected() throws Exception {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        delegate.release = new CountDownLatch(1);
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withBulkhead(1, Duration.ZERO)
+                .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<LabelDetectorResult> first = executor.submit(() -> labelDetector.detectLabels(IMAGE, 3, 50));
+        awaitConcurrentCalls(labelDetector, 1);
+
+        // When
+        assertThrows(LabelDetector.TooManyRequestsException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        delegate.release.countDown();
+
+        // Then
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, labelDetector.getStatus().getBulkheadRejectedCalls());
+        assertEquals(0, labelDetector.getStatus().getConcurrentCalls());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testAsyncFailuresShouldOpenTheCircuitForBothDetectors() {
+        // Given
+        FakeLabelDetector delegate = new FakeLabelDetector();
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(delegate)
+                .withWindow(10, 4)
+                .withOpenDuration(Duration.ofMinutes(1))
+                .build();
+        AsyncLabelDetector asyncLabelDetector = labelDetector.guard(new FakeAsyncLabelDetector(
+                () -> CompletableFuture.failedFuture(new LabelDetector.InternalErrorException("Internal error"))));
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertTrue(asyncLabelDetector.detectLabels(IMAGE, 3, 50).isCompletedExceptionally());
+        }
+
+        // Then
+        CompletableFuture<LabelDetectorResult> rejected = asyncLabelDetector.detectLabels(IMAGE, 3, 50);
+        Exception e = assertThrows(Exception.class, rejected::join);
+        assertInstanceOf(LabelDetector.ServiceUnavailableException.class, e.getCause());
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+        assertEquals(0, delegate.calls.get());
+        assertEquals(CircuitBreakerLabelDetector.State.OPEN, labelDetector.getStatus().getState());
+    }
+
+    @Test
+    public void testCancelAsyncCallShouldCancelTheDelegateAndReleaseTheBulkhead() {
+        // Given
+        CompletableFuture<LabelDetectorResult> call = new CompletableFuture<>();
+        CircuitBreakerLabelDetector labelDetector = new CircuitBreakerLabelDetector.Builder(new FakeLabelDetector())
+                .withBulkhead(1, Duration.ZERO)
+                .build();
+        AsyncLabelDetector asyncLabelDetector = labelDetector.guard(new FakeAsyncLabelDetector(() -> call));
+        CompletableFuture<LabelDetectorResult> result = asyncLabelDetector.detectLabels(IMAGE, 3, 50);
+        assertEquals(1, labelDetector.getStatus().getConcurrentCalls());
+
+        // When
+        result.cancel(true);
+
+        // Then
+        assertTrue(call.isCancelled());
+        assertEquals(0, labelDetector.getStatus().getConcurrentCalls());
+        assertEquals(0, labelDetector.getStatus().getBufferedCalls());
+    }
+
+    private static void awaitConcurrentCalls(CircuitBreakerLabelDetector labelDetector, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (labelDetector.getStatus().getConcurrentCalls() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static class FakeLabelDetector implements LabelDetector {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile LabelDetectorException exception;
+        private volatile boolean timeout;
+        private volatile CountDownLatch release;
+
+        private LabelDetectorResult detect() throws LabelDetectorException {
+            calls.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return new LabelDetectorResult() {
+                @Override
+                public Map<String, Float> getLabels() {
+                    return Map.of("Car", 99f);
+                }
+
+                @Override
+                public int getNbLabels() {
+                    return 1;
+                }
+
+                @Override
+                public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                    return this;
+                }
+            };
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws SocketTimeoutException, LabelDetectorException {
+            calls.incrementAndGet();
+            if (timeout) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return detect();
+        }
+    }
+
+    private static class FakeAsyncLabelDetector implements AsyncLabelDetector {
+        private final Supplier<CompletableFuture<LabelDetectorResult>> result;
+
+        private FakeAsyncLabelDetector(Supplier<CompletableFuture<LabelDetectorResult>> result) {
+            this.result = result;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+            return result.get();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+            return result.get();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+            return result.get();
+        }
+    }
+}
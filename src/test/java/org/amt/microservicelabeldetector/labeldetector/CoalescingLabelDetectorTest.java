@@ -0,0 +1,145 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoalescingLabelDetectorTest {
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentIdenticalRequestsShouldShareOneDetection() throws Exception {
+        // Given
+        BlockingLabelDetector delegate = new BlockingLabelDetector(null);
+        CoalescingLabelDetector labelDetector = new CoalescingLabelDetector(delegate);
+        URL url = new URL("http://localhost/car.jpg");
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<LabelDetectorResult>> results = new ArrayList<>();
+
+        // When
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> labelDetector.detectLabels(url, 3, 50)));
+        }
+        awaitCoalesced(labelDetector, CALLERS - 1);
+        delegate.release.countDown();
+
+        // Then
+        LabelDetectorResult first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<LabelDetectorResult> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, delegate.calls.get());
+        assertEquals(0, labelDetector.getInFlightRequests());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShouldShareTheException() throws Exception {
+        // Given
+        BlockingLabelDetector delegate = new BlockingLabelDetector(new LabelDetector.ImageFormatException("Invalid format"));
+        CoalescingLabelDetector labelDetector = new CoalescingLabelDetector(delegate);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // When
+        Future<LabelDetectorResult> first = executor.submit(() -> labelDetector.detectLabels(new byte[]{1, 2}, 3, 50));
+        Future<LabelDetectorResult> second = executor.submit(() -> labelDetector.detectLabels(new byte[]{1, 2}, 3, 50));
+        awaitCoalesced(labelDetector, 1);
+        delegate.release.countDown();
+
+        // Then
+        Exception e = assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(LabelDetector.ImageFormatException.class, e.getCause());
+        e = assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(LabelDetector.ImageFormatException.class, e.getCause());
+        assertEquals(1, delegate.calls.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRequestsWithDifferentParametersShouldNotBeCoalesced() throws Exception {
+        // Given
+        BlockingLabelDetector delegate = new BlockingLabelDetector(null);
+        delegate.release.countDown();
+        CoalescingLabelDetector labelDetector = new CoalescingLabelDetector(delegate);
+
+        // When
+        labelDetector.detectLabels("bucket", "key", 3, 50);
+        labelDetector.detectLabels("bucket", "key", 4, 50);
+        labelDetector.detectLabels("bucket", "key", 4, 50);
+
+        // Then
+        assertEquals(3, delegate.calls.get());
+        assertEquals(0, labelDetector.getCoalescedRequests());
+    }
+
+    private static void awaitCoalesced(CoalescingLabelDetector labelDetector, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (labelDetector.getCoalescedRequests() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static class BlockingLabelDetector implements LabelDetector {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private final LabelDetectorException exception;
+
+        private BlockingLabelDetector(LabelDetectorException exception) {
+            this.exception = exception;
+        }
+
+        private LabelDetectorResult detect() throws LabelDetectorException {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return new LabelDetectorResult() {
+                @Override
+                public Map<String, Float> getLabels() {
+                    return Map.of("Car", 99f);
+                }
+
+                @Override
+                public int getNbLabels() {
+                    return 1;
+                }
+
+                @Override
+                public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                    return this;
+                }
+            };
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.Parent;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DetectLabelResultTest {
+
+    private static AwsLabelDetectorHelperImpl.DetectLabelResult result(Label... labels) {
+        return new AwsLabelDetectorHelperImpl.DetectLabelResult(DetectLabelsResponse.builder().labels(labels).build());
+    }
+
+    private static Label label(String name, float confidence) {
+        return Label.builder().name(name).confidence(confidence).build();
+    }
+
+    @Test
+    public void testLabelsShouldBeSortedByDecreasingConfidence() {
+        // Given
+        AwsLabelDetectorHelperImpl.DetectLabelResult result = result(label("Road", 80), label("Car", 99), label("Vehicle", 90));
+
+        // When
+        Map<String, Float> labels = result.getLabels();
+
+        // Then
+        assertEquals(List.of("Car", "Vehicle", "Road"), List.copyOf(labels.keySet()));
+        assertEquals("Car", result.getName(0));
+        assertEquals(99f, result.getConfidence(0));
+        assertEquals(3, result.getNbLabels());
+    }
+
+    @Test
+    public void testDuplicateLabelsShouldKeepTheHighestConfidence() {
+        // Given
+        AwsLabelDetectorHelperImpl.DetectLabelResult result = result(label("Car", 80), label("Car", 95), label("Road", 90));
+
+        // When
+        Map<String, Float> labels = result.getLabels();
+
+        // Then
+        assertEquals(Map.of("Car", 95f, "Road", 90f), labels);
+        assertEquals(2, result.getNbLabels());
+    }
+
+    @Test
+    public void testFilterShouldKeepTheMostConfidentLabels() {
+        // Given
+        AwsLabelDetectorHelperImpl.DetectLabelResult result = result(label("Road", 80), label("Car", 99),
+                Label.builder().name("Vehicle").confidence(90f).parents(Parent.builder().name("Transportation").build()).build());
+
+        // When
+        AwsLabelDetectorHelperImpl.DetectLabelResult filtered = result.filter(2, 85);
+
+        // Then
+        assertEquals(2, filtered.getNbLabels());
+        assertEquals(List.of("Car", "Vehicle"), List.copyOf(filtered.getLabels().keySet()));
+        assertEquals(List.of("Transportation"), filtered.getParents(1));
+        assertSame(result, result.filter(10, 0));
+    }
+}
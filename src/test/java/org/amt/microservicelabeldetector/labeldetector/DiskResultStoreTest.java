@@ -0,0 +1,188 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Instance;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.Parent;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskResultStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    private static LabelDetectorResult result(String name, float confidence) {
+        Label label = Label.builder()
+                .name(name)
+                .confidence(confidence)
+                .parents(Parent.builder().name("Transportation").build())
+                .instances(Instance.builder()
+                        .confidence(confidence)
+                        .boundingBox(BoundingBox.builder().width(0.5f).height(0.25f).left(0.1f).top(0.2f).build())
+                        .build())
+                .build();
+        Label other = Label.builder().name("Road").confidence(60f).build();
+        return new AwsLabelDetectorHelperImpl.DetectLabelResult(DetectLabelsResponse.builder().labels(label, other).build());
+    }
+
+    @Test
+    public void testGetAfterReopenShouldReturnStoredResultWithDetails() throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            store.put("image", result("Car", 99), 10, 50);
+        }
+
+        // When
+        DiskResultStore.StoredResult stored;
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            stored = store.get("image");
+        }
+
+        // Then
+        assertNotNull(stored);
+        assertEquals(10, stored.getMaxLabels());
+        assertEquals(50f, stored.getMinConfidence());
+        assertEquals(Map.of("Car", 99f, "Road", 60f), stored.getResult().getLabels());
+        AwsLabelDetectorHelperImpl.DetectLabelResult result = (AwsLabelDetectorHelperImpl.DetectLabelResult) stored.getResult();
+        assertEquals(List.of("Transportation"), result.getParents(0));
+        BoundingBox box = result.getInstances(0).get(0).boundingBox();
+        assertEquals(0.5f, box.width());
+        assertEquals(0.2f, box.top());
+        assertTrue(result.getInstances(1).isEmpty());
+    }
+
+    @Test
+    public void testPutTwiceWithSameKeyShouldReturnLatestResult() throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            store.put("image", result("Car", 99), 10, 50);
+
+            // When
+            store.put("image", result("Truck", 95), 20, 40);
+            DiskResultStore.StoredResult stored = store.get("image");
+
+            // Then
+            assertEquals(95f, stored.getResult().getLabels().get("Truck"));
+            assertEquals(20, stored.getMaxLabels());
+            assertEquals(1, store.getStats().getSize());
+        }
+    }
+
+    @Test
+    public void testReopenWithTornRecordShouldKeepPreviousRecords() throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            store.put("first", result("Car", 99), 10, 50);
+            store.put("second", result("Truck", 95), 10, 50);
+        }
+        Path log = directory.resolve(DiskResultStore.LOG_FILE);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(log) - 3);
+        }
+
+        // When
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            store.put("third", result("Bus", 90), 10, 50);
+
+            // Then
+            assertNotNull(store.get("first"));
+            assertNull(store.get("second"));
+            assertNotNull(store.get("third"));
+        }
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).build()) {
+            assertNotNull(store.get("third"));
+        }
+    }
+
+    @Test
+    public void testPutOverMaxBytesShouldCompactOldestResults() throws Exception {
+        // Given
+        long maxBytes = 4096;
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).withMaxBytes(maxBytes).build()) {
+
+            // When
+            for (int i = 0; i < 100; i++) {
+                store.put("image" + i, result("Car", 99), 10, 50);
+                store.awaitCompaction();
+            }
+
+            // Then
+            DiskResultStore.Stats stats = store.getStats();
+            assertTrue(stats.getCompactionCount() > 0);
+            assertTrue(stats.getBytes() <= maxBytes);
+            assertEquals(stats.getBytes(), Files.size(directory.resolve(DiskResultStore.LOG_FILE)));
+            assertNull(store.get("image0"));
+            assertNotNull(store.get("image99"));
+        }
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).withMaxBytes(maxBytes).build()) {
+            assertNotNull(store.get("image99"));
+        }
+    }
+
+    @Test
+    public void testFailedCompactionShouldKeepTheCurrentLog() throws Exception {
+        // Given
+        long maxBytes = 4096;
+        // the compacted log cannot be created over a directory
+        Files.createDirectory(directory.resolve(DiskResultStore.COMPACTION_FILE));
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).withMaxBytes(maxBytes).build()) {
+
+            // When
+            for (int i = 0; i < 100; i++) {
+                store.put("image" + i, result("Car", 99), 10, 50);
+                store.awaitCompaction();
+            }
+
+            // Then
+            DiskResultStore.Stats stats = store.getStats();
+            assertEquals(0, stats.getCompactionCount());
+            assertTrue(stats.getCompactionFailureCount() > 0);
+            assertTrue(stats.getBytes() > maxBytes);
+            assertTrue(stats.getBytes() <= 2 * maxBytes);
+            assertNotNull(store.get("image0"));
+            store.put("image0", result("Truck", 95), 10, 50);
+        }
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).withMaxBytes(maxBytes).build()) {
+            assertNotNull(store.get("image0"));
+        }
+    }
+
+    @Test
+    public void testGetAfterTimeToLiveShouldReturnNull() throws Exception {
+        // Given
+        try (DiskResultStore store = new DiskResultStore.Builder(directory).withTimeToLive(Duration.ofMillis(1)).build()) {
+            store.put("image", result("Car", 99), 10, 50);
+            Thread.sleep(5);
+
+            // When
+            DiskResultStore.StoredResult stored = store.get("image");
+
+            // Then
+            assertNull(stored);
+            assertEquals(1, store.getStats().getMissCount());
+        }
+    }
+
+    @Test
+    public void testOpenTwiceShouldThrowIOException() throws Exception {
+        // Given
+        try (DiskResultStore ignored = new DiskResultStore.Builder(directory).build()) {
+
+            // When & Then
+            assertThrows(IOException.class, () -> new DiskResultStore.Builder(directory).build());
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgingLabelDetectorTest {
+    private static final byte[] IMAGE = new byte[16];
+
+    private static void warmUp(HedgingLabelDetector labelDetector, int calls) throws Exception {
+        for (int i = 0; i < calls; i++) {
+            labelDetector.detectLabels(IMAGE, 3, 50);
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithSlowRegionShouldReturnHedgedResult() throws Exception {
+        // Given
+        RegionDetector fast = new RegionDetector("fast", 2);
+        RegionDetector backup = new RegionDetector("backup", 20);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("fast", fast)
+                .withRegion("backup", backup)
+                .withHedgeDelay(0.95, Duration.ofMillis(20))
+                .withBudget(0.5)
+                .withProbeRate(0)
+                .build()) {
+            warmUp(labelDetector, 30);
+            fast.latencyMillis = 2000;
+
+            // When
+            long start = System.nanoTime();
+            LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 3, 50);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Then
+            assertEquals(Map.of("backup", 99f), result.getLabels());
+            assertTrue(elapsedMillis < 1000, "Took " + elapsedMillis + " ms");
+            assertEquals(1, labelDetector.getStats().getHedgedCalls());
+            assertEquals(1, labelDetector.getStats().getHedgeWins());
+            Thread.sleep(50);
+            assertEquals(1, fast.interrupted.get());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithoutBudgetShouldNotHedge() throws Exception {
+        // Given
+        RegionDetector slow = new RegionDetector("slow", 2);
+        RegionDetector backup = new RegionDetector("backup", 20);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("slow", slow)
+                .withRegion("backup", backup)
+                .withHedgeDelay(0.95, Duration.ofMillis(20))
+                .withBudget(0)
+                .withProbeRate(0)
+                .build()) {
+            warmUp(labelDetector, 30);
+            slow.latencyMillis = 200;
+
+            // When
+            LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 3, 50);
+
+            // Then
+            assertEquals(Map.of("slow", 99f), result.getLabels());
+            assertEquals(0, labelDetector.getStats().getHedgedCalls());
+            assertEquals(1, labelDetector.getStats().getBudgetRejections());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithRegionFailingFastShouldHedgeAtOnce() throws Exception {
+        // Given
+        RegionDetector flaky = new RegionDetector("flaky", 2);
+        RegionDetector backup = new RegionDetector("backup", 20);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("flaky", flaky)
+                .withRegion("backup", backup)
+                .withHedgeDelay(0.95, Duration.ofSeconds(5))
+                .withBudget(0.5)
+                .withProbeRate(0)
+                .build()) {
+            warmUp(labelDetector, 30);
+            flaky.failing = true;
+
+            // When
+            long start = System.nanoTime();
+            LabelDetectorResult result = labelDetector.detectLabels(IMAGE, 3, 50);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Then
+            // the hedge is sent without waiting for the hedge delay
+            assertEquals(Map.of("backup", 99f), result.getLabels());
+            assertTrue(elapsedMillis < 1000, "Took " + elapsedMillis + " ms");
+            assertEquals(1, labelDetector.getStats().getHedgedCalls());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithRegionFailingFastWithoutBudgetShouldFail() throws Exception {
+        // Given
+        RegionDetector flaky = new RegionDetector("flaky", 2);
+        RegionDetector backup = new RegionDetector("backup", 20);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("flaky", flaky)
+                .withRegion("backup", backup)
+                .withHedgeDelay(0.95, Duration.ofSeconds(5))
+                .withBudget(0)
+                .withProbeRate(0)
+                .build()) {
+            warmUp(labelDetector, 30);
+            flaky.failing = true;
+
+            // When & Then
+            assertThrows(LabelDetector.ServiceUnavailableException.class, () -> labelDetector.detectLabels(IMAGE, 3, 50));
+            assertEquals(0, labelDetector.getStats().getHedgedCalls());
+            assertEquals(1, labelDetector.getStats().getBudgetRejections());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithFailingRegionShouldRouteToOtherRegion() throws Exception {
+        // Given
+        RegionDetector failing = new RegionDetector("failing", 5);
+        failing.failing = true;
+        RegionDetector healthy = new RegionDetector("healthy", 5);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("failing", failing)
+                .withRegion("healthy", healthy)
+                .withProbeRate(0)
+                .build()) {
+
+            // When
+            int failures = 0;
+            for (int i = 0; i < 20; i++) {
+                try {
+                    labelDetector.detectLabels(IMAGE, 3, 50);
+                } catch (LabelDetector.ServiceUnavailableException e) {
+                    failures++;
+                }
+            }
+
+            // Then
+            assertTrue(failures <= 2, failures + " failures");
+            assertTrue(healthy.calls.get() >= 18);
+            assertEquals(failures, labelDetector.getStats().getRegions().get(0).getFailures());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsFromDataObjectShouldUseFirstRegion() throws Exception {
+        // Given
+        RegionDetector first = new RegionDetector("first", 20);
+        RegionDetector second = new RegionDetector("second", 1);
+        try (HedgingLabelDetector labelDetector = new HedgingLabelDetector.Builder()
+                .withRegion("first", first)
+                .withRegion("second", second)
+                .build()) {
+            warmUp(labelDetector, 5);
+
+            // When
+            LabelDetectorResult result = labelDetector.detectLabels("bucket", "car.jpg", 3, 50);
+
+            // Then
+            assertEquals(Map.of("first", 99f), result.getLabels());
+        }
+    }
+
+    @Test
+    public void testBuilderWithoutRegionShouldThrowIllegalStateException() {
+        // Given
+        HedgingLabelDetector.Builder builder = new HedgingLabelDetector.Builder();
+
+        // When & Then
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+
+    /**
+     * Label detector of a region, answering with its name after its latency.
+     */
+    private static class RegionDetector implements LabelDetector {
+        private final String name;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger interrupted = new AtomicInteger();
+        private volatile long latencyMillis;
+        private volatile boolean failing;
+
+        private RegionDetector(String name, long latencyMillis) {
+            this.name = name;
+            this.latencyMillis = latencyMillis;
+        }
+
+        private LabelDetectorResult detect() throws LabelDetectorException {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw new ServiceUnavailableException("Interrupted");
+            }
+            if (failing) {
+                throw new ServiceUnavailableException("Region unavailable");
+            }
+            return new LabelDetectorResult() {
+                @Override
+                public Map<String, Float> getLabels() {
+                    return Map.of(name, 99f);
+                }
+
+                @Override
+                public int getNbLabels() {
+                    return 1;
+                }
+
+                @Override
+                public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                    return this;
+                }
+            };
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageDownloaderTest {
+    private static final int MAX_BYTES = 1024;
+    // enough of car.jpg for its header, dimensions included
+    private static final int SMALL_BYTES = 200;
+    private static HttpServer server;
+    private static byte[] imageBytes;
+    private static ImageDownloader imageDownloader;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        imageBytes = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        imageDownloader = new ImageDownloader.Builder().withMaxBytes(MAX_BYTES).build();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/small.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, SMALL_BYTES);
+            exchange.getResponseBody().write(imageBytes, 0, SMALL_BYTES);
+            exchange.close();
+        });
+        server.createContext("/chunked.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(imageBytes, 0, SMALL_BYTES);
+            }
+        });
+        server.createContext("/large.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, imageBytes.length);
+            exchange.getResponseBody().write(imageBytes);
+            exchange.close();
+        });
+        server.createContext("/large-chunked.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(imageBytes);
+            } catch (IOException e) {
+                // the client aborted the download
+            }
+        });
+        server.createContext("/page.html", exchange -> {
+            byte[] page = "<html></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+            exchange.close();
+        });
+        server.createContext("/page-as-image.jpg", exchange -> {
+            // an error page served with the type of the image it replaces
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 1000; i++) {
+                    body.write("<html><body>Not found</body></html>\n".getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // the client aborted the download
+            }
+        });
+        server.createContext("/truncated.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 100);
+            exchange.getResponseBody().write(imageBytes, 0, 100);
+            exchange.close();
+        });
+        server.createContext("/missing.jpg", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private static URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void testDownloadWithContentLengthShouldReturnImage() throws Exception {
+        // When
+        byte[] image = imageDownloader.download(url("/small.jpg"));
+
+        // Then
+        assertEquals(SMALL_BYTES, image.length);
+        assertEquals(imageBytes[0], image[0]);
+    }
+
+    @Test
+    public void testDownloadShouldUpdateStats() throws Exception {
+        // Given
+        ImageDownloader downloader = new ImageDownloader.Builder().withMaxBytes(MAX_BYTES).build();
+
+        // When
+        downloader.download(url("/small.jpg"));
+        downloader.download(url("/small.jpg"));
+
+        // Then
+        ImageDownloader.Stats stats = downloader.getStats();
+        assertEquals(2, stats.getRequests());
+        assertEquals(2 * SMALL_BYTES, stats.getBytesDownloaded());
+        assertEquals(0, stats.getActiveDownloads());
+    }
+
+    @Test
+    public void testDownloadShouldDropPermitsOfIdleHosts() throws Exception {
+        // Given
+        ImageDownloader downloader = new ImageDownloader.Builder().withMaxBytes(MAX_BYTES).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/slow.jpg", exchange -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, SMALL_BYTES);
+            exchange.getResponseBody().write(imageBytes, 0, SMALL_BYTES);
+            exchange.close();
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // When
+        Future<byte[]> image = executor.submit(() -> downloader.download(url("/slow.jpg")));
+        started.await();
+        ImageDownloader.Stats during = downloader.getStats();
+        release.countDown();
+        image.get();
+        executor.shutdown();
+
+        // Then
+        assertEquals(1, during.getHosts());
+        assertEquals(1, during.getActiveDownloads());
+        assertEquals(0, downloader.getStats().getHosts());
+    }
+
+    @Test
+    public void testDownloadWithoutContentLengthShouldReturnImage() throws Exception {
+        // When
+        byte[] image = imageDownloader.download(url("/chunked.jpg"));
+
+        // Then
+        assertEquals(SMALL_BYTES, image.length);
+    }
+
+    @Test
+    public void testDownloadWithLargeContentLengthShouldRaiseException() {
+        // When & Then
+        assertThrows(LabelDetector.InvalidImageSizeException.class, () -> imageDownloader.download(url("/large.jpg")));
+    }
+
+    @Test
+    public void testDownloadWithLargeBodyShouldRaiseException() {
+        // When & Then
+        assertThrows(LabelDetector.InvalidImageSizeException.class, () -> imageDownloader.download(url("/large-chunked.jpg")));
+    }
+
+    @Test
+    public void testDownloadWithHtmlContentTypeShouldRaiseException() {
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> imageDownloader.download(url("/page.html")));
+    }
+
+    @Test
+    public void testDownloadWithHtmlBodyShouldRaiseImageFormatException() {
+        // When & Then
+        LabelDetector.ImageFormatException e = assertThrows(LabelDetector.ImageFormatException.class, () -> imageDownloader.download(url("/page-as-image.jpg")));
+        assertTrue(e.getMessage().contains("HTML"), e.getMessage());
+    }
+
+    @Test
+    public void testDownloadWithTruncatedHeaderShouldRaiseImageFormatException() {
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> imageDownloader.download(url("/truncated.jpg")));
+    }
+
+    @Test
+    public void testReadImageWithWebPShouldRaiseImageFormatExceptionOnFirstBytes() {
+        // Given
+        byte[] webp = new byte[MAX_BYTES];
+        System.arraycopy("RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII), 0, webp, 0, 16);
+        ByteArrayInputStream stream = new ByteArrayInputStream(webp);
+
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> ImageDownloader.readImage(new LimitedReadStream(stream, 64), -1, MAX_BYTES));
+        assertEquals(MAX_BYTES - 64, stream.available());
+    }
+
+    @Test
+    public void testDownloadWithErrorStatusShouldRaiseException() {
+        // When & Then
+        assertThrows(IOException.class, () -> imageDownloader.download(url("/missing.jpg")));
+    }
+
+    @Test
+    public void testDownloadWithFileUrlShouldRaiseMalformedURLException() throws Exception {
+        // Given
+        URL file = Paths.get("src/test/resources/car.jpg").toUri().toURL();
+
+        // When & Then
+        assertThrows(MalformedURLException.class, () -> imageDownloader.download(file));
+    }
+
+    @Test
+    public void testReadBoundedWithLongerStreamThanAnnouncedShouldRaiseException() {
+        // Given
+        ByteArrayInputStream stream = new ByteArrayInputStream(new byte[20]);
+
+        // When & Then
+        assertThrows(LabelDetector.InvalidImageSizeException.class, () -> ImageDownloader.readBounded(stream, 10, MAX_BYTES));
+    }
+
+    @Test
+    public void testReadBoundedWithLargeContentLengthShouldRaiseExceptionBeforeReading() {
+        // Given
+        ByteArrayInputStream stream = new ByteArrayInputStream(new byte[20]);
+
+        // When & Then
+        assertThrows(LabelDetector.InvalidImageSizeException.class, () -> ImageDownloader.readBounded(stream, MAX_BYTES + 1, MAX_BYTES));
+        assertEquals(20, stream.available());
+    }
+
+    /**
+     * Stream returning at most a number of bytes per read, as a network stream does.
+     */
+    private static class LimitedReadStream extends FilterInputStream {
+        private final int maxRead;
+
+        private LimitedReadStream(InputStream stream, int maxRead) {
+            super(stream);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, maxRead));
+        }
+    }
+}
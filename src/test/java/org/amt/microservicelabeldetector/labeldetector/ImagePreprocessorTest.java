@@ -0,0 +1,106 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImagePreprocessorTest {
+    private static final int MAX_DIMENSION = 800;
+    private static byte[] imageBytes;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        imageBytes = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+    }
+
+    @Test
+    public void testProcessLargeImageShouldDownscaleIt() throws Exception {
+        // Given
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor.Builder().withMaxDimension(MAX_DIMENSION).build();
+
+        // When
+        byte[] processed = imagePreprocessor.process(imageBytes);
+
+        // Then
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(processed));
+        assertEquals(MAX_DIMENSION, Math.max(image.getWidth(), image.getHeight()));
+        assertTrue(processed.length < imageBytes.length);
+        assertEquals(1, imagePreprocessor.getStats().getReencodedImages());
+        assertEquals(imageBytes.length - processed.length, imagePreprocessor.getStats().getBytesSaved());
+    }
+
+    @Test
+    public void testProcessSmallImageShouldKeepIt() throws Exception {
+        // Given
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor.Builder().withMaxDimension(MAX_DIMENSION).build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), "png", output);
+        byte[] small = output.toByteArray();
+
+        // When
+        byte[] processed = imagePreprocessor.process(small);
+
+        // Then
+        assertSame(small, processed);
+        assertEquals(0, imagePreprocessor.getStats().getReencodedImages());
+    }
+
+    @Test
+    public void testProcessSmallImageAboveTheRekognitionLimitShouldReencodeIt() throws Exception {
+        // Given
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor.Builder().build();
+        // noise does not compress, the PNG is larger than its 1500x1500 pixels let a JPEG be
+        BufferedImage noise = new BufferedImage(1500, 1500, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(noise, "png", output);
+        byte[] large = output.toByteArray();
+
+        // When
+        byte[] processed = imagePreprocessor.process(large);
+
+        // Then
+        assertTrue(large.length > ImageDownloader.MAX_IMAGE_BYTES);
+        assertTrue(processed.length <= ImageDownloader.MAX_IMAGE_BYTES, "Processed size " + processed.length);
+        assertEquals(1500, ImageIO.read(new ByteArrayInputStream(processed)).getWidth());
+        assertEquals(1, imagePreprocessor.getStats().getReencodedImages());
+    }
+
+    @Test
+    public void testProcessInvalidImageShouldKeepIt() {
+        // Given
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor.Builder().build();
+        byte[] invalid = {1, 2, 3};
+
+        // When
+        byte[] processed = imagePreprocessor.process(invalid);
+
+        // Then
+        assertSame(invalid, processed);
+        assertEquals(1, imagePreprocessor.getStats().getImages());
+    }
+
+    @Test
+    public void testBuilderWithInvalidQualityShouldThrowIllegalArgumentException() {
+        // Given
+        ImagePreprocessor.Builder builder = new ImagePreprocessor.Builder();
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withQuality(0));
+    }
+}
@@ -0,0 +1,103 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageSignatureTest {
+    // offset of the height of car.jpg in its frame header, followed by its width
+    private static final int JPEG_HEIGHT_OFFSET = 163;
+    private static byte[] jpeg;
+    private static byte[] png;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        jpeg = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(120, 80, BufferedImage.TYPE_INT_RGB), "png", bytes);
+        png = bytes.toByteArray();
+    }
+
+    @Test
+    public void testCheckWithJpegHeaderShouldReturnTrue() throws Exception {
+        // When & Then
+        assertTrue(ImageSignature.check(jpeg, 200));
+    }
+
+    @Test
+    public void testCheckWithJpegBeforeItsDimensionsShouldNeedMoreBytes() throws Exception {
+        // When & Then
+        assertFalse(ImageSignature.check(jpeg, 2));
+        assertFalse(ImageSignature.check(jpeg, 100));
+    }
+
+    @Test
+    public void testCheckWithPngHeaderShouldReturnTrue() throws Exception {
+        // When & Then
+        assertFalse(ImageSignature.check(png, 16));
+        assertTrue(ImageSignature.check(png, 24));
+    }
+
+    @Test
+    public void testCheckWithHtmlShouldRaiseImageFormatException() {
+        // Given
+        byte[] page = "\n<!DOCTYPE html><html></html>".getBytes(StandardCharsets.UTF_8);
+
+        // When & Then
+        LabelDetector.ImageFormatException e = assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.check(page, page.length));
+        assertTrue(e.getMessage().contains("HTML"), e.getMessage());
+    }
+
+    @Test
+    public void testCheckWithWebPShouldRaiseImageFormatException() {
+        // Given
+        byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII);
+
+        // When & Then
+        LabelDetector.ImageFormatException e = assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.check(webp, webp.length));
+        assertTrue(e.getMessage().contains("WebP"), e.getMessage());
+    }
+
+    @Test
+    public void testCheckWithZeroWidthShouldRaiseImageFormatException() {
+        // Given
+        byte[] image = Arrays.copyOf(jpeg, 200);
+        image[JPEG_HEIGHT_OFFSET + 2] = 0;
+        image[JPEG_HEIGHT_OFFSET + 3] = 0;
+
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.check(image, image.length));
+    }
+
+    @Test
+    public void testCheckWithTooManyPixelsShouldRaiseImageFormatException() {
+        // Given
+        byte[] image = Arrays.copyOf(png, 24);
+        // 100000 x 100000 pixels
+        image[16] = 0;
+        image[17] = 0x01;
+        image[18] = (byte) 0x86;
+        image[19] = (byte) 0xA0;
+        System.arraycopy(image, 16, image, 20, 4);
+
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.check(image, image.length));
+    }
+
+    @Test
+    public void testCheckCompleteWithTruncatedHeaderShouldRaiseImageFormatException() {
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.checkComplete(jpeg, 100));
+        assertThrows(LabelDetector.ImageFormatException.class, () -> ImageSignature.checkComplete(jpeg, 0));
+    }
+}
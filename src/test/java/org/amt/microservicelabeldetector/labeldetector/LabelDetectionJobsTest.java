@@ -0,0 +1,176 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabelDetectionJobsTest {
+
+    private static LabelDetectionJobs.Job awaitCompletion(BlockingQueue<LabelDetectionJobs.Job> completed) throws InterruptedException {
+        LabelDetectionJobs.Job job = completed.poll(5, TimeUnit.SECONDS);
+        assertNotNull(job);
+        return job;
+    }
+
+    @Test
+    public void testSubmitShouldCompleteJobWithResult() throws Exception {
+        // Given
+        BlockingQueue<LabelDetectionJobs.Job> completed = new LinkedBlockingQueue<>();
+        try (LabelDetectionJobs jobs = new LabelDetectionJobs.Builder(new GatedLabelDetector(new CountDownLatch(0)))
+                .withCompletionListener(completed::add)
+                .build()) {
+
+            // When
+            LabelDetectionJobs.Job job = jobs.submit(new URL("http://localhost/car.jpg"), 3, 50, URI.create("http://localhost/callback"));
+            awaitCompletion(completed);
+
+            // Then
+            LabelDetectionJobs.Job polled = jobs.get(job.getId());
+            assertSame(job, polled);
+            assertEquals(LabelDetectionJobs.State.SUCCEEDED, polled.getState());
+            assertEquals(Map.of("http://localhost/car.jpg", 99f), polled.getResult().getLabels());
+            assertEquals(URI.create("http://localhost/callback"), polled.getCallback());
+            assertNotNull(polled.getCompletedAt());
+        }
+    }
+
+    @Test
+    public void testSubmitWithFailingDetectionShouldCompleteJobWithException() throws Exception {
+        // Given
+        BlockingQueue<LabelDetectionJobs.Job> completed = new LinkedBlockingQueue<>();
+        try (LabelDetectionJobs jobs = new LabelDetectionJobs.Builder(new GatedLabelDetector(new CountDownLatch(0)))
+                .withCompletionListener(completed::add)
+                .build()) {
+
+            // When
+            jobs.submit("bucket", "invalid.jpg", 3, 50, null);
+            LabelDetectionJobs.Job job = awaitCompletion(completed);
+
+            // Then
+            assertEquals(LabelDetectionJobs.State.FAILED, job.getState());
+            assertInstanceOf(LabelDetector.ImageFormatException.class, job.getException());
+            assertNull(job.getResult());
+        }
+    }
+
+    @Test
+    public void testSubmitWithFullQueueShouldThrowTooManyRequestsException() throws Exception {
+        // Given
+        CountDownLatch gate = new CountDownLatch(1);
+        try (LabelDetectionJobs jobs = new LabelDetectionJobs.Builder(new GatedLabelDetector(gate))
+                .withThreads(1)
+                .withMaxQueueSize(1)
+                .build()) {
+            LabelDetectionJobs.Job running = jobs.submit("bucket", "1.jpg", 3, 50, null);
+            LabelDetectionJobs.Job pending = jobs.submit("bucket", "2.jpg", 3, 50, null);
+
+            // When & Then
+            assertThrows(LabelDetector.TooManyRequestsException.class, () -> jobs.submit("bucket", "3.jpg", 3, 50, null));
+            assertEquals(LabelDetectionJobs.State.PENDING, pending.getState());
+            assertEquals(1, jobs.getStats().getRejected());
+            assertEquals(1, jobs.getStats().getQueued());
+            assertNotNull(jobs.get(running.getId()));
+            gate.countDown();
+        }
+    }
+
+    @Test
+    public void testGetOverMaxRetainedShouldForgetOldestJobs() throws Exception {
+        // Given
+        BlockingQueue<LabelDetectionJobs.Job> completed = new LinkedBlockingQueue<>();
+        try (LabelDetectionJobs jobs = new LabelDetectionJobs.Builder(new GatedLabelDetector(new CountDownLatch(0)))
+                .withThreads(1)
+                .withRetention(Duration.ofHours(1), 1)
+                .withCompletionListener(completed::add)
+                .build()) {
+            List<LabelDetectionJobs.Job> submitted = List.of(
+                    jobs.submit("bucket", "1.jpg", 3, 50, null),
+                    jobs.submit("bucket", "2.jpg", 3, 50, null));
+            awaitCompletion(completed);
+            awaitCompletion(completed);
+
+            // When
+            LabelDetectionJobs.Job oldest = jobs.get(submitted.get(0).getId());
+            LabelDetectionJobs.Job latest = jobs.get(submitted.get(1).getId());
+
+            // Then
+            assertNull(oldest);
+            assertNotNull(latest);
+            assertEquals(1, jobs.getStats().getExpired());
+            assertEquals(1, jobs.getStats().getRetained());
+        }
+    }
+
+    @Test
+    public void testBuilderWithInvalidMaxQueueSizeShouldThrowIllegalArgumentException() {
+        // Given
+        LabelDetectionJobs.Builder builder = new LabelDetectionJobs.Builder(new GatedLabelDetector(new CountDownLatch(0)));
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withMaxQueueSize(0));
+    }
+
+    /**
+     * Label detector waiting for its gate to open, labelling each image with its name.
+     */
+    private static class GatedLabelDetector implements LabelDetector {
+        private final CountDownLatch gate;
+
+        private GatedLabelDetector(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        private LabelDetectorResult detect(String image) throws LabelDetectorException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceUnavailableException("Interrupted");
+            }
+            if (image.contains("invalid")) {
+                throw new ImageFormatException("Invalid image format");
+            }
+            return new LabelDetectorResult() {
+                @Override
+                public Map<String, Float> getLabels() {
+                    return Map.of(image, 99f);
+                }
+
+                @Override
+                public int getNbLabels() {
+                    return 1;
+                }
+
+                @Override
+                public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+                    return this;
+                }
+            };
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(byte[] image, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect("bytes");
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(String dataObject, String key, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(key);
+        }
+
+        @Override
+        public LabelDetectorResult detectLabels(URL url, int maxLabels, float minConfidence) throws LabelDetectorException {
+            return detect(url.toExternalForm());
+        }
+    }
+}
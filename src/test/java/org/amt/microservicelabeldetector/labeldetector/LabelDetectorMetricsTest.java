@@ -0,0 +1,58 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabelDetectorMetricsTest {
+
+    @Test
+    public void testRecordShouldTimeThePhase() {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LabelDetectorMetrics metrics = new LabelDetectorMetrics(registry);
+
+        // When
+        metrics.record(LabelDetectorMetrics.Phase.REKOGNITION, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+
+        // Then
+        assertEquals(1, registry.get("labeldetector.phase").tag("phase", "rekognition").timer().count());
+        assertTrue(registry.get("labeldetector.phase").tag("phase", "rekognition").timer().totalTime(TimeUnit.MILLISECONDS) >= 5);
+        assertEquals(0, registry.get("labeldetector.phase").tag("phase", "download").timer().count());
+    }
+
+    @Test
+    public void testRecordErrorShouldCountByExceptionType() {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LabelDetectorMetrics metrics = new LabelDetectorMetrics(registry);
+
+        // When
+        metrics.recordError(new LabelDetector.ImageFormatException("Invalid format"));
+        metrics.recordError(new CompletionException(new LabelDetector.ImageFormatException("Invalid format")));
+        metrics.recordError(new LabelDetector.TooManyRequestsException("Too many requests"));
+
+        // Then
+        assertEquals(2, registry.get("labeldetector.errors").tag("exception", "ImageFormatException").counter().count());
+        assertEquals(1, registry.get("labeldetector.errors").tag("exception", "TooManyRequestsException").counter().count());
+    }
+
+    @Test
+    public void testRecordImagesShouldSummarizeTheSizes() {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LabelDetectorMetrics metrics = new LabelDetectorMetrics(registry);
+
+        // When
+        metrics.recordReceivedImage(1000);
+        metrics.recordSentImage(200);
+
+        // Then
+        assertEquals(1000, registry.get("labeldetector.image.bytes").tag("stage", "received").summary().totalAmount());
+        assertEquals(200, registry.get("labeldetector.image.bytes").tag("stage", "sent").summary().totalAmount());
+    }
+}
@@ -0,0 +1,181 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabelDetectorWarmUpTest {
+    private static final int CONNECTIONS = 3;
+    private static final AtomicInteger rekognitionCalls = new AtomicInteger();
+    private static HttpServer server;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        byte[] imageBytes = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            // Rekognition rejecting a payload which is not an image
+            rekognitionCalls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            byte[] error = "{\"__type\":\"InvalidImageFormatException\",\"Message\":\"Request has invalid image format\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.1");
+            exchange.sendResponseHeaders(400, error.length);
+            exchange.getResponseBody().write(error);
+            exchange.close();
+        });
+        server.createContext("/car.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, imageBytes.length);
+            exchange.getResponseBody().write(imageBytes);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private static RekognitionClient client(int port) {
+        return RekognitionClient.builder()
+                .region(Region.EU_WEST_2)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .endpointOverride(URI.create("http://localhost:" + port))
+                .httpClientBuilder(ApacheHttpClient.builder())
+                .overrideConfiguration(configuration -> configuration.retryPolicy(RetryPolicy.none()))
+                .build();
+    }
+
+    @Test
+    public void testRunShouldCallRekognitionAndDownloadOrigins() throws Exception {
+        // Given
+        rekognitionCalls.set(0);
+        AtomicInteger written = new AtomicInteger();
+        try (RekognitionClient client = client(server.getAddress().getPort())) {
+            LabelDetectorWarmUp warmUp = new LabelDetectorWarmUp.Builder()
+                    .withCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                    .withRekognitionClient(client)
+                    .withConnections(CONNECTIONS)
+                    .withImageOrigins(new ImageDownloader(), List.of(new URL("http://localhost:" + server.getAddress().getPort() + "/car.jpg")))
+                    .withImagePreprocessor(new ImagePreprocessor.Builder().build())
+                    .withResultWriter(result -> written.incrementAndGet())
+                    .withIterations(5)
+                    .build();
+
+            // When
+            LabelDetectorWarmUp.Report report = warmUp.run();
+
+            // Then
+            assertTrue(report.isCredentialsResolved());
+            assertEquals(CONNECTIONS, report.getRekognitionConnections());
+            assertEquals(CONNECTIONS, rekognitionCalls.get());
+            assertEquals(CONNECTIONS, report.getDownloads());
+            assertEquals(5, report.getIterations());
+            assertEquals(1000, written.get());
+            assertEquals(0, report.getFailures());
+            assertFalse(report.isTimedOut());
+        }
+    }
+
+    @Test
+    public void testRunWithUnreachableRekognitionShouldCountFailures() throws Exception {
+        // Given
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        try (RekognitionClient client = client(closedPort)) {
+            LabelDetectorWarmUp warmUp = new LabelDetectorWarmUp.Builder()
+                    .withRekognitionClient(client)
+                    .withConnections(CONNECTIONS)
+                    .withIterations(1)
+                    .build();
+
+            // When
+            LabelDetectorWarmUp.Report report = warmUp.run();
+
+            // Then
+            assertEquals(0, report.getRekognitionConnections());
+            assertEquals(CONNECTIONS, report.getFailures());
+            assertEquals(1, report.getIterations());
+        }
+    }
+
+    @Test
+    public void testRunWithLocalLabelDetectorShouldRunTheModel() throws Exception {
+        // Given
+        try (LocalLabelDetector localLabelDetector = new LocalLabelDetector.Builder(
+                Paths.get("src/test/resources/local/mean-color.onnx"), Paths.get("src/test/resources/local/mean-color.txt"),
+                new ImageDownloader())
+                .withSessions(1)
+                .build()) {
+            LabelDetectorWarmUp warmUp = new LabelDetectorWarmUp.Builder()
+                    .withLocalLabelDetector(localLabelDetector)
+                    .withIterations(3)
+                    .build();
+
+            // When
+            LabelDetectorWarmUp.Report report = warmUp.run();
+
+            // Then
+            assertEquals(3, report.getIterations());
+            assertEquals(0, report.getFailures());
+            assertEquals(3, localLabelDetector.getStats().getInferences());
+        }
+    }
+
+    @Test
+    public void testRunOverTimeoutShouldReturnAtTimeout() {
+        // Given
+        LabelDetectorWarmUp warmUp = new LabelDetectorWarmUp.Builder()
+                .withResultWriter(result -> {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .withTimeout(Duration.ofMillis(500))
+                .build();
+
+        // When
+        LabelDetectorWarmUp.Report report = warmUp.run();
+
+        // Then
+        assertTrue(report.isTimedOut());
+        assertEquals(1, report.getFailures());
+        assertTrue(report.getDuration().toMillis() < 5000, report.toString());
+    }
+
+    @Test
+    public void testBuilderWithZeroConnectionsShouldThrowIllegalArgumentException() {
+        // Given
+        LabelDetectorWarmUp.Builder builder = new LabelDetectorWarmUp.Builder();
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> builder.withConnections(0));
+    }
+}
@@ -0,0 +1,186 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalLabelDetectorTest {
+    // averages each channel of a 32x32 image, its scores being the mean red, green and blue
+    private static final Path MODEL = Paths.get("src/test/resources/local/mean-color.onnx");
+    private static final Path LABELS = Paths.get("src/test/resources/local/mean-color.txt");
+    private static final ImageDownloader DOWNLOADER = new ImageDownloader();
+    private static LocalLabelDetector detector;
+    private static byte[] red;
+    private static byte[] blue;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        detector = new LocalLabelDetector.Builder(MODEL, LABELS, DOWNLOADER).withSessions(2).build();
+        red = image(Color.RED, "png");
+        blue = image(new Color(20, 40, 220), "jpg");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        detector.close();
+    }
+
+    private static byte[] image(Color color, String format) throws IOException {
+        BufferedImage image = new BufferedImage(120, 80, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 120, 80);
+        graphics.dispose();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, format, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testDetectLabelsShouldReturnTheMostProbableLabelFirst() throws Exception {
+        // When
+        LabelDetectorResult redResult = detector.detectLabels(red, 3, 0);
+        LabelDetectorResult blueResult = detector.detectLabels(blue, 3, 0);
+
+        // Then
+        assertEquals(3, redResult.getNbLabels());
+        assertEquals("red", redResult.getLabels().keySet().iterator().next());
+        assertEquals("blue", blueResult.getLabels().keySet().iterator().next());
+        float total = 0;
+        for (float confidence : redResult.getLabels().values()) {
+            total += confidence;
+        }
+        assertEquals(100, total, 0.01);
+    }
+
+    @Test
+    public void testDetectLabelsShouldKeepMaxLabelsAboveMinConfidence() throws Exception {
+        // When
+        LabelDetectorResult top = detector.detectLabels(red, 1, 0);
+        LabelDetectorResult confident = detector.detectLabels(red, 3, 50);
+
+        // Then
+        assertEquals(List.of("red"), new ArrayList<>(top.getLabels().keySet()));
+        assertEquals(List.of("red"), new ArrayList<>(confident.getLabels().keySet()));
+    }
+
+    @Test
+    public void testConcurrentDetectionsShouldBeBatched() throws Exception {
+        // Given
+        int requests = 16;
+        try (LocalLabelDetector batching = new LocalLabelDetector.Builder(MODEL, LABELS, DOWNLOADER)
+                .withSessions(1)
+                .withMaxBatchDelay(Duration.ofMillis(200))
+                .build()) {
+            ExecutorService executor = Executors.newFixedThreadPool(requests);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<LabelDetectorResult>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return batching.detectLabels(red, 1, 0);
+                }));
+            }
+
+            // When
+            start.countDown();
+            for (Future<LabelDetectorResult> result : results) {
+                assertEquals("red", result.get().getLabels().keySet().iterator().next());
+            }
+            executor.shutdown();
+
+            // Then
+            LocalLabelDetector.Stats stats = batching.getStats();
+            assertEquals(requests, stats.getInferences());
+            assertTrue(stats.getBatches() < requests, "Expected fewer batches than requests, got " + stats.getBatches());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithHtmlShouldThrowImageFormatException() {
+        // Given
+        byte[] page = "<html></html>".getBytes(StandardCharsets.UTF_8);
+
+        // When & Then
+        assertThrows(LabelDetector.ImageFormatException.class, () -> detector.detectLabels(page, 3, 0));
+    }
+
+    @Test
+    public void testDetectLabelsWithDataObjectShouldThrowInvalidParamException() {
+        // When & Then
+        assertThrows(LabelDetector.InvalidParamException.class, () -> detector.detectLabels("bucket", "car.jpg", 3, 0));
+    }
+
+    @Test
+    public void testDetectLabelsAfterCloseShouldThrowServiceUnavailableException() throws Exception {
+        // Given
+        LocalLabelDetector closed = new LocalLabelDetector.Builder(MODEL, LABELS, DOWNLOADER).withSessions(1).build();
+        closed.close();
+
+        // When & Then
+        assertThrows(LabelDetector.ServiceUnavailableException.class, () -> closed.detectLabels(red, 3, 0));
+    }
+
+    @Test
+    public void testBuildWithVocabularyOfAnotherSizeShouldThrowIllegalArgumentException(@TempDir Path directory) throws IOException {
+        // Given
+        Path labels = Files.writeString(directory.resolve("labels.txt"), "red\ngreen\n");
+        LocalLabelDetector.Builder builder = new LocalLabelDetector.Builder(MODEL, labels, DOWNLOADER);
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    public void testModelIdShouldChangeWithTheVocabulary(@TempDir Path directory) throws IOException {
+        // Given
+        Path labels = Files.writeString(directory.resolve("labels.txt"), "rouge\nvert\nbleu\n");
+
+        // When
+        String sameModelId;
+        String otherModelId;
+        try (LocalLabelDetector same = new LocalLabelDetector.Builder(MODEL, LABELS, DOWNLOADER).withSessions(1).build();
+             LocalLabelDetector other = new LocalLabelDetector.Builder(MODEL, labels, DOWNLOADER).withSessions(1).build()) {
+            sameModelId = same.getModelId();
+            otherModelId = other.getModelId();
+        }
+
+        // Then
+        assertEquals(detector.getModelId(), sameModelId);
+        assertNotEquals(detector.getModelId(), otherModelId);
+        assertEquals(16, sameModelId.length());
+    }
+
+    @Test
+    public void testProbabilitiesWithLogitsShouldApplySoftmax() {
+        // When
+        float[] probabilities = LocalLabelDetector.probabilities(new float[]{2, 1, -1});
+        float[] unchanged = LocalLabelDetector.probabilities(new float[]{0.7f, 0.2f, 0.1f});
+
+        // Then
+        assertEquals(1, probabilities[0] + probabilities[1] + probabilities[2], 1e-5);
+        assertTrue(probabilities[0] > probabilities[1] && probabilities[1] > probabilities[2]);
+        assertArrayEquals(new float[]{0.7f, 0.2f, 0.1f}, unchanged);
+    }
+}
@@ -0,0 +1,82 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearDuplicateIndexTest {
+
+    @Test
+    public void testNearestShouldReturnClosestHashWithinDistance() {
+        // Given
+        NearDuplicateIndex index = new NearDuplicateIndex(100);
+        index.add(0b0000L, "zero");
+        index.add(0b0111L, "three");
+        index.add(0b1111_0000L, "far");
+
+        // When & Then
+        assertEquals("zero", index.nearest(0b0001L, 2));
+        assertEquals("three", index.nearest(0b1111L, 2));
+        assertNull(index.nearest(0b1111_1111_0000_0000L, 4));
+    }
+
+    @Test
+    public void testNearestShouldMatchLinearScan() {
+        // Given
+        NearDuplicateIndex index = new NearDuplicateIndex(10_000);
+        Random random = new Random(42);
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++) {
+            // hashes clustered around a few bases, as photos of the same scenes
+            hashes[i] = (random.nextInt(20) * 0x9E3779B97F4A7C15L) ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            index.add(hashes[i], String.valueOf(hashes[i]));
+        }
+
+        for (int i = 0; i < 200; i++) {
+            // When
+            long query = hashes[random.nextInt(hashes.length)] ^ (1L << random.nextInt(64));
+            String nearest = index.nearest(query, 3);
+
+            // Then
+            int expected = Integer.MAX_VALUE;
+            for (long hash : hashes) {
+                expected = Math.min(expected, PerceptualHash.distance(query, hash));
+            }
+            assertNotNull(nearest);
+            assertEquals(expected, PerceptualHash.distance(query, Long.parseLong(nearest)));
+        }
+    }
+
+    @Test
+    public void testAddOverMaxEntriesShouldEvictOldestHashes() {
+        // Given
+        NearDuplicateIndex index = new NearDuplicateIndex(2);
+
+        // When
+        for (long hash = 0; hash < 10; hash++) {
+            index.add(hash << 8, "key" + hash);
+        }
+
+        // Then
+        assertEquals(2, index.size());
+        assertNull(index.nearest(0, 0));
+        assertEquals("key9", index.nearest(9L << 8, 0));
+        assertEquals("key8", index.nearest(8L << 8, 0));
+    }
+
+    @Test
+    public void testAddIdenticalHashShouldReplaceKey() {
+        // Given
+        NearDuplicateIndex index = new NearDuplicateIndex(10);
+        index.add(42, "old");
+
+        // When
+        index.add(42, "new");
+
+        // Then
+        assertEquals(1, index.size());
+        assertEquals("new", index.nearest(42, 0));
+    }
+}
@@ -0,0 +1,68 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerceptualHashTest {
+    private static byte[] imageBytes;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        imageBytes = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+    }
+
+    @Test
+    public void testDHashOfResizedAndRecompressedImageShouldBeClose() {
+        // Given
+        byte[] resized = new ImagePreprocessor.Builder().withMaxDimension(400).withQuality(0.5f).build().process(imageBytes);
+
+        // When
+        OptionalLong hash = PerceptualHash.dHash(imageBytes);
+        OptionalLong resizedHash = PerceptualHash.dHash(resized);
+
+        // Then
+        assertTrue(hash.isPresent());
+        assertTrue(resizedHash.isPresent());
+        assertTrue(PerceptualHash.distance(hash.getAsLong(), resizedHash.getAsLong()) <= 4);
+    }
+
+    @Test
+    public void testDHashOfDifferentImageShouldBeFar() throws IOException {
+        // Given
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+        BufferedImage mirrored = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = mirrored.createGraphics();
+        graphics.drawImage(image, image.getWidth(), 0, -image.getWidth(), image.getHeight(), null);
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(mirrored, "jpg", output);
+
+        // When
+        OptionalLong hash = PerceptualHash.dHash(imageBytes);
+        OptionalLong mirroredHash = PerceptualHash.dHash(output.toByteArray());
+
+        // Then
+        assertTrue(PerceptualHash.distance(hash.getAsLong(), mirroredHash.getAsLong()) > 16);
+    }
+
+    @Test
+    public void testDHashOfInvalidImageShouldBeEmpty() {
+        // When
+        OptionalLong hash = PerceptualHash.dHash(new byte[]{1, 2, 3});
+
+        // Then
+        assertTrue(hash.isEmpty());
+    }
+}
@@ -0,0 +1,232 @@
+package org.amt.microservicelabeldetector.labeldetector;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReactiveLabelDetectorTest {
+    private static final int MAX_BYTES = 1024;
+    // enough of car.jpg for its header, dimensions included
+    private static final int SMALL_BYTES = 200;
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final LabelDetectorResult RESULT = new LabelDetectorResult() {
+        @Override
+        public Map<String, Float> getLabels() {
+            return Map.of("Car", 99f);
+        }
+
+        @Override
+        public int getNbLabels() {
+            return 1;
+        }
+
+        @Override
+        public LabelDetectorResult filter(int maxLabels, float minConfidence) {
+            return this;
+        }
+    };
+    private static HttpServer server;
+    private static byte[] imageBytes;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        imageBytes = Files.readAllBytes(Paths.get("src/test/resources/car.jpg"));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/small.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, SMALL_BYTES);
+            exchange.getResponseBody().write(imageBytes, 0, SMALL_BYTES);
+            exchange.close();
+        });
+        server.createContext("/large-chunked.jpg", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(imageBytes);
+            } catch (IOException e) {
+                // the client aborted the download
+            }
+        });
+        server.createContext("/page.html", exchange -> {
+            byte[] page = "<html></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+            exchange.close();
+        });
+        server.createContext("/page-as-image.jpg", exchange -> {
+            byte[] page = "<html></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private static URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static Throwable error(Mono<?> mono) {
+        try {
+            mono.block(TIMEOUT);
+        } catch (RuntimeException e) {
+            return Exceptions.unwrap(e);
+        }
+        return fail("The detection should have failed");
+    }
+
+    @Test
+    public void testDetectLabelsShouldSendDownloadedImage() throws Exception {
+        // Given
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(asyncLabelDetector).withMaxBytes(MAX_BYTES).build()) {
+
+            // When
+            LabelDetectorResult result = labelDetector.detectLabels(url("/small.jpg"), 3, 50).block(TIMEOUT);
+
+            // Then
+            assertSame(RESULT, result);
+            assertEquals(SMALL_BYTES, asyncLabelDetector.image.length);
+            assertEquals(imageBytes[99], asyncLabelDetector.image[99]);
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithTooLargeImageShouldFailWithInvalidImageSizeException() throws Exception {
+        // Given
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(asyncLabelDetector).withMaxBytes(MAX_BYTES).build()) {
+
+            // When
+            Throwable error = error(labelDetector.detectLabels(url("/large-chunked.jpg"), 3, 50));
+
+            // Then
+            assertInstanceOf(LabelDetector.InvalidImageSizeException.class, error);
+            assertNull(asyncLabelDetector.image);
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithPageShouldFailWithImageFormatException() throws Exception {
+        // Given
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(asyncLabelDetector).build()) {
+
+            // When
+            Throwable error = error(labelDetector.detectLabels(url("/page.html"), 3, 50));
+
+            // Then
+            assertInstanceOf(LabelDetector.ImageFormatException.class, error);
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithPageAsImageShouldFailWithImageFormatException() throws Exception {
+        // Given
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(CompletableFuture.completedFuture(RESULT));
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(asyncLabelDetector).build()) {
+
+            // When
+            Throwable error = error(labelDetector.detectLabels(url("/page-as-image.jpg"), 3, 50));
+
+            // Then
+            assertInstanceOf(LabelDetector.ImageFormatException.class, error);
+            assertNull(asyncLabelDetector.image);
+        }
+    }
+
+    @Test
+    public void testCancelDetectLabelsShouldCancelRekognitionCall() throws Exception {
+        // Given
+        CompletableFuture<LabelDetectorResult> call = new CompletableFuture<>();
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(call);
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(asyncLabelDetector).build()) {
+            Disposable subscription = labelDetector.detectLabels("bucket", "car.jpg", 3, 50).subscribe();
+            assertTrue(asyncLabelDetector.called.await(5, TimeUnit.SECONDS));
+
+            // When
+            subscription.dispose();
+
+            // Then
+            assertTrue(call.isCancelled());
+        }
+    }
+
+    @Test
+    public void testCancelCoalescedDetectionsShouldCancelRekognitionCallWithTheLastOne() throws Exception {
+        // Given
+        CompletableFuture<LabelDetectorResult> call = new CompletableFuture<>();
+        StubAsyncLabelDetector asyncLabelDetector = new StubAsyncLabelDetector(call);
+        AsyncLabelDetector coalescing = new AsyncCoalescingLabelDetector(asyncLabelDetector);
+        try (ReactiveLabelDetector labelDetector = new ReactiveLabelDetector.Builder(coalescing).build()) {
+            Disposable first = labelDetector.detectLabels("bucket", "car.jpg", 3, 50).subscribe();
+            Disposable second = labelDetector.detectLabels("bucket", "car.jpg", 3, 50).subscribe();
+
+            // When
+            first.dispose();
+            boolean cancelledWithFirst = call.isCancelled();
+            second.dispose();
+
+            // Then
+            assertFalse(cancelledWithFirst);
+            assertTrue(call.isCancelled());
+        }
+    }
+
+    private static class StubAsyncLabelDetector implements AsyncLabelDetector {
+        private final CompletableFuture<LabelDetectorResult> result;
+        private final CountDownLatch called = new CountDownLatch(1);
+        private volatile byte[] image;
+
+        private StubAsyncLabelDetector(CompletableFuture<LabelDetectorResult> result) {
+            this.result = result;
+        }
+
+        private CompletableFuture<LabelDetectorResult> detect() {
+            called.countDown();
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(byte[] image, int maxLabels, float minConfidence) {
+            this.image = image;
+            return detect();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(String dataObject, String key, int maxLabels, float minConfidence) {
+            return detect();
+        }
+
+        @Override
+        public CompletableFuture<LabelDetectorResult> detectLabels(URL url, int maxLabels, float minConfidence) {
+            return detect();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.amt.microservicelabeldetector.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@code /labels} at a fixed request rate and reports the throughput and latency percentiles
+ * <p>
+ * Requests are sent on schedule whether or not the previous ones completed, and their latency is measured from the
+ * time they were due, so a stalled service shows in the percentiles instead of slowing the test down. Requests of
+ * the warm-up are not measured.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class LoadTest {
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final String target;
+    private final String images;
+    private final int rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final int maxLabels;
+    private final int confidence;
+    private final int distinctImages;
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private long[] latencies;
+    private final AtomicInteger measured = new AtomicInteger();
+
+    private LoadTest(Arguments arguments) {
+        this.target = arguments.getString("target", "http://localhost:8081");
+        this.images = arguments.getString("images", "http://localhost:4566/images");
+        this.rate = arguments.getInt("rate", 50);
+        this.duration = arguments.getDuration("duration", Duration.ofSeconds(30));
+        this.warmup = arguments.getDuration("warmup", Duration.ofSeconds(5));
+        this.maxLabels = arguments.getInt("max-labels", 10);
+        this.confidence = arguments.getInt("confidence", 70);
+        this.distinctImages = arguments.getInt("distinct-images", Integer.MAX_VALUE);
+        this.maxInFlight = arguments.getInt("max-in-flight", 10000);
+    }
+
+    private void run() {
+        long warmupRequests = rate * warmup.toSeconds();
+        long totalRequests = warmupRequests + rate * duration.toSeconds();
+        latencies = new long[(int) (totalRequests - warmupRequests)];
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[(int) totalRequests];
+        for (int i = 0; i < totalRequests; i++) {
+            long due = start + i * period;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measure = i >= warmupRequests;
+            if (inFlight.get() >= maxInFlight) {
+                if (measure) {
+                    dropped.increment();
+                }
+                pending[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+            inFlight.incrementAndGet();
+            pending[i] = httpClient.sendAsync(request(i), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, e) -> {
+                        inFlight.decrementAndGet();
+                        if (measure) {
+                            latencies[measured.getAndIncrement()] = System.nanoTime() - due;
+                            String outcome = e == null ? String.valueOf(response.statusCode()) : e.getClass().getSimpleName();
+                            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+                        }
+                    });
+        }
+        CompletableFuture.allOf(pending).exceptionally(e -> null).join();
+        report(System.nanoTime() - start - warmupRequests * period);
+    }
+
+    private HttpRequest request(int index) {
+        String imageURL = images + "/" + (index % distinctImages) + ".jpg";
+        URI uri = URI.create(target + "/labels?imageURL=" + URLEncoder.encode(imageURL, StandardCharsets.UTF_8)
+                + "&maxLabels=" + maxLabels + "&confidence=" + confidence);
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private void report(long elapsedNanos) {
+        int count = measured.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        Map<String, Long> byOutcome = new TreeMap<>();
+        outcomes.forEach((outcome, adder) -> byOutcome.put(outcome, adder.sum()));
+        System.out.printf("target rate:  %d req/s for %ds%n", rate, duration.toSeconds());
+        System.out.printf("throughput:   %.1f req/s%n", count / (elapsedNanos / 1e9));
+        System.out.printf("completed:    %d %s, dropped: %d%n", count, byOutcome, dropped.sum());
+        if (count > 0) {
+            System.out.printf("latency (ms): p50=%.1f p99=%.1f p999=%.1f max=%.1f%n",
+                    percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999), sorted[count - 1] / 1e6);
+        }
+    }
+
+    static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * Runs a load test, for instance:
+     * {@code --target http://localhost:8081 --images http://localhost:4566/images --rate 200 --duration 60s --warmup 10s}
+     * <p>
+     * Each request labels a distinct image unless {@code --distinct-images} bounds their number, to measure cache
+     * hits.
+     * </p>
+     */
+    public static void main(String[] args) {
+        new LoadTest(new Arguments(args)).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,311 @@
+package org.amt.microservicelabeldetector.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for Rekognition, answering DetectLabels over its JSON protocol
+ * <p>
+ * Responses are delayed following a log-normal latency distribution given by its median and 99th percentile.
+ * Requests above the maximum rate, and a given share of the others, are throttled; another share fails with an
+ * internal error. The simulator also serves a test image under {@code /images/}, with a suffix depending on the path,
+ * so each path is a distinct image for the cache.
+ * </p>
+ * <p>
+ * Point the service at it with {@code labeldetector.rekognition.endpoint=http://localhost:4566} and any AWS
+ * credentials.
+ * </p>
+ *
+ * @author Nelson Jeanreneaud
+ */
+public class RekognitionSimulator implements AutoCloseable {
+    private static final String DETECT_LABELS_TARGET = "RekognitionService.DetectLabels";
+    private static final float DEFAULT_MIN_CONFIDENCE = 55;
+    // z-score of the 99th percentile of the normal distribution
+    private static final double Z_99 = 2.326;
+    private static final List<String> LABELS = List.of("Car", "Vehicle", "Transportation", "Automobile", "Wheel",
+            "Machine", "Tire", "Road", "Sports Car", "Coupe", "Person", "Human", "Tree", "Plant", "Sky", "Outdoors",
+            "Building", "City", "Street", "Urban");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final byte[] image;
+    private final double latencyMu;
+    private final double latencySigma;
+    private final double throttleRate;
+    private final double errorRate;
+    private final int maxRequestsPerSecond;
+
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicLong requestsInSecond = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttledRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+
+    private RekognitionSimulator(Builder builder) throws IOException {
+        double medianMillis = builder.medianLatency.toNanos() / 1e6;
+        double p99Millis = builder.p99Latency.toNanos() / 1e6;
+        this.latencyMu = Math.log(Math.max(medianMillis, 0.001));
+        this.latencySigma = medianMillis <= 0 ? 0 : Math.log(p99Millis / medianMillis) / Z_99;
+        this.throttleRate = builder.throttleRate;
+        this.errorRate = builder.errorRate;
+        this.maxRequestsPerSecond = builder.maxRequestsPerSecond;
+        try (InputStream stream = RekognitionSimulator.class.getResourceAsStream("/car.jpg")) {
+            this.image = Objects.requireNonNull(stream, "car.jpg is missing from the test resources").readAllBytes();
+        }
+        this.executor = Executors.newFixedThreadPool(builder.threads);
+        this.scheduler = Executors.newScheduledThreadPool(2);
+        this.server = HttpServer.create(new InetSocketAddress(builder.port), 1024);
+        server.createContext("/", this::handleDetectLabels);
+        server.createContext("/images/", this::handleImage);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private void handleDetectLabels(HttpExchange exchange) throws IOException {
+        requests.increment();
+        JsonNode request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = objectMapper.readTree(body);
+        } catch (IOException e) {
+            respond(exchange, 400, error("SerializationException", "Invalid request body"));
+            return;
+        }
+        if (!DETECT_LABELS_TARGET.equals(exchange.getRequestHeaders().getFirst("X-Amz-Target"))) {
+            respond(exchange, 400, error("UnknownOperationException", "Only DetectLabels is simulated"));
+            return;
+        }
+        ObjectNode response;
+        int status;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (request.path("Image").path("Bytes").isMissingNode() && request.path("Image").path("S3Object").isMissingNode()) {
+            status = 400;
+            response = error("InvalidParameterException", "Image must have Bytes or S3Object");
+        } else if (overMaxRate() || random.nextDouble() < throttleRate) {
+            throttledRequests.increment();
+            status = 400;
+            response = error("ProvisionedThroughputExceededException", "Provisioned rate exceeded");
+        } else if (random.nextDouble() < errorRate) {
+            failedRequests.increment();
+            status = 500;
+            response = error("InternalServerError", "Simulated internal error");
+        } else {
+            status = 200;
+            response = labels(request.path("MaxLabels").asInt(LABELS.size()),
+                    (float) request.path("MinConfidence").asDouble(DEFAULT_MIN_CONFIDENCE));
+        }
+        long delayMicros = (long) (Math.exp(latencyMu + latencySigma * random.nextGaussian()) * 1000);
+        // the response is sent later from the scheduler, no thread waits for it
+        scheduler.schedule(() -> respond(exchange, status, response), delayMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private boolean overMaxRate() {
+        if (maxRequestsPerSecond <= 0) {
+            return false;
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        long previous = currentSecond.get();
+        if (second != previous && currentSecond.compareAndSet(previous, second)) {
+            requestsInSecond.set(0);
+        }
+        return requestsInSecond.incrementAndGet() > maxRequestsPerSecond;
+    }
+
+    private ObjectNode labels(int maxLabels, float minConfidence) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode labels = response.putArray("Labels");
+        for (int i = 0; i < LABELS.size() && labels.size() < maxLabels; i++) {
+            float confidence = 99.5f - i * 2.5f;
+            if (confidence < minConfidence) {
+                break;
+            }
+            ObjectNode label = labels.addObject();
+            label.put("Name", LABELS.get(i));
+            label.put("Confidence", confidence);
+            ArrayNode instances = label.putArray("Instances");
+            if (i == 0) {
+                ObjectNode instance = instances.addObject();
+                instance.put("Confidence", confidence);
+                instance.putObject("BoundingBox")
+                        .put("Width", 0.8).put("Height", 0.6).put("Left", 0.1).put("Top", 0.2);
+            }
+            ArrayNode parents = label.putArray("Parents");
+            if (i > 0 && i < 4) {
+                parents.addObject().put("Name", "Transportation");
+            }
+        }
+        response.put("LabelModelVersion", "2.0");
+        return response;
+    }
+
+    private ObjectNode error(String type, String message) {
+        return objectMapper.createObjectNode().put("__type", type).put("message", message);
+    }
+
+    private void respond(HttpExchange exchange, int status, ObjectNode body) {
+        try (exchange) {
+            byte[] bytes = objectMapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.1");
+            if (status != 200) {
+                exchange.getResponseHeaders().add("x-amzn-ErrorType", body.get("__type").asText());
+            }
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void handleImage(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // bytes after the end of a JPEG are ignored by decoders, but make each path a distinct image
+            byte[] suffix = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = Arrays.copyOf(image, image.length + suffix.length);
+            System.arraycopy(suffix, 0, bytes, image.length, suffix.length);
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getThrottledRequests() {
+        return throttledRequests.sum();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a simulator until the process is stopped, for instance:
+     * {@code --port 4566 --median-latency 80ms --p99-latency 400ms --throttle-rate 0.01 --error-rate 0.001 --max-rate 50}
+     */
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = new Arguments(args);
+        RekognitionSimulator simulator = new Builder()
+                .withPort(arguments.getInt("port", 4566))
+                .withLatency(arguments.getDuration("median-latency", Duration.ofMillis(80)),
+                        arguments.getDuration("p99-latency", Duration.ofMillis(400)))
+                .withThrottleRate(arguments.getDouble("throttle-rate", 0))
+                .withErrorRate(arguments.getDouble("error-rate", 0))
+                .withMaxRequestsPerSecond(arguments.getInt("max-rate", 0))
+                .withThreads(arguments.getInt("threads", 16))
+                .build();
+        System.out.println("Rekognition simulator listening on http://localhost:" + simulator.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.printf("requests=%d throttled=%d failed=%d%n",
+                    simulator.getRequests(), simulator.getThrottledRequests(), simulator.getFailedRequests());
+            simulator.close();
+        }));
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static class Builder {
+        private int port;
+        private Duration medianLatency = Duration.ZERO;
+        private Duration p99Latency = Duration.ZERO;
+        private double throttleRate;
+        private double errorRate;
+        private int maxRequestsPerSecond;
+        private int threads = 4;
+
+        /**
+         * @param port the port to listen on, 0 for an ephemeral one.
+         */
+        public Builder withPort(int port) {
+            if (port < 0) {
+                throw new IllegalArgumentException("Port must not be negative");
+            }
+            this.port = port;
+            return this;
+        }
+
+        public Builder withLatency(Duration median, Duration p99) {
+            Objects.requireNonNull(median);
+            Objects.requireNonNull(p99);
+            if (p99.compareTo(median) < 0) {
+                throw new IllegalArgumentException("The 99th percentile must not be lower than the median");
+            }
+            this.medianLatency = median;
+            this.p99Latency = p99;
+            return this;
+        }
+
+        public Builder withThrottleRate(double throttleRate) {
+            if (throttleRate < 0 || throttleRate > 1) {
+                throw new IllegalArgumentException("Throttle rate must be between 0 and 1");
+            }
+            this.throttleRate = throttleRate;
+            return this;
+        }
+
+        public Builder withErrorRate(double errorRate) {
+            if (errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("Error rate must be between 0 and 1");
+            }
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * @param maxRequestsPerSecond the rate above which requests are throttled, 0 for no limit.
+         */
+        public Builder withMaxRequestsPerSecond(int maxRequestsPerSecond) {
+            if (maxRequestsPerSecond < 0) {
+                throw new IllegalArgumentException("Max requests per second must not be negative");
+            }
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be greater than 0");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public RekognitionSimulator build() throws IOException {
+            return new RekognitionSimulator(this);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.amt.microservicelabeldetector.loadtest;
+
+import org.amt.microservicelabeldetector.labeldetector.AwsLabelDetectorHelperImpl;
+import org.amt.microservicelabeldetector.labeldetector.AwsServiceConfigurator;
+import org.amt.microservicelabeldetector.labeldetector.ImageDownloader;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetector;
+import org.amt.microservicelabeldetector.labeldetector.LabelDetectorResult;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RekognitionSimulatorTest {
+
+    private static LabelDetector labelDetector(RekognitionSimulator simulator) {
+        RekognitionClient client = RekognitionClient.builder()
+                .region(Region.EU_WEST_2)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .endpointOverride(URI.create("http://localhost:" + simulator.getPort()))
+                .httpClientBuilder(ApacheHttpClient.builder())
+                .overrideConfiguration(configuration -> configuration.retryPolicy(RetryPolicy.none()))
+                .build();
+        return new AwsLabelDetectorHelperImpl(client, new ImageDownloader(), null, null, null);
+    }
+
+    private static AwsServiceConfigurator.Builder configurator(RekognitionSimulator simulator) {
+        return new AwsServiceConfigurator.Builder()
+                .withCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .withEndpointOverride(URI.create("http://localhost:" + simulator.getPort()));
+    }
+
+    @Test
+    public void testDetectLabelsShouldReturnLabelsOfTheSimulator() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().build()) {
+            LabelDetector labelDetector = labelDetector(simulator);
+
+            // When
+            LabelDetectorResult result = labelDetector.detectLabels(new URL("http://localhost:" + simulator.getPort() + "/images/1.jpg"), 3, 90);
+
+            // Then
+            assertEquals(3, result.getNbLabels());
+            assertTrue(result.getLabels().containsKey("Car"));
+            result.getLabels().forEach((label, confidence) -> assertTrue(confidence >= 90));
+            assertEquals(1, simulator.getRequests());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsShouldBeDelayedByTheLatency() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder()
+                .withLatency(Duration.ofMillis(100), Duration.ofMillis(100))
+                .build()) {
+            LabelDetector labelDetector = labelDetector(simulator);
+
+            // When
+            long start = System.nanoTime();
+            labelDetector.detectLabels("bucket", "car.jpg", 3, 90);
+            long elapsed = System.nanoTime() - start;
+
+            // Then
+            assertTrue(elapsed >= Duration.ofMillis(100).toNanos());
+        }
+    }
+
+    @Test
+    public void testThrottledRequestsShouldRaiseTooManyRequestsException() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().withThrottleRate(1).build()) {
+            LabelDetector labelDetector = labelDetector(simulator);
+
+            // When & Then
+            assertThrows(LabelDetector.TooManyRequestsException.class, () -> labelDetector.detectLabels("bucket", "car.jpg", 3, 90));
+            assertEquals(1, simulator.getThrottledRequests());
+        }
+    }
+
+    @Test
+    public void testFailedRequestsShouldRaiseInternalErrorException() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().withErrorRate(1).build()) {
+            LabelDetector labelDetector = labelDetector(simulator);
+
+            // When & Then
+            assertThrows(LabelDetector.InternalErrorException.class, () -> labelDetector.detectLabels("bucket", "car.jpg", 3, 90));
+            assertEquals(1, simulator.getFailedRequests());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsWithUrlConnectionClientShouldReturnLabels() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder().build();
+             RekognitionClient client = configurator(simulator)
+                     .withHttpClient(AwsServiceConfigurator.HttpClientType.URL_CONNECTION)
+                     .build()
+                     .createRekognitionClient()) {
+            LabelDetector labelDetector = new AwsLabelDetectorHelperImpl(client, new ImageDownloader(), null, null, null);
+
+            // When
+            LabelDetectorResult result = labelDetector.detectLabels("bucket", "car.jpg", 3, 90);
+
+            // Then
+            assertEquals(3, result.getNbLabels());
+        }
+    }
+
+    @Test
+    public void testDetectLabelsOverAttemptTimeoutShouldRaiseServiceTimeoutException() throws Exception {
+        // Given
+        try (RekognitionSimulator simulator = new RekognitionSimulator.Builder()
+                .withLatency(Duration.ofMillis(500), Duration.ofMillis(500))
+                .build();
+             RekognitionClient client = configurator(simulator)
+                     .withApiCallTimeouts(Duration.ofMillis(300), Duration.ofMillis(100))
+                     .build()
+                     .createRekognitionClient()) {
+            LabelDetector labelDetector = new AwsLabelDetectorHelperImpl(client, new ImageDownloader(), null, null, null);
+
+            // When & Then
+            assertThrows(LabelDetector.ServiceTimeoutException.class, () -> labelDetector.detectLabels("bucket", "car.jpg", 3, 90));
+        }
+    }
+}